@@ -1,52 +1,83 @@
 package app.js.api;
 
+import app.js.service.AnalyticsResultCache;
 import app.js.service.AnalyticsService;
 import java.util.List;
 import java.util.Map;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 
 @RestController
 @RequestMapping("/api/analytics")
 public class AnalyticsController {
 
   private final AnalyticsService analyticsService;
+  private final AnalyticsResultCache cache;
 
-  public AnalyticsController(AnalyticsService analyticsService) {
+  public AnalyticsController(AnalyticsService analyticsService, AnalyticsResultCache cache) {
     this.analyticsService = analyticsService;
+    this.cache = cache;
   }
 
   @GetMapping("/by-wiki")
   public Map<String, Long> getEventsByWiki(@RequestParam(defaultValue = "24") int hours) {
-    return analyticsService.getEventsByWiki(hours);
+    return cache.get("by-wiki", hours, () -> analyticsService.getEventsByWiki(hours));
   }
 
   @GetMapping("/by-type")
   public Map<String, Long> getEventsByType(@RequestParam(defaultValue = "24") int hours) {
-    return analyticsService.getEventsByType(hours);
+    return cache.get("by-type", hours, () -> analyticsService.getEventsByType(hours));
   }
 
+  /** Approximate with per-row error bounds unless {@code exact}; see {@link AnalyticsService}. */
   @GetMapping("/top-users")
   public List<Map<String, Object>> getTopUsers(
-      @RequestParam(defaultValue = "24") int hours, @RequestParam(defaultValue = "10") int limit) {
-    return analyticsService.getTopUsers(hours, limit);
+      @RequestParam(defaultValue = "24") int hours,
+      @RequestParam(defaultValue = "10") int limit,
+      @RequestParam(defaultValue = "false") boolean exact) {
+    return analyticsService.getTopUsers(hours, limit, exact);
   }
 
+  /** Approximate with per-row error bounds unless {@code exact}; see {@link AnalyticsService}. */
   @GetMapping("/top-pages")
   public List<Map<String, Object>> getTopPages(
-      @RequestParam(defaultValue = "24") int hours, @RequestParam(defaultValue = "10") int limit) {
-    return analyticsService.getTopPages(hours, limit);
+      @RequestParam(defaultValue = "24") int hours,
+      @RequestParam(defaultValue = "10") int limit,
+      @RequestParam(defaultValue = "false") boolean exact) {
+    return analyticsService.getTopPages(hours, limit, exact);
   }
 
   @GetMapping("/hourly")
   public Map<String, Long> getHourlyDistribution(@RequestParam(defaultValue = "24") int hours) {
-    return analyticsService.getHourlyDistribution(hours);
+    return cache.get("hourly", hours, () -> analyticsService.getHourlyDistribution(hours));
   }
 
   @GetMapping("/breakdown")
   public Map<String, Object> getEventBreakdown(@RequestParam(defaultValue = "24") int hours) {
-    return analyticsService.getEventBreakdown(hours);
+    return cache.get("breakdown", hours, () -> analyticsService.getEventBreakdown(hours));
+  }
+
+  @GetMapping("/distinct")
+  public Map<String, Object> getDistinctCounts(@RequestParam(defaultValue = "24") int hours) {
+    return analyticsService.getDistinctCounts(hours);
+  }
+
+  @GetMapping("/distinct/{dimension}")
+  public Map<String, Object> getDistinctCount(
+      @PathVariable String dimension, @RequestParam(defaultValue = "24") int hours) {
+    if (!AnalyticsService.DISTINCT_DIMENSIONS.contains(dimension)) {
+      throw new ResponseStatusException(
+          HttpStatus.BAD_REQUEST,
+          "Unknown dimension "
+              + dimension
+              + ", expected one of "
+              + AnalyticsService.DISTINCT_DIMENSIONS);
+    }
+    return analyticsService.getDistinctCount(dimension, hours);
   }
 }
@@ -0,0 +1,39 @@
+package app.js.api;
+
+import app.js.entity.WikimediaEvent;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+
+/**
+ * Continuation token of {@code /api/events/cursor}: the {@code receivedAt} and id of the last event
+ * of a slice, encoded as URL-safe Base64 so that clients treat it as opaque.
+ */
+record EventCursor(Instant receivedAt, String id) {
+
+  static EventCursor after(WikimediaEvent event) {
+    return new EventCursor(event.getReceivedAt(), event.getId());
+  }
+
+  String encode() {
+    String key = receivedAt.toEpochMilli() + ":" + id;
+    return Base64.getUrlEncoder()
+        .withoutPadding()
+        .encodeToString(key.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * @throws IllegalArgumentException if {@code token} was not produced by {@link #encode()}
+   */
+  static EventCursor decode(String token) {
+    String key = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+    int separator = key.indexOf(':');
+    if (separator <= 0 || separator == key.length() - 1) {
+      throw new IllegalArgumentException("Malformed cursor");
+    }
+    // millisecond precision is what MongoDB stores receivedAt with
+    return new EventCursor(
+        Instant.ofEpochMilli(Long.parseLong(key.substring(0, separator))),
+        key.substring(separator + 1));
+  }
+}
@@ -1,137 +1,119 @@
 package app.js.api;
 
-import app.js.entity.FailedEvent;
-import app.js.repository.FailedEventRepository;
-import app.js.repository.WikimediaEventRepository;
-import app.js.service.EventPersistenceService;
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
+import app.js.kafka.ConsumerLagMonitor;
+import app.js.kafka.ConsumerLagSnapshot;
+import app.js.service.EventLatencyRecorder;
+import app.js.service.SystemStatusSampler;
+import app.js.service.SystemStatusSnapshot;
 import java.util.HashMap;
-import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.stream.Collectors;
-import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 
 @RestController
 @RequestMapping("/api/system")
 public class SystemController {
 
-  private final WikimediaEventRepository eventRepository;
-  private final FailedEventRepository failedEventRepository;
-  private final EventPersistenceService persistenceService;
-
-  public SystemController(
-      WikimediaEventRepository eventRepository,
-      FailedEventRepository failedEventRepository,
-      EventPersistenceService persistenceService) {
-    this.eventRepository = eventRepository;
-    this.failedEventRepository = failedEventRepository;
-    this.persistenceService = persistenceService;
+  private final SystemStatusSampler statusSampler;
+  private final ConsumerLagMonitor lagMonitor;
+
+  public SystemController(SystemStatusSampler statusSampler, ConsumerLagMonitor lagMonitor) {
+    this.statusSampler = statusSampler;
+    this.lagMonitor = lagMonitor;
   }
 
   @GetMapping("/status")
   public Map<String, Object> getSystemStatus() {
-    Instant now = Instant.now();
-    Instant oneMinuteAgo = now.minus(1, ChronoUnit.MINUTES);
-    Instant fiveMinutesAgo = now.minus(5, ChronoUnit.MINUTES);
-
-    long totalEvents = eventRepository.count();
-    long eventsLastMinute = eventRepository.countByReceivedAtAfter(oneMinuteAgo);
-    long eventsLast5Minutes = eventRepository.countByReceivedAtAfter(fiveMinutesAgo);
-
-    long totalFailed = failedEventRepository.count();
-    long failedLastMinute = failedEventRepository.countByFailedAtAfter(oneMinuteAgo);
-    long exhaustedRetries = failedEventRepository.countByRetryCountGreaterThanEqual(3);
+    SystemStatusSnapshot snapshot = statusSampler.current();
 
-    int queueSize = persistenceService.getQueueSize();
+    int queueSize = snapshot.queueSize();
+    long exhaustedRetries = snapshot.failedExhausted();
 
     String healthStatus = "HEALTHY";
     if (queueSize > 8000 || exhaustedRetries > 100) {
       healthStatus = "CRITICAL";
-    } else if (queueSize > 5000 || exhaustedRetries > 50 || failedLastMinute > 10) {
+    } else if (queueSize > 5000 || exhaustedRetries > 50 || snapshot.failedLastMinute() > 10) {
       healthStatus = "WARNING";
     }
 
-    Map<String, Object> result = new HashMap<>();
+    Map<String, Object> result = snapshotResult(snapshot);
     result.put("status", healthStatus);
-    result.put("timestamp", now.toString());
+    result.put("timestamp", snapshot.sampledAt().toString());
     result.put(
         "events",
         Map.of(
-            "total", totalEvents,
-            "lastMinute", eventsLastMinute,
-            "last5Minutes", eventsLast5Minutes,
-            "ratePerSecond", eventsLastMinute / 60.0));
+            "total", snapshot.totalEvents(),
+            "lastMinute", snapshot.eventsLastMinute(),
+            "last5Minutes", snapshot.eventsLast5Minutes(),
+            "ratePerSecond", snapshot.eventsLastMinute() / 60.0));
     result.put("queue", Map.of("size", queueSize, "capacityUsed", queueSize / 100.0 + "%"));
     result.put(
         "dlq",
         Map.of(
-            "total", totalFailed,
-            "lastMinute", failedLastMinute,
+            "total", snapshot.failedTotal(),
+            "lastMinute", snapshot.failedLastMinute(),
             "exhaustedRetries", exhaustedRetries));
 
     return result;
   }
 
+  /**
+   * DLQ counts and the most recent failed events. The snapshot holds {@code
+   * app.system.status.recent-failures} of them, so a larger {@code limit} is capped to that; the
+   * response reports the {@code limit} applied and the {@code maxLimit}.
+   */
   @GetMapping("/dlq")
   public Map<String, Object> getDlqStatus(@RequestParam(defaultValue = "10") int limit) {
-    long total = failedEventRepository.count();
-    long retryable = failedEventRepository.findByRetryCountLessThan(3).size();
-    long exhausted = failedEventRepository.countByRetryCountGreaterThanEqual(3);
-
-    List<FailedEvent> recentFailures =
-        failedEventRepository.findAllByOrderByFailedAtDesc(PageRequest.of(0, limit)).getContent();
-
-    Map<String, Long> byErrorType =
-        failedEventRepository.findAll().stream()
-            .collect(Collectors.groupingBy(FailedEvent::getErrorType, Collectors.counting()));
-
-    Instant oneHourAgo = Instant.now().minus(1, ChronoUnit.HOURS);
-    long failedLastHour = failedEventRepository.countByFailedAtAfter(oneHourAgo);
+    if (limit < 0) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must not be negative");
+    }
+    int maxLimit = statusSampler.maxRecentFailures();
+    int applied = Math.min(limit, maxLimit);
+    SystemStatusSnapshot snapshot = statusSampler.current();
 
-    Map<String, Object> result = new HashMap<>();
+    Map<String, Object> result = snapshotResult(snapshot);
     result.put(
         "summary",
         Map.of(
-            "total", total,
-            "retryable", retryable,
-            "exhausted", exhausted,
-            "lastHour", failedLastHour));
-    result.put("byErrorType", byErrorType);
+            "total", snapshot.failedTotal(),
+            "retryable", snapshot.failedRetryable(),
+            "exhausted", snapshot.failedExhausted(),
+            "lastHour", snapshot.failedLastHour()));
+    result.put("byErrorType", snapshot.failuresByErrorType());
     result.put(
         "recentFailures",
-        recentFailures.stream()
+        snapshot.recentFailures().stream()
+            .limit(applied)
             .map(
                 f ->
                     Map.of(
-                        "id", f.getId(),
-                        "errorType", f.getErrorType(),
-                        "errorMessage", f.getErrorMessage(),
-                        "failedAt", f.getFailedAt().toString(),
-                        "retryCount", f.getRetryCount()))
+                        "id", f.id(),
+                        "errorType", f.errorType(),
+                        "errorMessage", f.errorMessage(),
+                        "failedAt", f.failedAt().toString(),
+                        "retryCount", f.retryCount()))
             .toList());
+    result.put("limit", applied);
+    result.put("maxLimit", maxLimit);
 
     return result;
   }
 
   @GetMapping("/throughput")
   public Map<String, Object> getThroughput() {
-    Instant now = Instant.now();
-    Instant oneMinuteAgo = now.minus(1, ChronoUnit.MINUTES);
-    Instant fiveMinutesAgo = now.minus(5, ChronoUnit.MINUTES);
-    Instant fifteenMinutesAgo = now.minus(15, ChronoUnit.MINUTES);
-    Instant oneHourAgo = now.minus(1, ChronoUnit.HOURS);
+    SystemStatusSnapshot snapshot = statusSampler.current();
 
-    long eventsLastMinute = eventRepository.countByReceivedAtAfter(oneMinuteAgo);
-    long eventsLast5Minutes = eventRepository.countByReceivedAtAfter(fiveMinutesAgo);
-    long eventsLast15Minutes = eventRepository.countByReceivedAtAfter(fifteenMinutesAgo);
-    long eventsLastHour = eventRepository.countByReceivedAtAfter(oneHourAgo);
+    long eventsLastMinute = snapshot.eventsLastMinute();
+    long eventsLast5Minutes = snapshot.eventsLast5Minutes();
+    long eventsLast15Minutes = snapshot.eventsLast15Minutes();
+    long eventsLastHour = snapshot.eventsLastHour();
 
-    Map<String, Object> result = new HashMap<>();
+    Map<String, Object> result = snapshotResult(snapshot);
     result.put(
         "current",
         Map.of("eventsPerSecond", eventsLastMinute / 60.0, "eventsPerMinute", eventsLastMinute));
@@ -148,38 +130,110 @@ public class SystemController {
             "last5Minutes", eventsLast5Minutes,
             "last15Minutes", eventsLast15Minutes,
             "lastHour", eventsLastHour));
-    result.put("queueSize", persistenceService.getQueueSize());
+    result.put("queueSize", snapshot.queueSize());
 
     return result;
   }
 
+  /**
+   * Measured latency percentiles per pipeline stage. The status follows the end-to-end p99 once
+   * events with a producer timestamp have been written, and the queue-based estimate before that.
+   */
   @GetMapping("/latency")
   public Map<String, Object> getLatencyEstimate() {
-    int queueSize = persistenceService.getQueueSize();
+    SystemStatusSnapshot snapshot = statusSampler.current();
 
-    Instant oneMinuteAgo = Instant.now().minus(1, ChronoUnit.MINUTES);
-    long eventsLastMinute = eventRepository.countByReceivedAtAfter(oneMinuteAgo);
-    double eventsPerSecond = eventsLastMinute / 60.0;
+    int queueSize = snapshot.queueSize();
+    double eventsPerSecond = snapshot.eventsLastMinute() / 60.0;
 
     double estimatedLatencySeconds = eventsPerSecond > 0 ? queueSize / eventsPerSecond : 0;
 
+    SystemStatusSnapshot.Latency endToEnd =
+        snapshot.latencies().get(EventLatencyRecorder.Stage.PRODUCE_TO_COMMIT.tag());
+    boolean measured = endToEnd != null && endToEnd.count() > 0;
+    double latencySeconds = measured ? endToEnd.p99Millis() / 1000 : estimatedLatencySeconds;
+
     String latencyStatus = "GOOD";
-    if (estimatedLatencySeconds > 60) {
+    if (latencySeconds > 60) {
       latencyStatus = "CRITICAL";
-    } else if (estimatedLatencySeconds > 30) {
+    } else if (latencySeconds > 30) {
       latencyStatus = "WARNING";
     }
 
-    Map<String, Object> result = new HashMap<>();
+    Map<String, Object> stages = new LinkedHashMap<>();
+    snapshot
+        .latencies()
+        .forEach(
+            (stage, latency) ->
+                stages.put(
+                    stage,
+                    Map.of(
+                        "count", latency.count(),
+                        "p50Ms", latency.p50Millis(),
+                        "p99Ms", latency.p99Millis(),
+                        "p999Ms", latency.p999Millis())));
+
+    Map<String, Object> result = snapshotResult(snapshot);
     result.put("status", latencyStatus);
+    result.put("statusBasis", measured ? "end-to-end-p99" : "queue-estimate");
     result.put("queueSize", queueSize);
     result.put("processingRatePerSecond", eventsPerSecond);
     result.put("estimatedLatencySeconds", estimatedLatencySeconds);
     result.put("estimatedLatencyFormatted", formatDuration(estimatedLatencySeconds));
+    result.put("stages", stages);
 
     return result;
   }
 
+  /**
+   * Offsets and lag per partition assigned to this instance. Unknown offsets and lag estimates are
+   * null; {@code maxLagSeconds} is null while a lagging partition is not being consumed.
+   */
+  @GetMapping("/lag")
+  public Map<String, Object> getConsumerLag() {
+    ConsumerLagSnapshot snapshot = lagMonitor.current();
+
+    Map<String, Object> result = new HashMap<>();
+    result.put("snapshotAgeMillis", lagMonitor.age(snapshot).toMillis());
+    result.put("timestamp", snapshot.sampledAt().toString());
+    result.put("totalLag", snapshot.totalLag());
+    result.put("maxLagSeconds", finiteOrNull(snapshot.maxLagSeconds()));
+    result.put(
+        "partitions",
+        snapshot.partitions().stream()
+            .map(
+                p -> {
+                  Map<String, Object> partition = new LinkedHashMap<>();
+                  partition.put("topic", p.topic());
+                  partition.put("partition", p.partition());
+                  partition.put("committedOffset", offsetOrNull(p.committedOffset()));
+                  partition.put("position", offsetOrNull(p.position()));
+                  partition.put("logEndOffset", p.logEndOffset());
+                  partition.put("lag", p.lag());
+                  partition.put("consumedPerSecond", finiteOrNull(p.consumedPerSecond()));
+                  partition.put("lagSeconds", finiteOrNull(p.lagSeconds()));
+                  return partition;
+                })
+            .toList());
+
+    return result;
+  }
+
+  private static Long offsetOrNull(long offset) {
+    return offset == ConsumerLagMonitor.NO_OFFSET ? null : offset;
+  }
+
+  private static Double finiteOrNull(double value) {
+    return Double.isFinite(value) ? value : null;
+  }
+
+  /** A response map carrying how old the snapshot it is built from is. */
+  private Map<String, Object> snapshotResult(SystemStatusSnapshot snapshot) {
+    Map<String, Object> result = new HashMap<>();
+    result.put("snapshotAgeMillis", statusSampler.age(snapshot).toMillis());
+    return result;
+  }
+
   private String formatDuration(double seconds) {
     if (seconds < 1) {
       return String.format("%.0fms", seconds * 1000);
@@ -3,28 +3,43 @@ package app.js.api;
 import app.js.entity.WikimediaEvent;
 import app.js.repository.WikimediaEventRepository;
 import app.js.service.EventPersistenceService;
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
+import app.js.service.EventRateCounter;
+import app.js.service.SystemStatusSampler;
+import app.js.service.SystemStatusSnapshot;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 
 @RestController
 @RequestMapping("/api/events")
 public class WikimediaEventController {
 
+  static final int MAX_SLICE_SIZE = 1000;
+
   private final WikimediaEventRepository repository;
   private final EventPersistenceService persistenceService;
+  private final EventRateCounter rateCounter;
+  private final SystemStatusSampler statusSampler;
 
   public WikimediaEventController(
-      WikimediaEventRepository repository, EventPersistenceService persistenceService) {
+      WikimediaEventRepository repository,
+      EventPersistenceService persistenceService,
+      EventRateCounter rateCounter,
+      SystemStatusSampler statusSampler) {
     this.repository = repository;
     this.persistenceService = persistenceService;
+    this.rateCounter = rateCounter;
+    this.statusSampler = statusSampler;
   }
 
   @GetMapping
@@ -42,22 +57,71 @@ public class WikimediaEventController {
     return repository.findAll(pageRequest);
   }
 
+  /**
+   * Events newest first, a slice at a time. {@code cursor} is the {@code nextCursor} of the
+   * previous slice; the query seeks past the events already returned instead of skipping them, so a
+   * deep slice costs the same as the first, and no total is counted.
+   */
+  @GetMapping("/cursor")
+  public Map<String, Object> getEventSlice(
+      @RequestParam(required = false) String cursor,
+      @RequestParam(defaultValue = "20") int size,
+      @RequestParam(required = false) String search) {
+    if (size < 1 || size > MAX_SLICE_SIZE) {
+      throw new ResponseStatusException(
+          HttpStatus.BAD_REQUEST, "size must be between 1 and " + MAX_SLICE_SIZE);
+    }
+    EventCursor after = null;
+    if (cursor != null && !cursor.isBlank()) {
+      try {
+        after = EventCursor.decode(cursor);
+      } catch (IllegalArgumentException e) {
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor", e);
+      }
+    }
+
+    // one extra event tells whether there is a next slice
+    List<WikimediaEvent> events =
+        repository.findNewestAfter(
+            after == null ? null : after.receivedAt(),
+            after == null ? null : after.id(),
+            search,
+            size + 1);
+    boolean hasNext = events.size() > size;
+    List<WikimediaEvent> content = hasNext ? events.subList(0, size) : events;
+
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("content", content);
+    result.put("size", size);
+    result.put("numberOfElements", content.size());
+    result.put("hasNext", hasNext);
+    result.put("nextCursor", hasNext ? EventCursor.after(content.getLast()).encode() : null);
+    return result;
+  }
+
+  /**
+   * Event rates of this instance, and the total from the sampled system status rather than a count
+   * per poll; {@code snapshotAgeMillis} is how old that total is.
+   */
   @GetMapping("/stats")
   public Map<String, Object> getStats() {
-    Instant now = Instant.now();
-    Instant oneMinuteAgo = now.minus(1, ChronoUnit.MINUTES);
-    Instant oneHourAgo = now.minus(1, ChronoUnit.HOURS);
-
-    long totalEvents = repository.count();
-    long eventsLastMinute = repository.countByReceivedAtAfter(oneMinuteAgo);
-    long eventsLastHour = repository.countByReceivedAtAfter(oneHourAgo);
+    SystemStatusSnapshot snapshot = statusSampler.current();
+    long eventsLastMinute = rateCounter.count(Duration.ofMinutes(1));
+    long eventsLastHour = rateCounter.count(Duration.ofHours(1));
 
     return Map.of(
-        "totalEvents", totalEvents,
-        "eventsLastMinute", eventsLastMinute,
-        "eventsLastHour", eventsLastHour,
-        "eventsPerSecond", eventsLastMinute / 60.0,
-        "queueSize", persistenceService.getQueueSize());
+        "totalEvents",
+        snapshot.totalEvents(),
+        "snapshotAgeMillis",
+        statusSampler.age(snapshot).toMillis(),
+        "eventsLastMinute",
+        eventsLastMinute,
+        "eventsLastHour",
+        eventsLastHour,
+        "eventsPerSecond",
+        eventsLastMinute / 60.0,
+        "queueSize",
+        persistenceService.getQueueSize());
   }
 
   @GetMapping("/recent")
@@ -0,0 +1,331 @@
+package app.js.config;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/** Settings of the analytics queries ({@code app.analytics.*}). */
+@ConfigurationProperties(prefix = "app.analytics")
+public class AnalyticsProperties {
+
+  private final Rollup rollup = new Rollup();
+
+  private final Distinct distinct = new Distinct();
+
+  private final HourlyRollup hourlyRollup = new HourlyRollup();
+
+  private final Cache cache = new Cache();
+
+  private final Parallel parallel = new Parallel();
+  private final Backfill backfill = new Backfill();
+
+  public Rollup getRollup() {
+    return rollup;
+  }
+
+  public Distinct getDistinct() {
+    return distinct;
+  }
+
+  public HourlyRollup getHourlyRollup() {
+    return hourlyRollup;
+  }
+
+  public Cache getCache() {
+    return cache;
+  }
+
+  public Parallel getParallel() {
+    return parallel;
+  }
+
+  public Backfill getBackfill() {
+    return backfill;
+  }
+
+  /**
+   * In-memory per-minute rollups of the events persisted by this instance. Windows that lie within
+   * the retained minutes are answered from the rollups instead of MongoDB.
+   *
+   * <p>Each instance only sees the events of its own partitions, so the rollups must be disabled
+   * when more than one consumer instance serves the analytics endpoints.
+   */
+  public static class Rollup {
+
+    private boolean enabled = true;
+
+    /** How far back the per-minute buckets reach. */
+    private Duration retention = Duration.ofHours(24);
+
+    /**
+     * Width of the time buckets holding the top users and pages sketches; top-K windows are rounded
+     * down to it.
+     */
+    private Duration topKBucket = Duration.ofMinutes(10);
+
+    /** Counters per top-K sketch; an untracked item occurred at most events / capacity times. */
+    private int topKCapacity = 500;
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public Duration getRetention() {
+      return retention;
+    }
+
+    public void setRetention(Duration retention) {
+      this.retention = retention;
+    }
+
+    public Duration getTopKBucket() {
+      return topKBucket;
+    }
+
+    public void setTopKBucket(Duration topKBucket) {
+      this.topKBucket = topKBucket;
+    }
+
+    public int getTopKCapacity() {
+      return topKCapacity;
+    }
+
+    public void setTopKCapacity(int topKCapacity) {
+      this.topKCapacity = topKCapacity;
+    }
+  }
+
+  /**
+   * HyperLogLog sketches of distinct users, pages and wikis per time bucket. Snapshots are written
+   * to MongoDB periodically, so windows can reach back past this instance's start and combine the
+   * sketches of all instances.
+   */
+  public static class Distinct {
+
+    private boolean enabled = true;
+
+    /** Width of the time buckets; windows are rounded down to it. */
+    private Duration bucket = Duration.ofMinutes(10);
+
+    /** How far back buckets are kept in memory; older windows come from the snapshots only. */
+    private Duration retention = Duration.ofHours(24);
+
+    /** Registers per sketch are 2^precision bytes; the relative error is 1.04 / sqrt(2^p). */
+    private int precision = 12;
+
+    /** How often changed buckets are written to MongoDB; 0 disables the snapshots. */
+    private Duration snapshotInterval = Duration.ofMinutes(1);
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public Duration getBucket() {
+      return bucket;
+    }
+
+    public void setBucket(Duration bucket) {
+      this.bucket = bucket;
+    }
+
+    public Duration getRetention() {
+      return retention;
+    }
+
+    public void setRetention(Duration retention) {
+      this.retention = retention;
+    }
+
+    public int getPrecision() {
+      return precision;
+    }
+
+    public void setPrecision(int precision) {
+      this.precision = precision;
+    }
+
+    public Duration getSnapshotInterval() {
+      return snapshotInterval;
+    }
+
+    public void setSnapshotInterval(Duration snapshotInterval) {
+      this.snapshotInterval = snapshotInterval;
+    }
+  }
+
+  /**
+   * Background job folding completed hours of {@code wikimedia_events} into {@code
+   * wikimedia_rollups_hourly}. The analytics read full hours up to the job's checkpoint from the
+   * rollups, whichever instance ran it.
+   */
+  public static class HourlyRollup {
+
+    private boolean enabled = true;
+
+    private Duration interval = Duration.ofMinutes(5);
+
+    /**
+     * How long after the end of an hour it is rolled up, so that batches still being written when
+     * the hour ended are included.
+     */
+    private Duration settleDelay = Duration.ofMinutes(2);
+
+    /** Hours folded per pass; bounds the work of catching up on a large backlog. */
+    private int maxHoursPerRun = 24;
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public Duration getInterval() {
+      return interval;
+    }
+
+    public void setInterval(Duration interval) {
+      this.interval = interval;
+    }
+
+    public Duration getSettleDelay() {
+      return settleDelay;
+    }
+
+    public void setSettleDelay(Duration settleDelay) {
+      this.settleDelay = settleDelay;
+    }
+
+    public int getMaxHoursPerRun() {
+      return maxHoursPerRun;
+    }
+
+    public void setMaxHoursPerRun(int maxHoursPerRun) {
+      this.maxHoursPerRun = maxHoursPerRun;
+    }
+  }
+
+  /**
+   * Cache of the by-wiki, by-type, hourly and breakdown results per window. Each result is reused
+   * for one 1440th of its window (a minute for 24 hours), within {@code [min-ttl, max-ttl]}.
+   */
+  public static class Cache {
+
+    private boolean enabled = true;
+
+    /** Results kept; the least recently used one is evicted beyond it. */
+    private int maxEntries = 256;
+
+    private Duration minTtl = Duration.ofSeconds(5);
+
+    private Duration maxTtl = Duration.ofMinutes(5);
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public int getMaxEntries() {
+      return maxEntries;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+      this.maxEntries = maxEntries;
+    }
+
+    public Duration getMinTtl() {
+      return minTtl;
+    }
+
+    public void setMinTtl(Duration minTtl) {
+      this.minTtl = minTtl;
+    }
+
+    public Duration getMaxTtl() {
+      return maxTtl;
+    }
+
+    public void setMaxTtl(Duration maxTtl) {
+      this.maxTtl = maxTtl;
+    }
+  }
+
+  /**
+   * Parallel scans of the raw events: ranges longer than a slice are split into slices scanned
+   * concurrently by a shared pool.
+   */
+  public static class Parallel {
+
+    /** Width of a slice; a range within one slice is scanned on the request thread alone. */
+    private Duration slice = Duration.ofHours(6);
+
+    /** Threads, including the request thread, that one query scans its slices with. */
+    private int maxSlicesPerQuery = 4;
+
+    /** Pool threads shared by all queries; a query gets fewer helpers while they are busy. */
+    private int maxConcurrentSlices = Runtime.getRuntime().availableProcessors();
+
+    public Duration getSlice() {
+      return slice;
+    }
+
+    public void setSlice(Duration slice) {
+      this.slice = slice;
+    }
+
+    public int getMaxSlicesPerQuery() {
+      return maxSlicesPerQuery;
+    }
+
+    public void setMaxSlicesPerQuery(int maxSlicesPerQuery) {
+      this.maxSlicesPerQuery = maxSlicesPerQuery;
+    }
+
+    public int getMaxConcurrentSlices() {
+      return maxConcurrentSlices;
+    }
+
+    public void setMaxConcurrentSlices(int maxConcurrentSlices) {
+      this.maxConcurrentSlices = maxConcurrentSlices;
+    }
+  }
+
+  /**
+   * One-off job at startup copying the typed fields into events stored before they were extracted
+   * at ingest, so that those events are counted by wiki, type, bot and namespace.
+   */
+  public static class Backfill {
+
+    private boolean enabled = true;
+
+    /** Events updated per bulk write. */
+    private int batchSize = 1000;
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public int getBatchSize() {
+      return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+      this.batchSize = batchSize;
+    }
+  }
+}
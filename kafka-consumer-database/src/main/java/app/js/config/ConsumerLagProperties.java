@@ -0,0 +1,34 @@
+package app.js.config;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/** Settings of the per-partition lag tracking of the event listener ({@code app.kafka.lag.*}). */
+@ConfigurationProperties(prefix = "app.kafka.lag")
+public class ConsumerLagProperties {
+
+  /**
+   * How often committed and log-end offsets are read from the brokers; also the timeout of each
+   * read. 0 turns lag tracking off.
+   */
+  private Duration interval = Duration.ofSeconds(5);
+
+  /** Time constant of the consumption rate the lag in seconds is estimated from. */
+  private Duration rateWindow = Duration.ofMinutes(1);
+
+  public Duration getInterval() {
+    return interval;
+  }
+
+  public void setInterval(Duration interval) {
+    this.interval = interval;
+  }
+
+  public Duration getRateWindow() {
+    return rateWindow;
+  }
+
+  public void setRateWindow(Duration rateWindow) {
+    this.rateWindow = rateWindow;
+  }
+}
@@ -0,0 +1,65 @@
+package app.js.config;
+
+import app.js.kafka.EventQueueFullException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.kafka.autoconfigure.ConcurrentKafkaListenerContainerFactoryConfigurer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.util.backoff.BackOff;
+import org.springframework.util.backoff.FixedBackOff;
+
+@Configuration
+public class KafkaListenerConfig {
+
+  /** Listener id of the main event listener, used to pause and resume its container. */
+  public static final String EVENT_LISTENER_ID = "wikimediaEventListener";
+
+  public static final String BATCH_CONTAINER_FACTORY = "batchKafkaListenerContainerFactory";
+
+  /**
+   * Container factory for the batch listener mode. It is configured from the same {@code
+   * spring.kafka.*} properties as the default factory, so the record-mode DLQ listener is
+   * unaffected.
+   */
+  @Bean(BATCH_CONTAINER_FACTORY)
+  @ConditionalOnProperty(name = "app.kafka.listener-mode", havingValue = "batch")
+  public ConcurrentKafkaListenerContainerFactory<Object, Object> batchKafkaListenerContainerFactory(
+      ConcurrentKafkaListenerContainerFactoryConfigurer configurer,
+      ConsumerFactory<Object, Object> consumerFactory) {
+    ConcurrentKafkaListenerContainerFactory<Object, Object> factory =
+        new ConcurrentKafkaListenerContainerFactory<>();
+    configurer.configure(factory, consumerFactory);
+    factory.setBatchListener(true);
+    return factory;
+  }
+
+  /**
+   * Error handler of the listener containers built by Boot's configurer, the batch factory
+   * included. Records failed with {@link EventQueueFullException} are redelivered every {@code
+   * retry-interval-ms} for as long as the persistence queue stays full: the default of ten attempts
+   * would then skip them and commit the offsets of events that were never stored. Other failures
+   * keep the default back-off.
+   */
+  @Bean
+  public DefaultErrorHandler eventListenerErrorHandler(
+      @Value("${app.kafka.backpressure.retry-interval-ms:1000}") long retryIntervalMs) {
+    BackOff untilQueued = new FixedBackOff(retryIntervalMs, FixedBackOff.UNLIMITED_ATTEMPTS);
+    DefaultErrorHandler errorHandler = new DefaultErrorHandler();
+    errorHandler.setBackOffFunction(
+        (record, exception) -> isQueueFull(exception) ? untilQueued : null);
+    return errorHandler;
+  }
+
+  private static boolean isQueueFull(Throwable exception) {
+    for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+      if (cause instanceof EventQueueFullException) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,267 @@
+package app.js.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+/** Settings of the asynchronous MongoDB persistence pipeline ({@code app.persistence.*}). */
+@ConfigurationProperties(prefix = "app.persistence")
+public class PersistenceProperties {
+
+  /** Total queue capacity, split evenly across the worker stripes. */
+  private int queueCapacity = 10000;
+
+  private int batchSize = 100;
+
+  private long flushIntervalMs = 1000;
+
+  /** Number of worker stripes; records are routed to a stripe by Kafka partition. */
+  private int stripes = 1;
+
+  /** Queue implementation between the Kafka listeners and each stripe worker. */
+  private QueueType queueType = QueueType.LINKED;
+
+  /**
+   * Maximum number of batch writes in flight at once across all stripes. 1 writes each batch on its
+   * stripe worker; higher values pipeline writes on virtual threads.
+   */
+  private int maxInFlightBatches = 1;
+
+  private final Adaptive adaptive = new Adaptive();
+
+  private final Spill spill = new Spill();
+
+  private final Journal journal = new Journal();
+
+  public int getQueueCapacity() {
+    return queueCapacity;
+  }
+
+  public void setQueueCapacity(int queueCapacity) {
+    this.queueCapacity = queueCapacity;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  public void setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  public long getFlushIntervalMs() {
+    return flushIntervalMs;
+  }
+
+  public void setFlushIntervalMs(long flushIntervalMs) {
+    this.flushIntervalMs = flushIntervalMs;
+  }
+
+  public int getStripes() {
+    return stripes;
+  }
+
+  public void setStripes(int stripes) {
+    this.stripes = stripes;
+  }
+
+  public QueueType getQueueType() {
+    return queueType;
+  }
+
+  public void setQueueType(QueueType queueType) {
+    this.queueType = queueType;
+  }
+
+  public int getMaxInFlightBatches() {
+    return maxInFlightBatches;
+  }
+
+  public void setMaxInFlightBatches(int maxInFlightBatches) {
+    this.maxInFlightBatches = maxInFlightBatches;
+  }
+
+  public Adaptive getAdaptive() {
+    return adaptive;
+  }
+
+  public Spill getSpill() {
+    return spill;
+  }
+
+  public Journal getJournal() {
+    return journal;
+  }
+
+  public enum QueueType {
+    /** {@code LinkedBlockingQueue}: one node allocation and lock acquisition per event. */
+    LINKED,
+    /** Preallocated lock-free MPSC ring buffer; capacity is rounded up to a power of two. */
+    RING
+  }
+
+  /**
+   * Feedback control of batch size and flush deadline. When enabled, {@code batch-size} and {@code
+   * flush-interval-ms} are only the starting point.
+   */
+  public static class Adaptive {
+
+    private boolean enabled = false;
+
+    /** Target time from an event entering the queue to it being written to MongoDB. */
+    private long targetLatencyMs = 500;
+
+    private int minBatchSize = 10;
+
+    private int maxBatchSize = 1000;
+
+    private long minFlushIntervalMs = 20;
+
+    private long maxFlushIntervalMs = 1000;
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public long getTargetLatencyMs() {
+      return targetLatencyMs;
+    }
+
+    public void setTargetLatencyMs(long targetLatencyMs) {
+      this.targetLatencyMs = targetLatencyMs;
+    }
+
+    public int getMinBatchSize() {
+      return minBatchSize;
+    }
+
+    public void setMinBatchSize(int minBatchSize) {
+      this.minBatchSize = minBatchSize;
+    }
+
+    public int getMaxBatchSize() {
+      return maxBatchSize;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+      this.maxBatchSize = maxBatchSize;
+    }
+
+    public long getMinFlushIntervalMs() {
+      return minFlushIntervalMs;
+    }
+
+    public void setMinFlushIntervalMs(long minFlushIntervalMs) {
+      this.minFlushIntervalMs = minFlushIntervalMs;
+    }
+
+    public long getMaxFlushIntervalMs() {
+      return maxFlushIntervalMs;
+    }
+
+    public void setMaxFlushIntervalMs(long maxFlushIntervalMs) {
+      this.maxFlushIntervalMs = maxFlushIntervalMs;
+    }
+  }
+
+  /**
+   * Overflow of the in-memory queues to memory-mapped segment files on disk. Once a stripe queue
+   * passes {@code threshold-ratio} of its capacity, further events of that stripe are appended to
+   * its spill file until the worker has drained it again.
+   */
+  public static class Spill {
+
+    private boolean enabled = false;
+
+    /** Directory holding one sub-directory of segment files per stripe. */
+    private String directory = "spill";
+
+    /** Fill ratio of a stripe queue above which events are spilled to disk. */
+    private double thresholdRatio = 0.75;
+
+    private DataSize segmentSize = DataSize.ofMegabytes(64);
+
+    /** Total disk budget, split evenly across the stripes. */
+    private DataSize maxSize = DataSize.ofGigabytes(1);
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public String getDirectory() {
+      return directory;
+    }
+
+    public void setDirectory(String directory) {
+      this.directory = directory;
+    }
+
+    public double getThresholdRatio() {
+      return thresholdRatio;
+    }
+
+    public void setThresholdRatio(double thresholdRatio) {
+      this.thresholdRatio = thresholdRatio;
+    }
+
+    public DataSize getSegmentSize() {
+      return segmentSize;
+    }
+
+    public void setSegmentSize(DataSize segmentSize) {
+      this.segmentSize = segmentSize;
+    }
+
+    public DataSize getMaxSize() {
+      return maxSize;
+    }
+
+    public void setMaxSize(DataSize maxSize) {
+      this.maxSize = maxSize;
+    }
+  }
+
+  /**
+   * Local write-ahead journal. When enabled, submitted events are fsynced to the journal before
+   * they are acknowledged, and events not yet written to MongoDB are replayed on startup.
+   */
+  public static class Journal {
+
+    private boolean enabled = false;
+
+    private String directory = "journal";
+
+    private DataSize segmentSize = DataSize.ofMegabytes(64);
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public String getDirectory() {
+      return directory;
+    }
+
+    public void setDirectory(String directory) {
+      this.directory = directory;
+    }
+
+    public DataSize getSegmentSize() {
+      return segmentSize;
+    }
+
+    public void setSegmentSize(DataSize segmentSize) {
+      this.segmentSize = segmentSize;
+    }
+  }
+}
@@ -0,0 +1,47 @@
+package app.js.config;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/** Settings of the status snapshots behind {@code /api/system/*} ({@code app.system.status.*}). */
+@ConfigurationProperties(prefix = "app.system.status")
+public class SystemStatusProperties {
+
+  /**
+   * How often a new snapshot is sampled; requests in between read the last one. 0 samples on every
+   * request instead.
+   */
+  private Duration interval = Duration.ofSeconds(5);
+
+  /**
+   * Most recent failed events kept in a snapshot; the {@code limit} of the DLQ endpoint caps at it.
+   */
+  private int recentFailures = 100;
+
+  /** Most frequent error types counted in a snapshot; rarer ones are left out of the breakdown. */
+  private int maxErrorTypes = 50;
+
+  public Duration getInterval() {
+    return interval;
+  }
+
+  public void setInterval(Duration interval) {
+    this.interval = interval;
+  }
+
+  public int getRecentFailures() {
+    return recentFailures;
+  }
+
+  public void setRecentFailures(int recentFailures) {
+    this.recentFailures = recentFailures;
+  }
+
+  public int getMaxErrorTypes() {
+    return maxErrorTypes;
+  }
+
+  public void setMaxErrorTypes(int maxErrorTypes) {
+    this.maxErrorTypes = maxErrorTypes;
+  }
+}
@@ -0,0 +1,96 @@
+package app.js.entity;
+
+import java.time.Instant;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Snapshot of the HyperLogLog registers of one time bucket, as seen by one consumer instance since
+ * it started. Snapshots of the same bucket from several instances, or several lifetimes of one
+ * instance, are merged at query time. They expire after 30 days.
+ */
+@Document(collection = "wikimedia_distinct_sketches")
+public class DistinctSketch {
+
+  /** {@code <bucketStart epoch millis>-<instance>}, so repeated snapshots overwrite each other. */
+  @Id private String id;
+
+  @Indexed(expireAfter = "30d")
+  private Instant bucketStart;
+
+  private String instance;
+  private Instant updatedAt;
+  private byte[] users;
+  private byte[] pages;
+  private byte[] wikis;
+
+  public DistinctSketch() {}
+
+  public DistinctSketch(
+      Instant bucketStart, String instance, byte[] users, byte[] pages, byte[] wikis) {
+    this.id = bucketStart.toEpochMilli() + "-" + instance;
+    this.bucketStart = bucketStart;
+    this.instance = instance;
+    this.updatedAt = Instant.now();
+    this.users = users;
+    this.pages = pages;
+    this.wikis = wikis;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public void setId(String id) {
+    this.id = id;
+  }
+
+  public Instant getBucketStart() {
+    return bucketStart;
+  }
+
+  public void setBucketStart(Instant bucketStart) {
+    this.bucketStart = bucketStart;
+  }
+
+  public String getInstance() {
+    return instance;
+  }
+
+  public void setInstance(String instance) {
+    this.instance = instance;
+  }
+
+  public Instant getUpdatedAt() {
+    return updatedAt;
+  }
+
+  public void setUpdatedAt(Instant updatedAt) {
+    this.updatedAt = updatedAt;
+  }
+
+  public byte[] getUsers() {
+    return users;
+  }
+
+  public void setUsers(byte[] users) {
+    this.users = users;
+  }
+
+  public byte[] getPages() {
+    return pages;
+  }
+
+  public void setPages(byte[] pages) {
+    this.pages = pages;
+  }
+
+  public byte[] getWikis() {
+    return wikis;
+  }
+
+  public void setWikis(byte[] wikis) {
+    this.wikis = wikis;
+  }
+}
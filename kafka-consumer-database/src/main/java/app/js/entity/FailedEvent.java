@@ -2,6 +2,7 @@ package app.js.entity;
 
 import java.time.Instant;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 @Document(collection = "failed_events")
@@ -11,8 +12,8 @@ public class FailedEvent {
   private String eventData;
   private String errorMessage;
   private String errorType;
-  private Instant failedAt;
-  private int retryCount;
+  @Indexed private Instant failedAt;
+  @Indexed private int retryCount;
 
   public FailedEvent() {}
 
@@ -0,0 +1,84 @@
+package app.js.entity;
+
+import java.time.Instant;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Event count of one hour for one value of a dimension, e.g. the {@code enwiki} events between
+ * 10:00 and 11:00. The {@code total} dimension has a single row per hour with key {@code all}.
+ */
+@Document(collection = "wikimedia_rollups_hourly")
+@CompoundIndex(name = "dimension_hour", def = "{'dimension': 1, 'hour': 1}")
+public class HourlyRollup {
+
+  /** {@code <hour epoch millis>|<dimension>|<key>}, so recomputing an hour overwrites its rows. */
+  @Id private String id;
+
+  private Instant hour;
+  private String dimension;
+  private String key;
+  private long count;
+
+  /** Start of the rollup pass that last wrote the row. */
+  private Instant foldedAt;
+
+  public HourlyRollup() {}
+
+  public HourlyRollup(Instant hour, String dimension, String key, long count) {
+    this.id = hour.toEpochMilli() + "|" + dimension + "|" + key;
+    this.hour = hour;
+    this.dimension = dimension;
+    this.key = key;
+    this.count = count;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public void setId(String id) {
+    this.id = id;
+  }
+
+  public Instant getHour() {
+    return hour;
+  }
+
+  public void setHour(Instant hour) {
+    this.hour = hour;
+  }
+
+  public String getDimension() {
+    return dimension;
+  }
+
+  public void setDimension(String dimension) {
+    this.dimension = dimension;
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public void setKey(String key) {
+    this.key = key;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public void setCount(long count) {
+    this.count = count;
+  }
+
+  public Instant getFoldedAt() {
+    return foldedAt;
+  }
+
+  public void setFoldedAt(Instant foldedAt) {
+    this.foldedAt = foldedAt;
+  }
+}
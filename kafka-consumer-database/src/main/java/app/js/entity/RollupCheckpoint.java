@@ -0,0 +1,41 @@
+package app.js.entity;
+
+import java.time.Instant;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Progress of a rollup job: every event with a {@code receivedAt} before {@code lastReceivedAt} has
+ * been folded into the rollups.
+ */
+@Document(collection = "wikimedia_rollup_checkpoints")
+public class RollupCheckpoint {
+
+  @Id private String id;
+  private Instant lastReceivedAt;
+  private Instant updatedAt;
+
+  public String getId() {
+    return id;
+  }
+
+  public void setId(String id) {
+    this.id = id;
+  }
+
+  public Instant getLastReceivedAt() {
+    return lastReceivedAt;
+  }
+
+  public void setLastReceivedAt(Instant lastReceivedAt) {
+    this.lastReceivedAt = lastReceivedAt;
+  }
+
+  public Instant getUpdatedAt() {
+    return updatedAt;
+  }
+
+  public void setUpdatedAt(Instant updatedAt) {
+    this.updatedAt = updatedAt;
+  }
+}
@@ -2,15 +2,43 @@ package app.js.entity;
 
 import java.time.Instant;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+/**
+ * A persisted recent-change event. Besides the raw JSON, the dimensions used by the analytics are
+ * extracted once at ingest; they are {@code null} for malformed events and for documents written
+ * before the fields existed.
+ */
 @Document(collection = "wikimedia_events")
+@CompoundIndexes({
+  // seek index of the cursor pagination of /api/events/cursor, read backwards for newest first
+  @CompoundIndex(name = "receivedAt_id", def = "{'receivedAt': 1, '_id': 1}"),
+  @CompoundIndex(name = "receivedAt_wiki", def = "{'receivedAt': 1, 'wiki': 1}"),
+  @CompoundIndex(name = "receivedAt_type", def = "{'receivedAt': 1, 'type': 1}"),
+  @CompoundIndex(name = "receivedAt_user", def = "{'receivedAt': 1, 'user': 1}"),
+  @CompoundIndex(name = "receivedAt_title", def = "{'receivedAt': 1, 'title': 1}"),
+  // covers the breakdown's (bot, namespace) grouping, so it never fetches eventData
+  @CompoundIndex(
+      name = "receivedAt_bot_namespace",
+      def = "{'receivedAt': 1, 'bot': 1, 'namespace': 1}")
+})
 public class WikimediaEvent {
 
   @Id private String id;
   private String eventData;
   private Instant receivedAt;
 
+  private String wiki;
+  private String type;
+  private String user;
+  private String title;
+  private Boolean bot;
+  private Integer namespace;
+  private Instant eventTimestamp;
+  private int payloadSize;
+
   public WikimediaEvent() {}
 
   public WikimediaEvent(String eventData) {
@@ -41,4 +69,68 @@ public class WikimediaEvent {
   public void setReceivedAt(Instant receivedAt) {
     this.receivedAt = receivedAt;
   }
+
+  public String getWiki() {
+    return wiki;
+  }
+
+  public void setWiki(String wiki) {
+    this.wiki = wiki;
+  }
+
+  public String getType() {
+    return type;
+  }
+
+  public void setType(String type) {
+    this.type = type;
+  }
+
+  public String getUser() {
+    return user;
+  }
+
+  public void setUser(String user) {
+    this.user = user;
+  }
+
+  public String getTitle() {
+    return title;
+  }
+
+  public void setTitle(String title) {
+    this.title = title;
+  }
+
+  public Boolean getBot() {
+    return bot;
+  }
+
+  public void setBot(Boolean bot) {
+    this.bot = bot;
+  }
+
+  public Integer getNamespace() {
+    return namespace;
+  }
+
+  public void setNamespace(Integer namespace) {
+    this.namespace = namespace;
+  }
+
+  public Instant getEventTimestamp() {
+    return eventTimestamp;
+  }
+
+  public void setEventTimestamp(Instant eventTimestamp) {
+    this.eventTimestamp = eventTimestamp;
+  }
+
+  public int getPayloadSize() {
+    return payloadSize;
+  }
+
+  public void setPayloadSize(int payloadSize) {
+    this.payloadSize = payloadSize;
+  }
 }
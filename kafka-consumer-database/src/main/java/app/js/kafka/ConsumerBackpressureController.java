@@ -0,0 +1,145 @@
+package app.js.kafka;
+
+import app.js.config.KafkaListenerConfig;
+import app.js.service.EventPersistenceService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+/**
+ * Turns the bounded persistence queues into backpressure on the broker. The event listener
+ * container is paused once the fullest stripe queue reaches the high-water mark and resumed once
+ * the persistence workers have drained every stripe below the low-water mark.
+ *
+ * <p>Pausing only takes effect on the next poll, so records already fetched are still delivered;
+ * the gap between the high-water mark and the queue capacity should exceed {@code
+ * max.poll.records}.
+ */
+@Component
+public class ConsumerBackpressureController {
+
+  private static final Logger log = LoggerFactory.getLogger(ConsumerBackpressureController.class);
+
+  private final KafkaListenerEndpointRegistry registry;
+  private final EventPersistenceService persistenceService;
+  private final int highWaterMark;
+  private final int lowWaterMark;
+  private final ScheduledExecutorService monitor;
+  private final AtomicBoolean paused = new AtomicBoolean(false);
+  private volatile long pausedAtNanos;
+
+  private final Counter pauseCounter;
+  private final Counter resumeCounter;
+  private final Timer pausedTimer;
+
+  public ConsumerBackpressureController(
+      KafkaListenerEndpointRegistry registry,
+      EventPersistenceService persistenceService,
+      MeterRegistry meterRegistry,
+      @Value("${app.kafka.backpressure.high-water-ratio:0.8}") double highWaterRatio,
+      @Value("${app.kafka.backpressure.low-water-ratio:0.5}") double lowWaterRatio,
+      @Value("${app.kafka.backpressure.check-interval-ms:50}") long checkIntervalMs) {
+    if (lowWaterRatio >= highWaterRatio) {
+      throw new IllegalArgumentException(
+          "app.kafka.backpressure.low-water-ratio must be below high-water-ratio");
+    }
+
+    this.registry = registry;
+    this.persistenceService = persistenceService;
+    int capacity = persistenceService.getStripeQueueCapacity();
+    this.highWaterMark = (int) (capacity * highWaterRatio);
+    this.lowWaterMark = (int) (capacity * lowWaterRatio);
+
+    this.pauseCounter =
+        Counter.builder("wikimedia.consumer.pauses")
+            .description("Number of times the event listener was paused on queue backpressure")
+            .register(meterRegistry);
+
+    this.resumeCounter =
+        Counter.builder("wikimedia.consumer.resumes")
+            .description("Number of times the event listener was resumed after backpressure")
+            .register(meterRegistry);
+
+    this.pausedTimer =
+        Timer.builder("wikimedia.consumer.paused.duration")
+            .description("Time the event listener spent paused on queue backpressure")
+            .register(meterRegistry);
+
+    Gauge.builder("wikimedia.consumer.paused", paused, p -> p.get() ? 1 : 0)
+        .description("Whether the event listener is currently paused (1) or consuming (0)")
+        .register(meterRegistry);
+
+    this.monitor =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread thread = new Thread(r, "consumer-backpressure-monitor");
+              thread.setDaemon(true);
+              return thread;
+            });
+    this.monitor.scheduleWithFixedDelay(
+        this::resumeIfDrained, checkIntervalMs, checkIntervalMs, TimeUnit.MILLISECONDS);
+
+    log.info(
+        "Consumer backpressure enabled, pause at {} and resume at {} queued events",
+        highWaterMark,
+        lowWaterMark);
+  }
+
+  /** Called by the listeners after each submit; pauses the container at the high-water mark. */
+  public void onSubmitted() {
+    if (persistenceService.getMaxStripeQueueSize() < highWaterMark || paused.get()) {
+      return;
+    }
+
+    MessageListenerContainer container = eventListenerContainer();
+    if (container != null && paused.compareAndSet(false, true)) {
+      pausedAtNanos = System.nanoTime();
+      container.pause();
+      pauseCounter.increment();
+      log.warn(
+          "Event queue reached high-water mark ({}), pausing Kafka consumption",
+          persistenceService.getMaxStripeQueueSize());
+    }
+  }
+
+  private void resumeIfDrained() {
+    if (!paused.get() || persistenceService.getMaxStripeQueueSize() > lowWaterMark) {
+      return;
+    }
+
+    MessageListenerContainer container = eventListenerContainer();
+    if (container != null && paused.compareAndSet(true, false)) {
+      container.resume();
+      resumeCounter.increment();
+      pausedTimer.record(System.nanoTime() - pausedAtNanos, TimeUnit.NANOSECONDS);
+      log.info(
+          "Event queue drained to low-water mark ({}), resuming Kafka consumption",
+          persistenceService.getMaxStripeQueueSize());
+    }
+  }
+
+  private MessageListenerContainer eventListenerContainer() {
+    return registry.getListenerContainer(KafkaListenerConfig.EVENT_LISTENER_ID);
+  }
+
+  public boolean isPaused() {
+    return paused.get();
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    monitor.shutdownNow();
+  }
+}
@@ -0,0 +1,348 @@
+package app.js.kafka;
+
+import app.js.config.ConsumerLagProperties;
+import app.js.config.KafkaListenerConfig;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import org.apache.kafka.clients.admin.Admin;
+import org.apache.kafka.clients.admin.ListConsumerGroupOffsetsSpec;
+import org.apache.kafka.clients.admin.ListOffsetsResult.ListOffsetsResultInfo;
+import org.apache.kafka.clients.admin.OffsetSpec;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.KafkaAdmin;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+/**
+ * Tracks how far the event listener is behind on each partition assigned to this instance. Every
+ * {@code interval} it reads the group's committed offsets and the log-end offsets with an admin
+ * client, and compares the log end with the position the listeners report through {@link
+ * #consumed}. Lag is exported as {@code wikimedia.consumer.lag.records} and {@code
+ * wikimedia.consumer.lag.seconds} gauges tagged by topic and partition.
+ *
+ * <p>The lag in seconds divides the lag in records by the partition's consumption rate, smoothed
+ * over {@code rate-window}, and is NaN while a lagging partition is not consumed at all. Partitions
+ * revoked from this instance stop reporting, so summing the gauges of all replicas gives the lag of
+ * the consumer group. A partition without a committed offset or consumed record counts from offset
+ * 0.
+ */
+@Component
+public class ConsumerLagMonitor {
+
+  private static final Logger log = LoggerFactory.getLogger(ConsumerLagMonitor.class);
+
+  public static final long NO_OFFSET = -1;
+
+  private final Supplier<Collection<TopicPartition>> assignment;
+  private final OffsetReader offsets;
+  private final String topic;
+  private final double rateWindowSeconds;
+  private final MeterRegistry meterRegistry;
+  private final Clock clock;
+  private final ScheduledExecutorService scheduler;
+
+  /** Next offset to process per partition of the event topic, set by the listener threads. */
+  private final ConcurrentMap<Integer, AtomicLong> positions = new ConcurrentHashMap<>();
+
+  /** Rate and gauges per assigned partition; only touched while sampling. */
+  private final Map<TopicPartition, PartitionState> partitions = new HashMap<>();
+
+  private volatile ConsumerLagSnapshot snapshot;
+
+  @Autowired
+  public ConsumerLagMonitor(
+      KafkaListenerEndpointRegistry registry,
+      KafkaAdmin kafkaAdmin,
+      ConsumerLagProperties properties,
+      MeterRegistry meterRegistry,
+      @Value("${app.kafka.topic}") String topic,
+      @Value("${spring.kafka.consumer.group-id}") String groupId) {
+    this(
+        () -> assignedPartitions(registry),
+        new AdminOffsetReader(
+            Admin.create(kafkaAdmin.getConfigurationProperties()),
+            groupId,
+            properties.getInterval()),
+        topic,
+        properties,
+        meterRegistry,
+        Clock.systemUTC());
+  }
+
+  ConsumerLagMonitor(
+      Supplier<Collection<TopicPartition>> assignment,
+      OffsetReader offsets,
+      String topic,
+      ConsumerLagProperties properties,
+      MeterRegistry meterRegistry,
+      Clock clock) {
+    this.assignment = assignment;
+    this.offsets = offsets;
+    this.topic = topic;
+    this.rateWindowSeconds = Math.max(1, properties.getRateWindow().toSeconds());
+    this.meterRegistry = meterRegistry;
+    this.clock = clock;
+    this.snapshot = new ConsumerLagSnapshot(clock.instant(), List.of());
+
+    long intervalMs = properties.getInterval().toMillis();
+    if (intervalMs > 0) {
+      this.scheduler =
+          Executors.newSingleThreadScheduledExecutor(
+              r -> {
+                Thread thread = new Thread(r, "consumer-lag-monitor");
+                thread.setDaemon(true);
+                return thread;
+              });
+      scheduler.scheduleWithFixedDelay(
+          this::refresh, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    } else {
+      this.scheduler = null;
+      log.info("Consumer lag tracking disabled");
+    }
+  }
+
+  /** Called by the listeners for each record handed to the persistence service. */
+  public void consumed(ConsumerRecord<?, ?> record) {
+    if (!topic.equals(record.topic())) {
+      return;
+    }
+    // a partition is consumed by one listener thread at a time, and seeks back on redelivery
+    // should move the position back too
+    positions
+        .computeIfAbsent(record.partition(), p -> new AtomicLong(NO_OFFSET))
+        .set(record.offset() + 1);
+  }
+
+  /** The latest sample; empty until the first one, or when tracking is off. */
+  public ConsumerLagSnapshot current() {
+    return snapshot;
+  }
+
+  /** How long ago {@code snapshot} was sampled. */
+  public Duration age(ConsumerLagSnapshot snapshot) {
+    Duration age = Duration.between(snapshot.sampledAt(), clock.instant());
+    return age.isNegative() ? Duration.ZERO : age;
+  }
+
+  /** Samples the lag on the scheduler thread, keeping the previous sample on failure. */
+  void refresh() {
+    try {
+      synchronized (this) {
+        sample();
+      }
+    } catch (Exception e) {
+      if (e instanceof InterruptedException) {
+        Thread.currentThread().interrupt();
+      }
+      log.warn("Sampling consumer lag failed, keeping the previous sample: {}", e.getMessage());
+    }
+  }
+
+  private void sample() throws Exception {
+    Instant now = clock.instant();
+    Set<TopicPartition> assigned =
+        assignment.get().stream()
+            .filter(tp -> topic.equals(tp.topic()))
+            .collect(Collectors.toSet());
+
+    // partitions moved to another replica are reported there, so the group's lag is counted once
+    Iterator<Map.Entry<TopicPartition, PartitionState>> it = partitions.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<TopicPartition, PartitionState> entry = it.next();
+      if (!assigned.contains(entry.getKey())) {
+        entry.getValue().unregister();
+        positions.remove(entry.getKey().partition());
+        it.remove();
+      }
+    }
+
+    Map<TopicPartition, Long> committed =
+        assigned.isEmpty() ? Map.of() : offsets.committed(assigned);
+    Map<TopicPartition, Long> logEnd = assigned.isEmpty() ? Map.of() : offsets.logEnd(assigned);
+
+    List<ConsumerLagSnapshot.Partition> sampled = new ArrayList<>();
+    for (TopicPartition tp : assigned) {
+      Long logEndOffset = logEnd.get(tp);
+      if (logEndOffset == null) {
+        continue;
+      }
+      long committedOffset = committed.getOrDefault(tp, NO_OFFSET);
+      AtomicLong consumed = positions.get(tp.partition());
+      // the committed offset is never ahead of the listener, unless its position is from an
+      // earlier assignment of the partition
+      long position = Math.max(committedOffset, consumed == null ? NO_OFFSET : consumed.get());
+      sampled.add(
+          partitions
+              .computeIfAbsent(tp, PartitionState::new)
+              .update(now, committedOffset, position, logEndOffset));
+    }
+    sampled.sort(Comparator.comparingInt(ConsumerLagSnapshot.Partition::partition));
+    snapshot = new ConsumerLagSnapshot(now, sampled);
+  }
+
+  private static Collection<TopicPartition> assignedPartitions(
+      KafkaListenerEndpointRegistry registry) {
+    MessageListenerContainer container =
+        registry.getListenerContainer(KafkaListenerConfig.EVENT_LISTENER_ID);
+    Collection<TopicPartition> assigned =
+        container == null ? null : container.getAssignedPartitions();
+    return assigned == null ? List.of() : assigned;
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+    offsets.close();
+  }
+
+  private final class PartitionState {
+
+    private final TopicPartition topicPartition;
+    private final Gauge lagGauge;
+    private final Gauge lagSecondsGauge;
+    private volatile long lag;
+    private volatile double lagSeconds;
+    private double consumedPerSecond = Double.NaN;
+    private long previousPosition = NO_OFFSET;
+    private Instant previousSample;
+
+    PartitionState(TopicPartition topicPartition) {
+      this.topicPartition = topicPartition;
+      String partition = String.valueOf(topicPartition.partition());
+      this.lagGauge =
+          Gauge.builder("wikimedia.consumer.lag.records", this, s -> s.lag)
+              .description("Records the event listener is behind the log end of a partition")
+              .tag("topic", topicPartition.topic())
+              .tag("partition", partition)
+              .register(meterRegistry);
+      this.lagSecondsGauge =
+          Gauge.builder("wikimedia.consumer.lag.seconds", this, s -> s.lagSeconds)
+              .description("Estimated time to consume the lag of a partition at the recent rate")
+              .tag("topic", topicPartition.topic())
+              .tag("partition", partition)
+              .register(meterRegistry);
+    }
+
+    ConsumerLagSnapshot.Partition update(
+        Instant now, long committedOffset, long position, long logEndOffset) {
+      if (previousSample != null && previousPosition != NO_OFFSET && position != NO_OFFSET) {
+        double seconds = Duration.between(previousSample, now).toNanos() / 1e9;
+        if (seconds > 0) {
+          // a seek back on redelivery is not negative consumption
+          double rate = Math.max(0, position - previousPosition) / seconds;
+          double weight = 1 - Math.exp(-seconds / rateWindowSeconds);
+          consumedPerSecond =
+              Double.isNaN(consumedPerSecond)
+                  ? rate
+                  : consumedPerSecond + weight * (rate - consumedPerSecond);
+        }
+      }
+      previousPosition = position;
+      previousSample = now;
+
+      lag = Math.max(0, logEndOffset - Math.max(0, position));
+      lagSeconds = lag == 0 ? 0 : consumedPerSecond > 0 ? lag / consumedPerSecond : Double.NaN;
+      return new ConsumerLagSnapshot.Partition(
+          topicPartition.topic(),
+          topicPartition.partition(),
+          committedOffset,
+          position,
+          logEndOffset,
+          lag,
+          consumedPerSecond,
+          lagSeconds);
+    }
+
+    void unregister() {
+      meterRegistry.remove(lagGauge);
+      meterRegistry.remove(lagSecondsGauge);
+    }
+  }
+
+  /** Where committed and log-end offsets come from; absent offsets are left out of the maps. */
+  interface OffsetReader extends AutoCloseable {
+
+    Map<TopicPartition, Long> committed(Set<TopicPartition> partitions) throws Exception;
+
+    Map<TopicPartition, Long> logEnd(Set<TopicPartition> partitions) throws Exception;
+
+    @Override
+    default void close() {}
+  }
+
+  private static final class AdminOffsetReader implements OffsetReader {
+
+    private final Admin admin;
+    private final String groupId;
+    private final long timeoutMs;
+
+    AdminOffsetReader(Admin admin, String groupId, Duration timeout) {
+      this.admin = admin;
+      this.groupId = groupId;
+      this.timeoutMs = Math.max(1, timeout.toMillis());
+    }
+
+    @Override
+    public Map<TopicPartition, Long> committed(Set<TopicPartition> partitions) throws Exception {
+      Map<TopicPartition, OffsetAndMetadata> offsets =
+          admin
+              .listConsumerGroupOffsets(
+                  Map.of(groupId, new ListConsumerGroupOffsetsSpec().topicPartitions(partitions)))
+              .partitionsToOffsetAndMetadata(groupId)
+              .get(timeoutMs, TimeUnit.MILLISECONDS);
+      Map<TopicPartition, Long> committed = new HashMap<>();
+      offsets.forEach(
+          (tp, offset) -> {
+            if (offset != null) {
+              committed.put(tp, offset.offset());
+            }
+          });
+      return committed;
+    }
+
+    @Override
+    public Map<TopicPartition, Long> logEnd(Set<TopicPartition> partitions) throws Exception {
+      Map<TopicPartition, OffsetSpec> latest = new HashMap<>();
+      partitions.forEach(tp -> latest.put(tp, OffsetSpec.latest()));
+      Map<TopicPartition, ListOffsetsResultInfo> offsets =
+          admin.listOffsets(latest).all().get(timeoutMs, TimeUnit.MILLISECONDS);
+      Map<TopicPartition, Long> logEnd = new HashMap<>();
+      offsets.forEach((tp, info) -> logEnd.put(tp, info.offset()));
+      return logEnd;
+    }
+
+    @Override
+    public void close() {
+      admin.close(Duration.ofSeconds(1));
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package app.js.kafka;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * The lag of the event listener on the partitions assigned to this instance, as sampled by {@link
+ * ConsumerLagMonitor}.
+ *
+ * @param partitions the assigned partitions of the event topic, by partition number
+ */
+public record ConsumerLagSnapshot(Instant sampledAt, List<Partition> partitions) {
+
+  public ConsumerLagSnapshot {
+    partitions = List.copyOf(partitions);
+  }
+
+  /** Records behind on all assigned partitions together. */
+  public long totalLag() {
+    return partitions.stream().mapToLong(Partition::lag).sum();
+  }
+
+  /** Estimated lag of the furthest behind partition; NaN if any lagging partition is stalled. */
+  public double maxLagSeconds() {
+    return partitions.stream().mapToDouble(Partition::lagSeconds).max().orElse(0);
+  }
+
+  /**
+   * The offsets and lag of one partition. Offsets the monitor does not know are {@link
+   * ConsumerLagMonitor#NO_OFFSET}.
+   *
+   * @param committedOffset the group's committed offset
+   * @param position the next offset the listener will process
+   * @param logEndOffset the offset the next produced record will get
+   * @param lag records between the position and the log end
+   * @param consumedPerSecond recent consumption rate, NaN until it has been measured
+   * @param lagSeconds the lag at the recent consumption rate, NaN while a lagging partition is not
+   *     consumed
+   */
+  public record Partition(
+      String topic,
+      int partition,
+      long committedOffset,
+      long position,
+      long logEndOffset,
+      long lag,
+      double consumedPerSecond,
+      double lagSeconds) {}
+}
@@ -4,6 +4,9 @@ import app.js.entity.FailedEvent;
 import app.js.entity.WikimediaEvent;
 import app.js.repository.FailedEventRepository;
 import app.js.repository.WikimediaEventRepository;
+import app.js.service.EventFieldExtractor;
+import app.js.service.PersistedEventsListener;
+import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.kafka.annotation.KafkaListener;
@@ -17,11 +20,16 @@ public class DlqConsumer {
 
   private final WikimediaEventRepository eventRepository;
   private final FailedEventRepository failedEventRepository;
+  private final EventFieldExtractor fieldExtractor = new EventFieldExtractor();
+  private final List<PersistedEventsListener> listeners;
 
   public DlqConsumer(
-      WikimediaEventRepository eventRepository, FailedEventRepository failedEventRepository) {
+      WikimediaEventRepository eventRepository,
+      FailedEventRepository failedEventRepository,
+      List<PersistedEventsListener> listeners) {
     this.eventRepository = eventRepository;
     this.failedEventRepository = failedEventRepository;
+    this.listeners = listeners;
   }
 
   @KafkaListener(
@@ -31,7 +39,8 @@ public class DlqConsumer {
     log.debug("Processing DLQ event");
 
     try {
-      eventRepository.save(new WikimediaEvent(eventData));
+      WikimediaEvent saved = eventRepository.save(fieldExtractor.toEvent(eventData));
+      listeners.forEach(listener -> listener.onPersisted(List.of(saved)));
       log.debug("Successfully reprocessed DLQ event");
 
       failedEventRepository
@@ -0,0 +1,13 @@
+package app.js.kafka;
+
+/**
+ * Thrown by the event listeners when the persistence queue is still full after the submit wait. The
+ * error handler of {@link app.js.config.KafkaListenerConfig} redelivers such records until they are
+ * queued, instead of skipping them after the usual number of attempts.
+ */
+public class EventQueueFullException extends IllegalStateException {
+
+  public EventQueueFullException(String message) {
+    super(message);
+  }
+}
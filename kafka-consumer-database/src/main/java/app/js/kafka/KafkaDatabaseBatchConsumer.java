@@ -0,0 +1,69 @@
+package app.js.kafka;
+
+import app.js.config.KafkaListenerConfig;
+import app.js.service.EventLatencyRecorder;
+import app.js.service.EventPersistenceService;
+import app.js.service.IngestEvent;
+import java.time.Duration;
+import java.util.List;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Sinks;
+
+@Service
+@ConditionalOnProperty(name = "app.kafka.listener-mode", havingValue = "batch")
+public class KafkaDatabaseBatchConsumer {
+  private static final Logger logger = LoggerFactory.getLogger(KafkaDatabaseBatchConsumer.class);
+
+  private final Sinks.Many<String> sink;
+  private final EventPersistenceService persistenceService;
+  private final ConsumerBackpressureController backpressureController;
+  private final EventLatencyRecorder latencyRecorder;
+  private final ConsumerLagMonitor lagMonitor;
+  private final Duration maxSubmitWait;
+
+  public KafkaDatabaseBatchConsumer(
+      Sinks.Many<String> sink,
+      EventPersistenceService persistenceService,
+      ConsumerBackpressureController backpressureController,
+      EventLatencyRecorder latencyRecorder,
+      ConsumerLagMonitor lagMonitor,
+      @Value("${app.kafka.backpressure.max-submit-wait-ms:10000}") long maxSubmitWaitMs) {
+    this.sink = sink;
+    this.persistenceService = persistenceService;
+    this.backpressureController = backpressureController;
+    this.latencyRecorder = latencyRecorder;
+    this.lagMonitor = lagMonitor;
+    this.maxSubmitWait = Duration.ofMillis(maxSubmitWaitMs);
+  }
+
+  @KafkaListener(
+      id = KafkaListenerConfig.EVENT_LISTENER_ID,
+      idIsGroup = false,
+      topics = "${app.kafka.topic}",
+      groupId = "${spring.kafka.consumer.group-id}",
+      containerFactory = KafkaListenerConfig.BATCH_CONTAINER_FACTORY)
+  public void consume(List<ConsumerRecord<String, String>> records) {
+    logger.debug("Batch of {} event messages received", records.size());
+
+    List<IngestEvent> events = records.stream().map(latencyRecorder::consumed).toList();
+
+    int accepted = persistenceService.submitAll(events, maxSubmitWait);
+    backpressureController.onSubmitted();
+    records.subList(0, accepted).forEach(lagMonitor::consumed);
+    events.subList(0, accepted).forEach(event -> sink.tryEmitNext(event.payload()));
+
+    if (accepted < events.size()) {
+      // Offsets before the failed index are committed; the rest of the poll is redelivered.
+      String message = "Event queue still full after " + maxSubmitWait.toMillis() + "ms";
+      throw new BatchListenerFailedException(
+          message, new EventQueueFullException(message), accepted);
+    }
+  }
+}
@@ -1,32 +1,65 @@
 package app.js.kafka;
 
+import app.js.config.KafkaListenerConfig;
+import app.js.service.EventLatencyRecorder;
 import app.js.service.EventPersistenceService;
+import java.time.Duration;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Sinks;
 
 @Service
+@ConditionalOnProperty(
+    name = "app.kafka.listener-mode",
+    havingValue = "record",
+    matchIfMissing = true)
 public class KafkaDatabaseConsumer {
   private static final Logger logger = LoggerFactory.getLogger(KafkaDatabaseConsumer.class);
 
   private final Sinks.Many<String> sink;
   private final EventPersistenceService persistenceService;
+  private final ConsumerBackpressureController backpressureController;
+  private final EventLatencyRecorder latencyRecorder;
+  private final ConsumerLagMonitor lagMonitor;
+  private final Duration maxSubmitWait;
 
   public KafkaDatabaseConsumer(
-      Sinks.Many<String> sink, EventPersistenceService persistenceService) {
+      Sinks.Many<String> sink,
+      EventPersistenceService persistenceService,
+      ConsumerBackpressureController backpressureController,
+      EventLatencyRecorder latencyRecorder,
+      ConsumerLagMonitor lagMonitor,
+      @Value("${app.kafka.backpressure.max-submit-wait-ms:10000}") long maxSubmitWaitMs) {
     this.sink = sink;
     this.persistenceService = persistenceService;
+    this.backpressureController = backpressureController;
+    this.latencyRecorder = latencyRecorder;
+    this.lagMonitor = lagMonitor;
+    this.maxSubmitWait = Duration.ofMillis(maxSubmitWaitMs);
   }
 
-  @KafkaListener(topics = "${app.kafka.topic}", groupId = "${spring.kafka.consumer.group-id}")
-  public void consume(String eventMessage) {
+  @KafkaListener(
+      id = KafkaListenerConfig.EVENT_LISTENER_ID,
+      idIsGroup = false,
+      topics = "${app.kafka.topic}",
+      groupId = "${spring.kafka.consumer.group-id}")
+  public void consume(ConsumerRecord<String, String> record) {
     logger.debug("Event message received");
 
-    if (!persistenceService.submit(eventMessage)) {
-      logger.warn("Event queue full, event dropped");
+    String eventMessage = record.value();
+    if (!persistenceService.submit(latencyRecorder.consumed(record), maxSubmitWait)) {
+      // Fail the record so the error handler seeks back and redelivers it, instead of
+      // committing an offset for an event that was never queued.
+      throw new EventQueueFullException(
+          "Event queue still full after " + maxSubmitWait.toMillis() + "ms");
     }
+    backpressureController.onSubmitted();
+    lagMonitor.consumed(record);
 
     sink.tryEmitNext(eventMessage);
   }
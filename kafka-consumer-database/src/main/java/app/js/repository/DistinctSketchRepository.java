@@ -0,0 +1,14 @@
+package app.js.repository;
+
+import app.js.entity.DistinctSketch;
+import java.time.Instant;
+import java.util.stream.Stream;
+import org.springframework.data.mongodb.repository.Meta;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface DistinctSketchRepository extends MongoRepository<DistinctSketch, String> {
+
+  /** Streams the snapshots from a cursor; a 30-day window holds thousands of 12 KB snapshots. */
+  @Meta(cursorBatchSize = 100)
+  Stream<DistinctSketch> streamByBucketStartGreaterThanEqual(Instant bucketStart);
+}
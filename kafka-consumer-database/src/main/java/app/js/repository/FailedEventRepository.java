@@ -4,13 +4,14 @@ import app.js.entity.FailedEvent;
 import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.Aggregation;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 
 public interface FailedEventRepository extends MongoRepository<FailedEvent, String> {
 
-  List<FailedEvent> findByRetryCountLessThan(int maxRetries);
+  long countByRetryCountLessThan(int maxRetries);
 
   Optional<FailedEvent> findByEventData(String eventData);
 
@@ -18,7 +19,20 @@ public interface FailedEventRepository extends MongoRepository<FailedEvent, Stri
 
   List<FailedEvent> findByErrorType(String errorType);
 
-  Page<FailedEvent> findAllByOrderByFailedAtDesc(Pageable pageable);
+  /** The most recent failed events, without their payloads. */
+  @Query(value = "{}", fields = "{ 'eventData': 0 }", sort = "{ 'failedAt': -1 }")
+  List<FailedEvent> findRecentWithoutPayload(Pageable pageable);
 
   long countByRetryCountGreaterThanEqual(int retryCount);
+
+  /** Failed events per error type, the most frequent {@code limit} types first. */
+  @Aggregation({
+    "{ $group: { _id: '$errorType', count: { $sum: 1 } } }",
+    "{ $sort: { count: -1, _id: 1 } }",
+    "{ $limit: ?0 }",
+    "{ $project: { _id: 0, errorType: '$_id', count: 1 } }"
+  })
+  List<ErrorTypeCount> countPerErrorType(int limit);
+
+  record ErrorTypeCount(String errorType, long count) {}
 }
@@ -8,7 +8,8 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.mongodb.repository.Query;
 
-public interface WikimediaEventRepository extends MongoRepository<WikimediaEvent, String> {
+public interface WikimediaEventRepository
+    extends MongoRepository<WikimediaEvent, String>, WikimediaEventRepositoryCustom {
 
   @Query("{ 'eventData': { $regex: ?0, $options: 'i' } }")
   Page<WikimediaEvent> findByEventDataContaining(String searchTerm, Pageable pageable);
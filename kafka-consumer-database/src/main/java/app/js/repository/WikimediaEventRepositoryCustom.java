@@ -0,0 +1,20 @@
+package app.js.repository;
+
+import app.js.entity.WikimediaEvent;
+import java.time.Instant;
+import java.util.List;
+
+/** Queries of {@link WikimediaEventRepository} built with {@code MongoTemplate}. */
+public interface WikimediaEventRepositoryCustom {
+
+  /**
+   * Up to {@code limit} events ordered newest first by {@code receivedAt}, then {@code _id}, that
+   * come after the event ({@code receivedAt}, {@code id}) in that order. The query seeks into the
+   * {@code receivedAt_id} index instead of skipping, so every page costs the same.
+   *
+   * @param receivedAt the last event of the previous page, or {@code null} for the first page
+   * @param id the id of that event, or {@code null} for the first page
+   * @param search case-insensitive regex on {@code eventData}, or {@code null}
+   */
+  List<WikimediaEvent> findNewestAfter(Instant receivedAt, String id, String search, int limit);
+}
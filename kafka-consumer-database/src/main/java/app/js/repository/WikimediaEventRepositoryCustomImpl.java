@@ -0,0 +1,41 @@
+package app.js.repository;
+
+import app.js.entity.WikimediaEvent;
+import java.time.Instant;
+import java.util.List;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+class WikimediaEventRepositoryCustomImpl implements WikimediaEventRepositoryCustom {
+
+  private static final Sort NEWEST_FIRST =
+      Sort.by(Sort.Order.desc("receivedAt"), Sort.Order.desc("_id"));
+
+  private final MongoTemplate mongoTemplate;
+
+  WikimediaEventRepositoryCustomImpl(MongoTemplate mongoTemplate) {
+    this.mongoTemplate = mongoTemplate;
+  }
+
+  @Override
+  public List<WikimediaEvent> findNewestAfter(
+      Instant receivedAt, String id, String search, int limit) {
+    Query query = new Query().with(NEWEST_FIRST).limit(limit);
+    if (receivedAt != null && id != null) {
+      // the $lte bounds the index scan; the $or only drops the ties already returned
+      Object lastId = ObjectId.isValid(id) ? new ObjectId(id) : id;
+      query.addCriteria(
+          Criteria.where("receivedAt")
+              .lte(receivedAt)
+              .orOperator(
+                  Criteria.where("receivedAt").lt(receivedAt), Criteria.where("_id").lt(lastId)));
+    }
+    if (search != null && !search.isBlank()) {
+      query.addCriteria(Criteria.where("eventData").regex(search, "i"));
+    }
+    return mongoTemplate.find(query, WikimediaEvent.class);
+  }
+}
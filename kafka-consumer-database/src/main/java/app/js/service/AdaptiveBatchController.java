@@ -0,0 +1,96 @@
+package app.js.service;
+
+import app.js.config.PersistenceProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Feedback controller for the batch size and flush deadline of one persistence stripe.
+ *
+ * <p>After every flush it updates an exponentially weighted average of the write latency and
+ * adjusts the batch size additive-increase/multiplicative-decrease style: it shrinks the batch when
+ * writes eat more than half of the latency target, and grows it when a backlog of at least one
+ * batch is waiting and writes are fast. The flush deadline is whatever is left of the target after
+ * the average write, so a trickle of events is still written within the target.
+ *
+ * <p>When adaptive mode is disabled the configured batch size and flush interval are returned
+ * unchanged. With pipelined flushes {@link #onFlush} is called from the write threads, so it is
+ * synchronized.
+ */
+class AdaptiveBatchController {
+
+  private static final double LATENCY_SMOOTHING = 0.2;
+
+  private final boolean enabled;
+  private final long targetLatencyMs;
+  private final int minBatchSize;
+  private final int maxBatchSize;
+  private final long minFlushIntervalMs;
+  private final long maxFlushIntervalMs;
+
+  private volatile int batchSize;
+  private volatile long flushIntervalMs;
+  private volatile double writeLatencyMs;
+
+  AdaptiveBatchController(
+      PersistenceProperties properties, int stripe, MeterRegistry meterRegistry) {
+    PersistenceProperties.Adaptive adaptive = properties.getAdaptive();
+    this.enabled = adaptive.isEnabled();
+    this.targetLatencyMs = adaptive.getTargetLatencyMs();
+    this.minBatchSize = adaptive.getMinBatchSize();
+    this.maxBatchSize = adaptive.getMaxBatchSize();
+    this.minFlushIntervalMs = adaptive.getMinFlushIntervalMs();
+    this.maxFlushIntervalMs = adaptive.getMaxFlushIntervalMs();
+    this.batchSize = properties.getBatchSize();
+    this.flushIntervalMs = properties.getFlushIntervalMs();
+
+    if (enabled) {
+      String stripeTag = String.valueOf(stripe);
+      Gauge.builder("wikimedia.persistence.adaptive.batch.size", this, c -> c.batchSize)
+          .description("Batch size currently chosen by the adaptive controller")
+          .tag("stripe", stripeTag)
+          .register(meterRegistry);
+      Gauge.builder("wikimedia.persistence.adaptive.flush.interval", this, c -> c.flushIntervalMs)
+          .description("Flush deadline currently chosen by the adaptive controller")
+          .baseUnit("milliseconds")
+          .tag("stripe", stripeTag)
+          .register(meterRegistry);
+      Gauge.builder("wikimedia.persistence.adaptive.write.latency", this, c -> c.writeLatencyMs)
+          .description("Smoothed batch write latency seen by the adaptive controller")
+          .baseUnit("milliseconds")
+          .tag("stripe", stripeTag)
+          .register(meterRegistry);
+    }
+  }
+
+  int batchSize() {
+    return batchSize;
+  }
+
+  long flushIntervalMs() {
+    return flushIntervalMs;
+  }
+
+  synchronized void onFlush(int flushed, long writeNanos, int queueDepth) {
+    if (!enabled || flushed == 0) {
+      return;
+    }
+
+    double writeMs = writeNanos / 1_000_000.0;
+    double smoothed =
+        writeLatencyMs == 0
+            ? writeMs
+            : LATENCY_SMOOTHING * writeMs + (1 - LATENCY_SMOOTHING) * writeLatencyMs;
+    writeLatencyMs = smoothed;
+
+    int current = batchSize;
+    if (smoothed > targetLatencyMs / 2.0) {
+      batchSize = Math.max(minBatchSize, current * 3 / 4);
+    } else if (queueDepth >= current) {
+      batchSize = Math.min(maxBatchSize, current + Math.max(1, current / 4));
+    }
+
+    long remaining = targetLatencyMs - Math.round(smoothed);
+    flushIntervalMs = Math.clamp(remaining, minFlushIntervalMs, maxFlushIntervalMs);
+  }
+}
@@ -0,0 +1,217 @@
+package app.js.service;
+
+import app.js.config.AnalyticsProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Results of the analytics endpoints, keyed by endpoint and window. Dashboards poll the same
+ * windows every few seconds; a cached result is reused until its time-to-live, which grows with the
+ * window since a minute matters less to a 30-day window than to a one-hour one: one part in {@value
+ * #TTL_DIVISOR} of the window, clamped to {@code [min-ttl, max-ttl]}.
+ *
+ * <p>Concurrent requests for a missing entry share one computation; the others wait for its result.
+ * Failures are not cached. The least recently used entry is evicted beyond {@code max-entries}.
+ *
+ * <p>Every caller gets the same instance of a result, so maps and lists are stored as unmodifiable
+ * copies, nested ones included, keeping their iteration order: a caller can neither change what the
+ * others see nor keep changing the result through the loader's own map.
+ */
+@Service
+public class AnalyticsResultCache {
+
+  /** A 24-hour window is cached for a minute. */
+  static final int TTL_DIVISOR = 1440;
+
+  private final boolean enabled;
+  private final int maxEntries;
+  private final Duration minTtl;
+  private final Duration maxTtl;
+  private final Clock clock;
+  private final Map<Key, Entry> entries;
+  private final Counter hits;
+  private final Counter misses;
+  private final Timer loadTimer;
+  private long evictions;
+
+  @Autowired
+  public AnalyticsResultCache(AnalyticsProperties properties, MeterRegistry meterRegistry) {
+    this(properties.getCache(), meterRegistry, Clock.systemUTC());
+  }
+
+  AnalyticsResultCache(
+      AnalyticsProperties.Cache properties, MeterRegistry meterRegistry, Clock clock) {
+    this.enabled = properties.isEnabled();
+    this.maxEntries = Math.max(1, properties.getMaxEntries());
+    this.minTtl = properties.getMinTtl();
+    this.maxTtl = properties.getMaxTtl();
+    this.clock = clock;
+    // access order, so the eldest entry is the least recently used
+    this.entries =
+        new LinkedHashMap<>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            if (size() > AnalyticsResultCache.this.maxEntries) {
+              evictions++;
+              return true;
+            }
+            return false;
+          }
+        };
+
+    this.hits =
+        Counter.builder("wikimedia.analytics.cache.requests")
+            .description("Analytics requests answered by the result cache")
+            .tag("result", "hit")
+            .register(meterRegistry);
+    this.misses =
+        Counter.builder("wikimedia.analytics.cache.requests")
+            .description("Analytics requests answered by the result cache")
+            .tag("result", "miss")
+            .register(meterRegistry);
+    this.loadTimer =
+        Timer.builder("wikimedia.analytics.cache.load")
+            .description("Time to compute an analytics result on a cache miss")
+            .register(meterRegistry);
+    Gauge.builder("wikimedia.analytics.cache.hit.ratio", this, AnalyticsResultCache::hitRatio)
+        .description("Share of analytics requests answered by the result cache")
+        .register(meterRegistry);
+    FunctionCounter.builder(
+            "wikimedia.analytics.cache.evictions", this, AnalyticsResultCache::evictions)
+        .description("Analytics results dropped from the cache to stay within max-entries")
+        .register(meterRegistry);
+    Gauge.builder("wikimedia.analytics.cache.size", this, AnalyticsResultCache::size)
+        .description("Analytics results currently cached")
+        .register(meterRegistry);
+  }
+
+  /**
+   * The cached result of {@code endpoint} over the last {@code hours}, or the one computed by
+   * {@code loader}. Exceptions of the loader are rethrown to every caller waiting for it.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T get(String endpoint, int hours, Supplier<T> loader) {
+    if (!enabled) {
+      return loader.get();
+    }
+
+    Key key = new Key(endpoint, hours);
+    Entry entry;
+    boolean owner = false;
+    synchronized (entries) {
+      entry = entries.get(key);
+      if (entry == null || entry.isExpired(clock.millis())) {
+        entry = new Entry();
+        entries.put(key, entry);
+        owner = true;
+      }
+    }
+
+    if (!owner) {
+      hits.increment();
+      return (T) join(entry.result);
+    }
+
+    misses.increment();
+    try {
+      T value = (T) unmodifiableCopy(loadTimer.record(loader));
+      entry.expiresAtMillis = clock.millis() + ttl(hours).toMillis();
+      entry.result.complete(value);
+      return value;
+    } catch (RuntimeException | Error e) {
+      synchronized (entries) {
+        entries.remove(key, entry);
+      }
+      entry.result.completeExceptionally(e);
+      throw e;
+    }
+  }
+
+  /** One part in {@value #TTL_DIVISOR} of the window, within {@code [min-ttl, max-ttl]}. */
+  Duration ttl(int hours) {
+    Duration ttl = Duration.ofHours(Math.max(1, hours)).dividedBy(TTL_DIVISOR);
+    if (ttl.compareTo(minTtl) < 0) {
+      return minTtl;
+    }
+    return ttl.compareTo(maxTtl) > 0 ? maxTtl : ttl;
+  }
+
+  int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  private double evictions() {
+    synchronized (entries) {
+      return evictions;
+    }
+  }
+
+  private double hitRatio() {
+    double total = hits.count() + misses.count();
+    return total == 0 ? Double.NaN : hits.count() / total;
+  }
+
+  /**
+   * Copies maps and lists, recursively, into unmodifiable ones that keep the iteration order and
+   * allow {@code null} values, unlike {@code Map.copyOf} and {@code List.copyOf}. Other values are
+   * returned as they are.
+   */
+  static Object unmodifiableCopy(Object value) {
+    if (value instanceof Map<?, ?> map) {
+      Map<Object, Object> copy = LinkedHashMap.newLinkedHashMap(map.size());
+      map.forEach((k, v) -> copy.put(k, unmodifiableCopy(v)));
+      return Collections.unmodifiableMap(copy);
+    }
+    if (value instanceof List<?> list) {
+      List<Object> copy = new ArrayList<>(list.size());
+      list.forEach(element -> copy.add(unmodifiableCopy(element)));
+      return Collections.unmodifiableList(copy);
+    }
+    return value;
+  }
+
+  private static Object join(CompletableFuture<Object> result) {
+    try {
+      return result.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      if (e.getCause() instanceof Error cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+
+  private record Key(String endpoint, int hours) {}
+
+  private static final class Entry {
+
+    final CompletableFuture<Object> result = new CompletableFuture<>();
+
+    /** Set once the result is loaded; an entry still loading never expires. */
+    volatile long expiresAtMillis = Long.MAX_VALUE;
+
+    boolean isExpired(long nowMillis) {
+      return nowMillis >= expiresAtMillis;
+    }
+  }
+}
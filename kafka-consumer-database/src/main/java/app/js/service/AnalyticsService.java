@@ -1,166 +1,475 @@
 package app.js.service;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.group;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.limit;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.match;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.newAggregation;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.project;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.sort;
+
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import org.bson.Document;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationExpression;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.aggregation.DateOperators;
 import org.springframework.data.mongodb.core.query.Criteria;
-import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
 
+/**
+ * Event analytics over a trailing window. Every query runs as a MongoDB aggregation pipeline on the
+ * typed fields extracted at ingest, using the {@code receivedAt} compound indexes for the {@code
+ * $match}; only the aggregated rows are returned to the application, streamed through a cursor and
+ * folded into the result as they arrive.
+ *
+ * <p>Windows within the {@link RollupEngine}'s in-memory per-minute buckets are answered from those
+ * instead. Top users and pages then come from its heavy-hitter sketches and carry an {@code error}
+ * bound per row; {@code exact} forces the exact pipeline, e.g. to validate the estimates.
+ *
+ * <p>Other windows are split by a query planner: the full hours up to the {@link
+ * HourlyRollupService} checkpoint are summed from the hourly rollups, and only the partial hour at
+ * the start of the window and the events after the checkpoint are aggregated from the raw events.
+ * Counts per wiki and type, per hour and the breakdown therefore cost about the same for a 30-day
+ * window as for a one-day one. Top users and pages are not rolled up and always scan the window.
+ *
+ * <p>Raw ranges are scanned as time slices in parallel by the {@link TimeSliceExecutor}, each slice
+ * producing partial counts that are merged here. Exact top users and pages run as one pipeline:
+ * per-slice top-K lists cannot be merged exactly, and complete per-slice counts would hold every
+ * user or page of the window in memory.
+ *
+ * <p>Distinct users, pages and wikis are only available as {@link DistinctCounter} estimates.
+ */
 @Service
 public class AnalyticsService {
 
+  /** Dimensions with distinct-count estimates, as named in the API. */
+  public static final List<String> DISTINCT_DIMENSIONS = List.of("users", "pages", "wikis");
+
+  private static final String COLLECTION = "wikimedia_events";
+
+  /** Rows per cursor batch; large enough that by-wiki windows usually fit into one round trip. */
+  static final int CURSOR_BATCH_SIZE = 1000;
+
+  private static final AggregationOptions CURSOR_OPTIONS =
+      AggregationOptions.builder().allowDiskUse(true).cursorBatchSize(CURSOR_BATCH_SIZE).build();
+
   private final MongoTemplate mongoTemplate;
-  private final ObjectMapper objectMapper;
+  private final RollupEngine rollups;
+  private final DistinctCounter distinctCounter;
+  private final HourlyRollupService hourlyRollups;
+  private final TimeSliceExecutor slices;
 
-  public AnalyticsService(MongoTemplate mongoTemplate) {
+  public AnalyticsService(
+      MongoTemplate mongoTemplate,
+      RollupEngine rollups,
+      DistinctCounter distinctCounter,
+      HourlyRollupService hourlyRollups,
+      TimeSliceExecutor slices) {
     this.mongoTemplate = mongoTemplate;
-    this.objectMapper = new ObjectMapper();
+    this.rollups = rollups;
+    this.distinctCounter = distinctCounter;
+    this.hourlyRollups = hourlyRollups;
+    this.slices = slices;
   }
 
   public Map<String, Long> getEventsByWiki(int hours) {
     Instant since = Instant.now().minus(hours, ChronoUnit.HOURS);
+    if (rollups.covers(since)) {
+      return rollups.countsByWiki(since);
+    }
     return aggregateByField("wiki", since);
   }
 
   public Map<String, Long> getEventsByType(int hours) {
     Instant since = Instant.now().minus(hours, ChronoUnit.HOURS);
+    if (rollups.covers(since)) {
+      return rollups.countsByType(since);
+    }
     return aggregateByField("type", since);
   }
 
-  public List<Map<String, Object>> getTopUsers(int hours, int limit) {
-    Instant since = Instant.now().minus(hours, ChronoUnit.HOURS);
-    Map<String, Long> userCounts = aggregateByField("user", since);
-
-    return userCounts.entrySet().stream()
-        .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
-        .limit(limit)
-        .map(
-            e -> {
-              Map<String, Object> result = new HashMap<>();
-              result.put("user", e.getKey());
-              result.put("count", e.getValue());
-              return result;
-            })
-        .toList();
-  }
-
-  public List<Map<String, Object>> getTopPages(int hours, int limit) {
+  public List<Map<String, Object>> getTopUsers(int hours, int limit, boolean exact) {
     Instant since = Instant.now().minus(hours, ChronoUnit.HOURS);
-    Map<String, Long> pageCounts = aggregateByField("title", since);
+    if (!exact && rollups.coversTopK(since)) {
+      return estimated("user", rollups.topUsers(since, limit));
+    }
+    return topByField("user", receivedSince(since), limit);
+  }
 
-    return pageCounts.entrySet().stream()
-        .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
-        .limit(limit)
-        .map(
-            e -> {
-              Map<String, Object> result = new HashMap<>();
-              result.put("title", e.getKey());
-              result.put("count", e.getValue());
-              return result;
-            })
-        .toList();
+  public List<Map<String, Object>> getTopPages(int hours, int limit, boolean exact) {
+    Instant since = Instant.now().minus(hours, ChronoUnit.HOURS);
+    if (!exact && rollups.coversTopK(since)) {
+      return estimated("title", rollups.topTitles(since, limit));
+    }
+    return topByField("title", receivedSince(since), limit);
   }
 
   public Map<String, Long> getHourlyDistribution(int hours) {
     Instant since = Instant.now().minus(hours, ChronoUnit.HOURS);
-    Query query = new Query(Criteria.where("receivedAt").gte(since));
-    query.with(Sort.by(Sort.Direction.ASC, "receivedAt"));
-
-    List<org.bson.Document> events =
-        mongoTemplate.find(query, org.bson.Document.class, "wikimedia_events");
+    if (rollups.covers(since)) {
+      Map<String, Long> hourlyCount = new LinkedHashMap<>();
+      rollups.countsByHour(since).forEach((hour, count) -> hourlyCount.put(hour.toString(), count));
+      return hourlyCount;
+    }
 
-    Map<String, Long> hourlyCount = new LinkedHashMap<>();
-    for (org.bson.Document event : events) {
-      Instant receivedAt = event.getDate("receivedAt").toInstant();
-      String hourKey = receivedAt.truncatedTo(ChronoUnit.HOURS).toString();
-      hourlyCount.merge(hourKey, 1L, Long::sum);
+    Plan plan = plan(since);
+    Map<Instant, Long> byHour = new TreeMap<>();
+    if (plan.usesRollups()) {
+      byHour.putAll(hourlyRollups.totalsByHour(plan.rolledFrom(), plan.rolledTo()));
     }
+    List<Map<Instant, Long>> partials =
+        scanRaw(
+            plan,
+            range -> {
+              Aggregation aggregation =
+                  newAggregation(
+                      match(range),
+                      project().and(DateOperators.dateOf("receivedAt").truncate("hour")).as("hour"),
+                      group("hour").count().as("count"),
+                      sort(Sort.Direction.ASC, "_id"));
+              Map<Instant, Long> partial = new HashMap<>();
+              forEachRow(
+                  aggregation,
+                  row -> partial.merge(row.getDate("_id").toInstant(), count(row), Long::sum));
+              return partial;
+            });
+    // a slice boundary may fall inside an hour, whose count is then split over two slices
+    partials.forEach(
+        partial -> partial.forEach((hour, count) -> byHour.merge(hour, count, Long::sum)));
 
+    Map<String, Long> hourlyCount = new LinkedHashMap<>();
+    byHour.forEach((hour, count) -> hourlyCount.put(hour.toString(), count));
     return hourlyCount;
   }
 
   public Map<String, Object> getEventBreakdown(int hours) {
     Instant since = Instant.now().minus(hours, ChronoUnit.HOURS);
+    if (rollups.covers(since)) {
+      return breakdownFromRollups(since, hours);
+    }
 
-    Query query = new Query(Criteria.where("receivedAt").gte(since));
-    List<org.bson.Document> events =
-        mongoTemplate.find(query, org.bson.Document.class, "wikimedia_events");
-
-    Map<String, Long> byBot = new HashMap<>();
-    Map<String, Long> byNamespace = new HashMap<>();
-    long totalEvents = events.size();
-
-    for (org.bson.Document event : events) {
-      String eventData = event.getString("eventData");
-      try {
-        JsonNode json = objectMapper.readTree(eventData);
-
-        boolean isBot = json.path("bot").asBoolean(false);
-        byBot.merge(isBot ? "bot" : "human", 1L, Long::sum);
-
-        int namespace = json.path("namespace").asInt(0);
-        String nsKey =
-            switch (namespace) {
-              case 0 -> "Main";
-              case 1 -> "Talk";
-              case 2 -> "User";
-              case 3 -> "User talk";
-              case 4 -> "Project";
-              case 6 -> "File";
-              case 10 -> "Template";
-              case 14 -> "Category";
-              default -> "Other (" + namespace + ")";
-            };
-        byNamespace.merge(nsKey, 1L, Long::sum);
-
-      } catch (JsonProcessingException e) {
-        // Skip malformed events
-      }
+    Breakdown breakdown = new Breakdown();
+    Plan plan = plan(since);
+    if (plan.usesRollups()) {
+      Instant from = plan.rolledFrom();
+      Instant to = plan.rolledTo();
+      hourlyRollups
+          .sumByKey(HourlyRollupService.TOTAL, from, to)
+          .values()
+          .forEach(count -> breakdown.total += count);
+      hourlyRollups
+          .sumByKey("bot", from, to)
+          .forEach((bot, count) -> breakdown.addBot(Boolean.parseBoolean(bot), count));
+      hourlyRollups
+          .sumByKey("namespace", from, to)
+          .forEach(
+              (namespace, count) -> breakdown.addNamespace(Integer.parseInt(namespace), count));
     }
 
+    // one row per (bot, namespace) pair; both breakdowns and the total are summed from those.
+    // Missing values take the same defaults as the hourly rollups, so every event is counted in
+    // both
+    List<Breakdown> partials =
+        scanRaw(
+            plan,
+            range -> {
+              Aggregation aggregation =
+                  newAggregation(
+                      match(range),
+                      project()
+                          .and(withDefault("bot"))
+                          .as("bot")
+                          .and(withDefault("namespace"))
+                          .as("namespace"),
+                      group("bot", "namespace").count().as("count"));
+
+              Breakdown partial = new Breakdown();
+              forEachRow(
+                  aggregation,
+                  row -> {
+                    Document key = row.get("_id", Document.class);
+                    long count = count(row);
+                    partial.total += count;
+                    partial.addBot(key.getBoolean("bot"), count);
+                    partial.addNamespace(((Number) key.get("namespace")).intValue(), count);
+                  });
+              return partial;
+            });
+    partials.forEach(breakdown::addAll);
+
+    return breakdown.toResult(hours);
+  }
+
+  public Map<String, Object> getDistinctCounts(int hours) {
+    Instant since = Instant.now().minus(hours, ChronoUnit.HOURS);
+    DistinctCounter.Distinct distinct = distinctCounter.count(since);
+
+    Map<String, Object> result = distinctResult(distinct, hours);
+    result.put("users", distinct.users());
+    result.put("pages", distinct.pages());
+    result.put("wikis", distinct.wikis());
+    return result;
+  }
+
+  /** Distinct count of one of the {@link #DISTINCT_DIMENSIONS}. */
+  public Map<String, Object> getDistinctCount(String dimension, int hours) {
+    Instant since = Instant.now().minus(hours, ChronoUnit.HOURS);
+    DistinctCounter.Distinct distinct = distinctCounter.count(since);
+
+    Map<String, Object> result = distinctResult(distinct, hours);
+    result.put("dimension", dimension);
+    result.put(
+        "count",
+        switch (dimension) {
+          case "users" -> distinct.users();
+          case "pages" -> distinct.pages();
+          case "wikis" -> distinct.wikis();
+          default -> throw new IllegalArgumentException("Unknown dimension: " + dimension);
+        });
+    return result;
+  }
+
+  private static Map<String, Object> distinctResult(DistinctCounter.Distinct distinct, int hours) {
     Map<String, Object> result = new HashMap<>();
-    result.put("totalEvents", totalEvents);
-    result.put("byBot", byBot);
-    result.put("byNamespace", byNamespace);
     result.put("periodHours", hours);
-
+    result.put("since", distinct.since().toString());
+    result.put("relativeError", distinct.relativeError());
     return result;
   }
 
+  private Map<String, Object> breakdownFromRollups(Instant since, int hours) {
+    RollupEngine.Breakdown rolledUp = rollups.breakdown(since);
+
+    Breakdown breakdown = new Breakdown();
+    breakdown.total = rolledUp.total();
+    if (rolledUp.bot() > 0) {
+      breakdown.addBot(true, rolledUp.bot());
+    }
+    if (rolledUp.human() > 0) {
+      breakdown.addBot(false, rolledUp.human());
+    }
+    rolledUp.byNamespace().forEach(breakdown::addNamespace);
+
+    return breakdown.toResult(hours);
+  }
+
+  /** Accumulates the breakdown as rows arrive from the rollups and the cursors. */
+  private static final class Breakdown {
+
+    final Map<String, Long> byBot = new HashMap<>();
+    final Map<String, Long> byNamespace = new HashMap<>();
+    long total;
+
+    void addBot(boolean bot, long count) {
+      byBot.merge(bot ? "bot" : "human", count, Long::sum);
+    }
+
+    void addNamespace(int namespace, long count) {
+      byNamespace.merge(namespaceName(namespace), count, Long::sum);
+    }
+
+    void addAll(Breakdown other) {
+      total += other.total;
+      other.byBot.forEach((key, count) -> byBot.merge(key, count, Long::sum));
+      other.byNamespace.forEach((key, count) -> byNamespace.merge(key, count, Long::sum));
+    }
+
+    Map<String, Object> toResult(int hours) {
+      Map<String, Object> result = new HashMap<>();
+      result.put("totalEvents", total);
+      result.put("byBot", byBot);
+      result.put("byNamespace", byNamespace);
+      result.put("periodHours", hours);
+      return result;
+    }
+  }
+
+  private static String namespaceName(int namespace) {
+    return switch (namespace) {
+      case 0 -> "Main";
+      case 1 -> "Talk";
+      case 2 -> "User";
+      case 3 -> "User talk";
+      case 4 -> "Project";
+      case 6 -> "File";
+      case 10 -> "Template";
+      case 14 -> "Category";
+      default -> "Other (" + namespace + ")";
+    };
+  }
+
   private Map<String, Long> aggregateByField(String fieldName, Instant since) {
-    Query query = new Query(Criteria.where("receivedAt").gte(since));
-    List<org.bson.Document> events =
-        mongoTemplate.find(query, org.bson.Document.class, "wikimedia_events");
+    Plan plan = plan(since);
+    List<Map<String, Long>> partials =
+        scanRaw(
+            plan,
+            range -> {
+              Map<String, Long> partial = new LinkedHashMap<>();
+              forEachRow(
+                  countByField(fieldName, range, 0),
+                  row -> partial.put(row.get("_id").toString(), count(row)));
+              return partial;
+            });
+    if (!plan.usesRollups() && partials.size() == 1) {
+      // a single pipeline already returns the counts in order
+      return partials.get(0);
+    }
 
     Map<String, Long> counts = new HashMap<>();
+    if (plan.usesRollups()) {
+      counts.putAll(hourlyRollups.sumByKey(fieldName, plan.rolledFrom(), plan.rolledTo()));
+    }
+    partials.forEach(
+        partial -> partial.forEach((key, count) -> counts.merge(key, count, Long::sum)));
+
+    Map<String, Long> sorted = new LinkedHashMap<>();
+    counts.entrySet().stream()
+        .sorted(
+            Map.Entry.<String, Long>comparingByValue()
+                .reversed()
+                .thenComparing(Map.Entry.comparingByKey()))
+        .forEach(entry -> sorted.put(entry.getKey(), entry.getValue()));
+    return sorted;
+  }
 
-    for (org.bson.Document event : events) {
-      String eventData = event.getString("eventData");
-      try {
-        JsonNode json = objectMapper.readTree(eventData);
-        String value = json.path(fieldName).asText("");
-        if (!value.isEmpty()) {
-          counts.merge(value, 1L, Long::sum);
-        }
-      } catch (JsonProcessingException e) {
-        // Skip malformed events
+  /**
+   * Splits the window at the hourly rollups' checkpoint: full hours before it are read from the
+   * rollups, the partial first hour and everything after it from the raw events.
+   */
+  private Plan plan(Instant since) {
+    Instant checkpoint = hourlyRollups.checkpoint();
+    if (checkpoint != null) {
+      Instant firstFullHour = since.truncatedTo(ChronoUnit.HOURS);
+      if (firstFullHour.isBefore(since)) {
+        firstFullHour = firstFullHour.plus(1, ChronoUnit.HOURS);
+      }
+      if (firstFullHour.isBefore(checkpoint)) {
+        return new Plan(since, firstFullHour, checkpoint);
       }
     }
+    return new Plan(since, null, null);
+  }
+
+  /**
+   * A window starting at {@code since}, with the hours in {@code [rolledFrom, rolledTo)} read from
+   * the hourly rollups when {@code rolledFrom} is set.
+   */
+  private record Plan(Instant since, Instant rolledFrom, Instant rolledTo) {
+
+    boolean usesRollups() {
+      return rolledFrom != null;
+    }
+
+    /** {@code receivedAt} ranges left to aggregate from the raw events. */
+    List<Range> rawRanges() {
+      if (!usesRollups()) {
+        return List.of(new Range(since, null));
+      }
+      List<Range> ranges = new ArrayList<>(2);
+      if (since.isBefore(rolledFrom)) {
+        ranges.add(new Range(since, rolledFrom));
+      }
+      ranges.add(new Range(rolledTo, null));
+      return ranges;
+    }
+  }
+
+  /** {@code [from, to)}, or everything from {@code from} on when {@code to} is {@code null}. */
+  private record Range(Instant from, Instant to) {}
+
+  /**
+   * Runs {@code scan} on each time slice of the plan's raw ranges, in parallel for long ranges, and
+   * returns the partial results in time order.
+   */
+  private <T> List<T> scanRaw(Plan plan, Function<Criteria, T> scan) {
+    List<T> partials = new ArrayList<>();
+    for (Range range : plan.rawRanges()) {
+      partials.addAll(
+          slices.scan(
+              range.from(), range.to(), (from, to) -> scan.apply(receivedBetween(from, to))));
+    }
+    return partials;
+  }
+
+  private static Criteria receivedSince(Instant since) {
+    return Criteria.where("receivedAt").gte(since);
+  }
+
+  private static Criteria receivedBetween(Instant from, Instant to) {
+    return to == null ? receivedSince(from) : receivedSince(from).lt(to);
+  }
+
+  private List<Map<String, Object>> topByField(String fieldName, Criteria range, int limit) {
+    List<Map<String, Object>> top = new ArrayList<>();
+    forEachRow(
+        countByField(fieldName, range, limit),
+        row -> {
+          Map<String, Object> result = new HashMap<>();
+          result.put(fieldName, row.get("_id").toString());
+          result.put("count", count(row));
+          top.add(result);
+        });
+    return top;
+  }
+
+  /** Top-K rows from the sketches; the true count lies in {@code [count - error, count]}. */
+  private static List<Map<String, Object>> estimated(
+      String fieldName, List<SpaceSaving.Estimate> estimates) {
+    List<Map<String, Object>> top = new ArrayList<>(estimates.size());
+    for (SpaceSaving.Estimate estimate : estimates) {
+      Map<String, Object> result = new HashMap<>();
+      result.put(fieldName, estimate.item());
+      result.put("count", estimate.count());
+      result.put("error", estimate.error());
+      top.add(result);
+    }
+    return top;
+  }
+
+  /** Counts per distinct non-empty value of the field, most frequent first, optionally limited. */
+  private static Aggregation countByField(String fieldName, Criteria range, int limit) {
+    List<AggregationOperation> stages = new ArrayList<>();
+    stages.add(match(range.and(fieldName).nin(null, "")));
+    stages.add(group(fieldName).count().as("count"));
+    stages.add(sort(Sort.by(Sort.Direction.DESC, "count").and(Sort.by("_id"))));
+    if (limit > 0) {
+      stages.add(limit(limit));
+    }
+    return newAggregation(stages);
+  }
+
+  /**
+   * Streams the result rows through a cursor instead of materializing them, letting the {@code
+   * $group} stages spill to disk on the server for long windows.
+   */
+  private void forEachRow(Aggregation aggregation, Consumer<Document> action) {
+    try (Stream<Document> rows =
+        mongoTemplate.aggregateStream(
+            aggregation.withOptions(CURSOR_OPTIONS), COLLECTION, Document.class)) {
+      rows.forEach(action);
+    }
+  }
+
+  private static AggregationExpression withDefault(String dimension) {
+    return ConditionalOperators.ifNull(dimension)
+        .then(HourlyRollupService.DEFAULT_KEYS.get(dimension));
+  }
 
-    return counts.entrySet().stream()
-        .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
-        .collect(
-            Collectors.toMap(
-                Map.Entry::getKey, Map.Entry::getValue, (e1, _) -> e1, LinkedHashMap::new));
+  private static long count(Document row) {
+    return ((Number) row.get("count")).longValue();
   }
 }
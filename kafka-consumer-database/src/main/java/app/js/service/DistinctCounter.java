@@ -0,0 +1,251 @@
+package app.js.service;
+
+import app.js.config.AnalyticsProperties;
+import app.js.entity.DistinctSketch;
+import app.js.entity.WikimediaEvent;
+import app.js.repository.DistinctSketchRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Distinct users, pages and wikis per time bucket, as {@link HyperLogLog} sketches updated as
+ * events are written. A window is answered with the union of the in-memory buckets and the
+ * snapshots in MongoDB that fall into it, so it may reach back past this instance's start and
+ * includes the events of every instance that writes snapshots. The union is idempotent, so a bucket
+ * that is both in memory and in a snapshot is not counted twice.
+ *
+ * <p>Snapshots of the buckets that changed are written every {@code snapshot-interval} and on
+ * shutdown, under an id unique to this instance's lifetime. Other instances' most recent events are
+ * therefore only counted once their next snapshot has been written.
+ */
+@Service
+public class DistinctCounter implements PersistedEventsListener {
+
+  private static final Logger log = LoggerFactory.getLogger(DistinctCounter.class);
+
+  private final DistinctSketchRepository repository;
+  private final boolean enabled;
+  private final int precision;
+  private final long bucketMinutes;
+  private final Bucket[] ring;
+  private final String instance = UUID.randomUUID().toString();
+  private final ScheduledExecutorService snapshotter;
+  private final Timer snapshotTimer;
+
+  @Autowired
+  public DistinctCounter(
+      DistinctSketchRepository repository,
+      AnalyticsProperties properties,
+      MeterRegistry meterRegistry) {
+    this(repository, properties.getDistinct(), meterRegistry);
+  }
+
+  DistinctCounter(
+      DistinctSketchRepository repository,
+      AnalyticsProperties.Distinct properties,
+      MeterRegistry meterRegistry) {
+    this.repository = repository;
+    this.enabled = properties.isEnabled();
+    this.precision = properties.getPrecision();
+    this.bucketMinutes = Math.max(1, properties.getBucket().toMinutes());
+
+    long retentionMinutes = Math.max(1, properties.getRetention().toMinutes());
+    int buckets = enabled ? (int) ((retentionMinutes + bucketMinutes - 1) / bucketMinutes) + 1 : 0;
+    this.ring = new Bucket[buckets];
+    for (int i = 0; i < ring.length; i++) {
+      ring[i] = new Bucket(precision);
+    }
+
+    this.snapshotTimer =
+        Timer.builder("wikimedia.analytics.distinct.snapshot")
+            .description("Time to write the changed distinct-count sketches to MongoDB")
+            .register(meterRegistry);
+
+    long intervalMs = properties.getSnapshotInterval().toMillis();
+    if (enabled && intervalMs > 0) {
+      this.snapshotter =
+          Executors.newSingleThreadScheduledExecutor(
+              r -> {
+                Thread thread = new Thread(r, "distinct-sketch-snapshot");
+                thread.setDaemon(true);
+                return thread;
+              });
+      snapshotter.scheduleWithFixedDelay(
+          this::snapshot, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    } else {
+      this.snapshotter = null;
+    }
+  }
+
+  @Override
+  public void onPersisted(List<WikimediaEvent> events) {
+    if (!enabled) {
+      return;
+    }
+    for (WikimediaEvent event : events) {
+      if (event.getReceivedAt() != null) {
+        record(event);
+      }
+    }
+  }
+
+  private void record(WikimediaEvent event) {
+    long slot = slotOf(event.getReceivedAt());
+    Bucket bucket = ring[(int) Math.floorMod(slot, (long) ring.length)];
+    synchronized (bucket) {
+      if (bucket.slot < slot) {
+        bucket.reset(slot);
+      } else if (bucket.slot > slot) {
+        return;
+      }
+      addIfPresent(bucket.users, event.getUser());
+      addIfPresent(bucket.pages, event.getTitle());
+      addIfPresent(bucket.wikis, event.getWiki());
+      bucket.dirty = true;
+    }
+  }
+
+  private static void addIfPresent(HyperLogLog sketch, String value) {
+    if (value != null && !value.isEmpty()) {
+      sketch.add(value);
+    }
+  }
+
+  /** Estimated distinct users, pages and wikis since {@code since}, rounded down to a bucket. */
+  public Distinct count(Instant since) {
+    long sinceSlot = slotOf(since);
+    HyperLogLog users = new HyperLogLog(precision);
+    HyperLogLog pages = new HyperLogLog(precision);
+    HyperLogLog wikis = new HyperLogLog(precision);
+
+    for (Bucket bucket : ring) {
+      synchronized (bucket) {
+        if (bucket.slot >= sinceSlot) {
+          users.merge(bucket.users);
+          pages.merge(bucket.pages);
+          wikis.merge(bucket.wikis);
+        }
+      }
+    }
+
+    // folded one at a time, so memory does not grow with the window or the number of instances
+    Instant windowStart = slotStart(sinceSlot);
+    try (Stream<DistinctSketch> snapshots =
+        repository.streamByBucketStartGreaterThanEqual(windowStart)) {
+      snapshots.forEach(
+          snapshot -> {
+            HyperLogLog snapshotUsers = HyperLogLog.fromBytes(snapshot.getUsers());
+            if (snapshotUsers.precision() != precision) {
+              log.debug(
+                  "Skipping distinct-count snapshot {} of another precision", snapshot.getId());
+              return;
+            }
+            users.merge(snapshotUsers);
+            pages.merge(HyperLogLog.fromBytes(snapshot.getPages()));
+            wikis.merge(HyperLogLog.fromBytes(snapshot.getWikis()));
+          });
+    }
+
+    return new Distinct(
+        users.estimate(), pages.estimate(), wikis.estimate(), windowStart, users.relativeError());
+  }
+
+  /**
+   * Estimated distinct counts; each has a relative standard error of {@code relativeError}.
+   *
+   * @param since start of the bucket the window was rounded down to
+   */
+  public record Distinct(long users, long pages, long wikis, Instant since, double relativeError) {}
+
+  /** Writes the buckets that changed since the last snapshot. */
+  void snapshot() {
+    List<DistinctSketch> changed = new ArrayList<>();
+    List<Bucket> changedBuckets = new ArrayList<>();
+    for (Bucket bucket : ring) {
+      synchronized (bucket) {
+        if (bucket.dirty) {
+          changedBuckets.add(bucket);
+          changed.add(
+              new DistinctSketch(
+                  slotStart(bucket.slot),
+                  instance,
+                  bucket.users.toBytes(),
+                  bucket.pages.toBytes(),
+                  bucket.wikis.toBytes()));
+          bucket.dirty = false;
+        }
+      }
+    }
+    if (changed.isEmpty()) {
+      return;
+    }
+
+    try {
+      snapshotTimer.record(() -> repository.saveAll(changed));
+      log.debug("Wrote {} distinct-count snapshot(s)", changed.size());
+    } catch (Exception e) {
+      log.warn("Failed to write distinct-count snapshots: {}", e.getMessage());
+      for (int i = 0; i < changed.size(); i++) {
+        Bucket bucket = changedBuckets.get(i);
+        synchronized (bucket) {
+          // retry with the next snapshot unless the bucket has moved on to a newer slot
+          if (slotStart(bucket.slot).equals(changed.get(i).getBucketStart())) {
+            bucket.dirty = true;
+          }
+        }
+      }
+    }
+  }
+
+  private long slotOf(Instant instant) {
+    return Math.floorDiv(Math.floorDiv(instant.getEpochSecond(), 60L), bucketMinutes);
+  }
+
+  private Instant slotStart(long slot) {
+    return Instant.ofEpochSecond(slot * bucketMinutes * 60);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (snapshotter != null) {
+      snapshotter.shutdownNow();
+      snapshot();
+    }
+  }
+
+  private static final class Bucket {
+
+    long slot = Long.MIN_VALUE;
+    boolean dirty;
+    final HyperLogLog users;
+    final HyperLogLog pages;
+    final HyperLogLog wikis;
+
+    Bucket(int precision) {
+      users = new HyperLogLog(precision);
+      pages = new HyperLogLog(precision);
+      wikis = new HyperLogLog(precision);
+    }
+
+    void reset(long slot) {
+      this.slot = slot;
+      dirty = false;
+      users.clear();
+      pages.clear();
+      wikis.clear();
+    }
+  }
+}
@@ -0,0 +1,129 @@
+package app.js.service;
+
+import app.js.entity.WikimediaEvent;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Parses a raw recent-change event once on the persistence path and copies the dimensions the
+ * analytics group by into typed {@link WikimediaEvent} fields. Malformed events keep only their raw
+ * data, receive time and payload size.
+ *
+ * <p>Uses Jackson's streaming {@link JsonParser} rather than a {@code JsonNode} tree: only the
+ * top-level fields of interest and {@code meta.dt} are read, and nested objects such as {@code
+ * length}, {@code revision} and {@code log_params} are skipped without being materialized. The
+ * factory recycles the parser's token and character buffers per thread, so steady-state parsing
+ * allocates little beyond the extracted strings. Instances are thread-safe.
+ */
+public class EventFieldExtractor {
+
+  private final JsonFactory jsonFactory = new JsonFactory();
+
+  public WikimediaEvent toEvent(String eventData) {
+    WikimediaEvent event = new WikimediaEvent(eventData);
+    event.setPayloadSize(utf8Length(eventData));
+
+    try (JsonParser parser = jsonFactory.createParser(eventData)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return event;
+      }
+      String metaDt = null;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.currentName();
+        JsonToken value = parser.nextToken();
+        switch (field) {
+          case "wiki" -> event.setWiki(text(parser, value));
+          case "type" -> event.setType(text(parser, value));
+          case "user" -> event.setUser(text(parser, value));
+          case "title" -> event.setTitle(text(parser, value));
+          case "bot" -> {
+            if (value.isBoolean()) {
+              event.setBot(value == JsonToken.VALUE_TRUE);
+            }
+          }
+          case "namespace" -> {
+            if (value == JsonToken.VALUE_NUMBER_INT) {
+              event.setNamespace(parser.getIntValue());
+            }
+          }
+          case "timestamp" -> {
+            if (value == JsonToken.VALUE_NUMBER_INT) {
+              event.setEventTimestamp(Instant.ofEpochSecond(parser.getLongValue()));
+            }
+          }
+          case "meta" -> metaDt = value == JsonToken.START_OBJECT ? metaDt(parser) : null;
+          default -> parser.skipChildren();
+        }
+      }
+      if (event.getEventTimestamp() == null && metaDt != null) {
+        event.setEventTimestamp(parseInstant(metaDt));
+      }
+    } catch (IOException e) {
+      // truncated or invalid JSON: drop whatever was read before the error
+      event.setWiki(null);
+      event.setType(null);
+      event.setUser(null);
+      event.setTitle(null);
+      event.setBot(null);
+      event.setNamespace(null);
+      event.setEventTimestamp(null);
+    }
+    return event;
+  }
+
+  /**
+   * Reads {@code dt} from the {@code meta} object the parser is positioned on. It is only parsed
+   * when the event has no {@code timestamp}, which recent-change events normally do.
+   */
+  private static String metaDt(JsonParser parser) throws IOException {
+    String dt = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      JsonToken value = parser.nextToken();
+      if ("dt".equals(field) && value == JsonToken.VALUE_STRING) {
+        dt = parser.getText();
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return dt;
+  }
+
+  private static Instant parseInstant(String value) {
+    try {
+      return Instant.parse(value);
+    } catch (DateTimeParseException e) {
+      return null;
+    }
+  }
+
+  private static String text(JsonParser parser, JsonToken value) throws IOException {
+    if (value.isScalarValue() && value != JsonToken.VALUE_NULL) {
+      return parser.getText();
+    }
+    parser.skipChildren();
+    return null;
+  }
+
+  static int utf8Length(String value) {
+    int length = 0;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        length++;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c)) {
+        length += 4;
+        i++;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+}
@@ -0,0 +1,160 @@
+package app.js.service;
+
+import app.js.entity.WikimediaEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Latency of events through the pipeline, one {@code wikimedia.events.latency} timer per {@link
+ * Stage} with a percentile histogram for Prometheus and p50/p99/p999 for {@code
+ * /api/system/latency}.
+ *
+ * <p>The producer stamps each record with its send time in the {@value #SENT_AT_HEADER} header.
+ * Stages that compare it with this instance's clock include the clock offset between the hosts, and
+ * Wikimedia event times only have second precision. Events without the header, and events read back
+ * from the spill queue or the journal, are only recorded in the stages they have timestamps for.
+ */
+@Service
+public class EventLatencyRecorder {
+
+  public static final String SENT_AT_HEADER = "wikimedia-sent-at";
+
+  /** p50, p99 and p999, in ascending order. */
+  static final double[] PERCENTILES = {0.5, 0.99, 0.999};
+
+  public enum Stage {
+    /** Wikimedia event time to the producer's send. */
+    EVENT_TO_PRODUCE("event-to-produce"),
+    /** Producer send to the Kafka listener. */
+    PRODUCE_TO_CONSUME("produce-to-consume"),
+    /** Time in a stripe queue. */
+    CONSUME_TO_DEQUEUE("consume-to-dequeue"),
+    /** Batching and the MongoDB bulk insert, until it is acknowledged. */
+    DEQUEUE_TO_COMMIT("dequeue-to-commit"),
+    /** Producer send to the MongoDB commit, end to end. */
+    PRODUCE_TO_COMMIT("produce-to-commit");
+
+    private final String tag;
+
+    Stage(String tag) {
+      this.tag = tag;
+    }
+
+    public String tag() {
+      return tag;
+    }
+  }
+
+  private final Clock clock;
+  private final LongSupplier nanoTime;
+  private final Map<Stage, Timer> timers = new EnumMap<>(Stage.class);
+
+  @Autowired
+  public EventLatencyRecorder(MeterRegistry meterRegistry) {
+    this(meterRegistry, Clock.systemUTC(), System::nanoTime);
+  }
+
+  EventLatencyRecorder(MeterRegistry meterRegistry, Clock clock, LongSupplier nanoTime) {
+    this.clock = clock;
+    this.nanoTime = nanoTime;
+    for (Stage stage : Stage.values()) {
+      timers.put(
+          stage,
+          Timer.builder("wikimedia.events.latency")
+              .description("Latency of events through one stage of the pipeline")
+              .tag("stage", stage.tag())
+              .publishPercentileHistogram()
+              .publishPercentiles(PERCENTILES)
+              .minimumExpectedValue(Duration.ofMillis(1))
+              .maximumExpectedValue(Duration.ofMinutes(10))
+              .register(meterRegistry));
+    }
+  }
+
+  /**
+   * The event of a record received by a Kafka listener, stamped with its send and receipt times.
+   */
+  public IngestEvent consumed(ConsumerRecord<String, String> record) {
+    long sentAtMillis = sentAt(record);
+    if (sentAtMillis != IngestEvent.NO_TIMESTAMP) {
+      recordMillis(Stage.PRODUCE_TO_CONSUME, clock.millis() - sentAtMillis);
+    }
+    return new IngestEvent(
+        record.partition(),
+        record.value(),
+        IngestEvent.NO_SEQUENCE,
+        sentAtMillis,
+        nanoTime.getAsLong(),
+        IngestEvent.NO_TIMESTAMP);
+  }
+
+  /** {@code event} stamped as taken off its stripe queue now. */
+  IngestEvent dequeued(IngestEvent event) {
+    long now = nanoTime.getAsLong();
+    if (event.consumedAtNanos() != IngestEvent.NO_TIMESTAMP) {
+      recordNanos(Stage.CONSUME_TO_DEQUEUE, now - event.consumedAtNanos());
+    }
+    return event.dequeuedAt(now);
+  }
+
+  /** Records the events of a batch MongoDB acknowledged, with their extracted fields. */
+  void committed(List<IngestEvent> batch, List<WikimediaEvent> events) {
+    long nowNanos = nanoTime.getAsLong();
+    long nowMillis = clock.millis();
+    for (int i = 0; i < batch.size(); i++) {
+      IngestEvent event = batch.get(i);
+      if (event.dequeuedAtNanos() != IngestEvent.NO_TIMESTAMP) {
+        recordNanos(Stage.DEQUEUE_TO_COMMIT, nowNanos - event.dequeuedAtNanos());
+      }
+      if (event.sentAtMillis() != IngestEvent.NO_TIMESTAMP) {
+        recordMillis(Stage.PRODUCE_TO_COMMIT, nowMillis - event.sentAtMillis());
+        if (events.get(i).getEventTimestamp() != null) {
+          recordMillis(
+              Stage.EVENT_TO_PRODUCE,
+              event.sentAtMillis() - events.get(i).getEventTimestamp().toEpochMilli());
+        }
+      }
+    }
+  }
+
+  /** Count and percentiles of each stage over the last few minutes. */
+  public Map<Stage, HistogramSnapshot> snapshot() {
+    Map<Stage, HistogramSnapshot> snapshots = new EnumMap<>(Stage.class);
+    timers.forEach((stage, timer) -> snapshots.put(stage, timer.takeSnapshot()));
+    return snapshots;
+  }
+
+  private void recordMillis(Stage stage, long millis) {
+    // a producer clock ahead of ours would make the latency negative
+    timers.get(stage).record(Math.max(0, millis), TimeUnit.MILLISECONDS);
+  }
+
+  private void recordNanos(Stage stage, long nanos) {
+    timers.get(stage).record(Math.max(0, nanos), TimeUnit.NANOSECONDS);
+  }
+
+  private static long sentAt(ConsumerRecord<String, String> record) {
+    Header header = record.headers().lastHeader(SENT_AT_HEADER);
+    if (header == null || header.value() == null) {
+      return IngestEvent.NO_TIMESTAMP;
+    }
+    try {
+      return Long.parseLong(new String(header.value(), StandardCharsets.UTF_8));
+    } catch (NumberFormatException e) {
+      return IngestEvent.NO_TIMESTAMP;
+    }
+  }
+}
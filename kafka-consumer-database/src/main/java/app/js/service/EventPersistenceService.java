@@ -1,22 +1,32 @@
 package app.js.service;
 
+import app.js.config.PersistenceProperties;
 import app.js.entity.FailedEvent;
 import app.js.entity.WikimediaEvent;
 import app.js.repository.FailedEventRepository;
-import app.js.repository.WikimediaEventRepository;
+import com.mongodb.bulk.BulkWriteError;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jakarta.annotation.PreDestroy;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Service;
 
@@ -25,37 +35,41 @@ public class EventPersistenceService {
 
   private static final Logger log = LoggerFactory.getLogger(EventPersistenceService.class);
 
-  private final WikimediaEventRepository eventRepository;
+  private final MongoTemplate mongoTemplate;
+  private final EventFieldExtractor fieldExtractor = new EventFieldExtractor();
+  private final List<PersistedEventsListener> listeners;
+  private final EventLatencyRecorder latencyRecorder;
   private final FailedEventRepository failedEventRepository;
   private final KafkaTemplate<String, String> kafkaTemplate;
   private final String dlqTopic;
-  private final BlockingQueue<String> eventQueue;
-  private final Thread batchWorker;
+  private final PersistenceStripe[] stripes;
   private final AtomicBoolean running = new AtomicBoolean(true);
 
-  private final int batchSize;
-  private final long flushIntervalMs;
+  private final WriteAheadJournal journal;
+  private final ExecutorService flushExecutor;
+  private final Semaphore inFlightPermits;
+  private final AtomicInteger inFlightBatches = new AtomicInteger();
 
   private final Counter eventsPersistedCounter;
   private final Counter eventsDlqCounter;
+  private final Timer batchWriteTimer;
 
   public EventPersistenceService(
-      WikimediaEventRepository eventRepository,
+      MongoTemplate mongoTemplate,
       FailedEventRepository failedEventRepository,
       KafkaTemplate<String, String> kafkaTemplate,
       MeterRegistry meterRegistry,
       @Value("${app.kafka.dlq-topic}") String dlqTopic,
-      @Value("${app.persistence.queue-capacity:10000}") int queueCapacity,
-      @Value("${app.persistence.batch-size:100}") int batchSize,
-      @Value("${app.persistence.flush-interval-ms:1000}") long flushIntervalMs) {
+      PersistenceProperties properties,
+      EventLatencyRecorder latencyRecorder,
+      List<PersistedEventsListener> listeners) {
 
-    this.eventRepository = eventRepository;
+    this.mongoTemplate = mongoTemplate;
+    this.listeners = listeners;
+    this.latencyRecorder = latencyRecorder;
     this.failedEventRepository = failedEventRepository;
     this.kafkaTemplate = kafkaTemplate;
     this.dlqTopic = dlqTopic;
-    this.eventQueue = new LinkedBlockingQueue<>(queueCapacity);
-    this.batchSize = batchSize;
-    this.flushIntervalMs = flushIntervalMs;
 
     this.eventsPersistedCounter =
         Counter.builder("wikimedia.events.persisted")
@@ -67,100 +81,317 @@ public class EventPersistenceService {
             .description("Total number of events sent to DLQ")
             .register(meterRegistry);
 
-    Gauge.builder("wikimedia.events.queue.size", eventQueue, BlockingQueue::size)
+    this.batchWriteTimer =
+        Timer.builder("wikimedia.persistence.batch.write")
+            .description("Time to write one batch to MongoDB")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+
+    int maxInFlight = Math.max(1, properties.getMaxInFlightBatches());
+    if (maxInFlight > 1) {
+      this.flushExecutor =
+          Executors.newThreadPerTaskExecutor(
+              Thread.ofVirtual().name("event-persistence-flush-", 0).factory());
+      this.inFlightPermits = new Semaphore(maxInFlight);
+    } else {
+      this.flushExecutor = null;
+      this.inFlightPermits = null;
+    }
+
+    Gauge.builder("wikimedia.persistence.batches.in-flight", inFlightBatches, AtomicInteger::get)
+        .description("Number of batch writes to MongoDB currently in flight")
+        .register(meterRegistry);
+
+    PersistenceProperties.Journal journalProperties = properties.getJournal();
+    if (journalProperties.isEnabled()) {
+      this.journal =
+          new WriteAheadJournal(
+              Path.of(journalProperties.getDirectory()),
+              journalProperties.getSegmentSize().toBytes(),
+              meterRegistry);
+      journal.replay(
+          properties.getBatchSize(),
+          batch -> flushBatch(batch.stream().map(IngestEvent::of).toList()));
+    } else {
+      this.journal = null;
+    }
+
+    int stripeCount = Math.max(1, properties.getStripes());
+    int stripeCapacity = Math.max(1, properties.getQueueCapacity() / stripeCount);
+    this.stripes = new PersistenceStripe[stripeCount];
+    for (int i = 0; i < stripeCount; i++) {
+      stripes[i] =
+          new PersistenceStripe(
+              i,
+              stripeCapacity,
+              properties,
+              running::get,
+              this::dispatchBatch,
+              journal,
+              latencyRecorder,
+              meterRegistry);
+    }
+
+    Gauge.builder("wikimedia.events.queue.size", this, EventPersistenceService::getQueueSize)
         .description("Current size of the event queue")
         .register(meterRegistry);
 
-    this.batchWorker = new Thread(this::processBatches, "event-persistence-worker");
-    this.batchWorker.setDaemon(false);
-    this.batchWorker.start();
+    for (PersistenceStripe stripe : stripes) {
+      stripe.start();
+    }
 
     log.info(
-        "EventPersistenceService started with queue capacity: {}, batch size: {}, flush interval: {}ms",
-        queueCapacity,
-        batchSize,
-        flushIntervalMs);
+        "EventPersistenceService started with {} stripe(s), {} queue capacity: {} per stripe, batch size: {}, flush interval: {}ms, adaptive: {}, max in-flight batches: {}, journal: {}",
+        stripeCount,
+        properties.getQueueType(),
+        stripeCapacity,
+        properties.getBatchSize(),
+        properties.getFlushIntervalMs(),
+        properties.getAdaptive().isEnabled(),
+        maxInFlight,
+        journal != null);
   }
 
+  /**
+   * Submits an event without a Kafka partition; such events are all routed to the first stripe.
+   * With the journal enabled this waits for the journal fsync.
+   */
   public boolean submit(String eventData) {
-    return eventQueue.offer(eventData);
+    IngestEvent event = journaled(IngestEvent.of(eventData));
+    return event != null && released(event, stripeFor(event.partition()).offer(event));
   }
 
-  private void processBatches() {
-    List<String> batch = new ArrayList<>(batchSize);
-    long lastFlushTime = System.currentTimeMillis();
-
-    while (running.get() || !eventQueue.isEmpty()) {
-      try {
-        String event = eventQueue.poll(100, TimeUnit.MILLISECONDS);
-
-        if (event != null) {
-          batch.add(event);
-        }
+  /**
+   * Submits an event, waiting up to {@code maxWait} for space in its stripe's queue. Used by the
+   * Kafka listeners so that a full queue slows the listener down instead of dropping the event.
+   * With the journal enabled the event is durable on disk once this returns {@code true}.
+   *
+   * @return {@code true} if the event was accepted, {@code false} if the queue stayed full
+   */
+  public boolean submit(IngestEvent event, Duration maxWait) {
+    IngestEvent journaled = journaled(event);
+    return journaled != null
+        && released(journaled, stripeFor(journaled.partition()).offer(journaled, maxWait));
+  }
 
-        long now = System.currentTimeMillis();
-        boolean shouldFlush =
-            batch.size() >= batchSize
-                || (now - lastFlushTime >= flushIntervalMs && !batch.isEmpty());
+  /**
+   * Submits all events of one Kafka poll in a single call. Events are offered in order, each
+   * waiting up to {@code maxWait} for queue space, and submission stops at the first rejected
+   * event, so accepted events are always a prefix of the input. With the journal enabled the whole
+   * poll is made durable with a single group commit first.
+   *
+   * @return the number of events accepted into the queue
+   */
+  public int submitAll(List<IngestEvent> events, Duration maxWait) {
+    List<IngestEvent> journaled = journal == null ? events : journal.appendAll(events);
+    if (journaled == null) {
+      return 0;
+    }
 
-        if (shouldFlush) {
-          flushBatch(batch);
-          batch.clear();
-          lastFlushTime = now;
-        }
-      } catch (InterruptedException e) {
-        Thread.currentThread().interrupt();
+    int accepted = 0;
+    for (IngestEvent event : journaled) {
+      if (!stripeFor(event.partition()).offer(event, maxWait)) {
         break;
       }
+      accepted++;
+    }
+    if (journal != null && accepted < journaled.size()) {
+      journal.release(journaled.subList(accepted, journaled.size()));
     }
+    return accepted;
+  }
 
-    if (!batch.isEmpty()) {
-      flushBatch(batch);
+  private IngestEvent journaled(IngestEvent event) {
+    return journal == null ? event : journal.append(event);
+  }
+
+  /** Releases the journal record of an event its queue did not accept; Kafka redelivers it. */
+  private boolean released(IngestEvent event, boolean accepted) {
+    if (!accepted && journal != null) {
+      journal.release(List.of(event));
     }
+    return accepted;
+  }
 
-    log.info("Event persistence worker stopped");
+  private PersistenceStripe stripeFor(int partition) {
+    return partition < 0 ? stripes[0] : stripes[partition % stripes.length];
   }
 
-  private void flushBatch(List<String> batch) {
-    if (batch.isEmpty()) return;
+  /**
+   * Hands a batch from a stripe worker to MongoDB. With {@code max-in-flight-batches} of 1 the
+   * batch is written on the worker thread. Otherwise it is written on a virtual thread and the
+   * worker goes on assembling the next batch; the worker only blocks once that many batches are in
+   * flight across all stripes.
+   *
+   * <p>Ordering and offset safety with pipelining:
+   *
+   * <ul>
+   *   <li>Batches of one stripe, and so of one Kafka partition, may be written concurrently and
+   *       complete out of order. Readers must order by {@code receivedAt}, not insertion order.
+   *   <li>Kafka offsets are committed once an event is queued, not once it is written, in every
+   *       mode. Pipelining only widens the window of committed-but-unwritten events, by up to
+   *       {@code max-in-flight-batches} batches, that a crash would lose.
+   *   <li>Shutdown waits for in-flight writes after the stripe workers have drained.
+   * </ul>
+   */
+  private void dispatchBatch(List<IngestEvent> batch, LongConsumer onWritten) {
+    if (flushExecutor == null) {
+      onWritten.accept(writeBatch(batch));
+      return;
+    }
 
     try {
-      List<WikimediaEvent> events = batch.stream().map(WikimediaEvent::new).toList();
+      inFlightPermits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      onWritten.accept(writeBatch(batch));
+      return;
+    }
+
+    inFlightBatches.incrementAndGet();
+    flushExecutor.execute(
+        () -> {
+          try {
+            onWritten.accept(writeBatch(batch));
+          } finally {
+            inFlightBatches.decrementAndGet();
+            inFlightPermits.release();
+          }
+        });
+  }
+
+  private long writeBatch(List<IngestEvent> batch) {
+    long start = System.nanoTime();
+    flushBatch(batch);
+    return System.nanoTime() - start;
+  }
+
+  /**
+   * Writes a batch as one unordered bulk insert. Documents the server rejects are routed to the DLQ
+   * individually while the rest of the batch is still inserted; only a failure of the bulk write as
+   * a whole (e.g. a lost connection) sends the entire batch to the DLQ.
+   */
+  private void flushBatch(List<IngestEvent> batch) {
+    if (batch.isEmpty()) return;
 
-      eventRepository.saveAll(events);
+    List<WikimediaEvent> events =
+        batch.stream().map(event -> fieldExtractor.toEvent(event.payload())).toList();
+    try {
+      batchWriteTimer.record(
+          () ->
+              mongoTemplate
+                  .bulkOps(BulkMode.UNORDERED, WikimediaEvent.class)
+                  .insert(events)
+                  .execute());
       eventsPersistedCounter.increment(batch.size());
+      latencyRecorder.committed(batch, events);
+      notifyPersisted(events);
       log.debug("Flushed batch of {} events to MongoDB", batch.size());
+    } catch (BulkOperationException e) {
+      List<BulkWriteError> errors = e.getErrors();
+      boolean[] rejected = new boolean[batch.size()];
+      errors.forEach(error -> rejected[error.getIndex()] = true);
+      eventsPersistedCounter.increment(e.getResult().getInsertedCount());
+      latencyRecorder.committed(inserted(batch, rejected), inserted(events, rejected));
+      notifyPersisted(inserted(events, rejected));
+      log.error(
+          "MongoDB rejected {} of {} events in batch: {}",
+          errors.size(),
+          batch.size(),
+          e.getMessage());
+      errors.forEach(
+          error ->
+              sendToDlq(
+                  batch.get(error.getIndex()).payload(),
+                  "E" + error.getCode() + " " + error.getMessage(),
+                  BulkWriteError.class.getSimpleName()));
+      log.info("Sent {} rejected events to Kafka DLQ topic: {}", errors.size(), dlqTopic);
     } catch (Exception e) {
       log.error("Failed to persist batch of {} events: {}", batch.size(), e.getMessage());
       batch.forEach(
-          eventData -> {
-            kafkaTemplate.send(dlqTopic, eventData);
-            eventsDlqCounter.increment();
-            try {
-              failedEventRepository.save(
-                  new FailedEvent(eventData, e.getMessage(), e.getClass().getSimpleName()));
-            } catch (Exception ex) {
-              log.error("Failed to save to MongoDB DLQ: {}", ex.getMessage());
-            }
-          });
+          event -> sendToDlq(event.payload(), e.getMessage(), e.getClass().getSimpleName()));
       log.info("Sent {} failed events to Kafka DLQ topic: {}", batch.size(), dlqTopic);
     }
   }
 
+  private void notifyPersisted(List<WikimediaEvent> events) {
+    for (PersistedEventsListener listener : listeners) {
+      listener.onPersisted(events);
+    }
+  }
+
+  /** The items of a batch that the server did not reject. */
+  private static <T> List<T> inserted(List<T> items, boolean[] rejected) {
+    List<T> inserted = new ArrayList<>(items.size());
+    for (int i = 0; i < items.size(); i++) {
+      if (!rejected[i]) {
+        inserted.add(items.get(i));
+      }
+    }
+    return inserted;
+  }
+
+  private void sendToDlq(String eventData, String errorMessage, String errorType) {
+    kafkaTemplate.send(dlqTopic, eventData);
+    eventsDlqCounter.increment();
+    try {
+      failedEventRepository.save(new FailedEvent(eventData, errorMessage, errorType));
+    } catch (Exception ex) {
+      log.error("Failed to save to MongoDB DLQ: {}", ex.getMessage());
+    }
+  }
+
   @PreDestroy
   public void shutdown() {
-    log.info("Shutting down EventPersistenceService, queue size: {}", eventQueue.size());
+    log.info("Shutting down EventPersistenceService, queue size: {}", getQueueSize());
     running.set(false);
 
+    long deadline = System.currentTimeMillis() + 30000;
     try {
-      batchWorker.join(30000);
+      for (PersistenceStripe stripe : stripes) {
+        stripe.join(Math.max(1, deadline - System.currentTimeMillis()));
+      }
+      if (flushExecutor != null) {
+        flushExecutor.shutdown();
+        flushExecutor.awaitTermination(
+            Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+      }
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
-      log.warn("Interrupted while waiting for batch worker to finish");
+      log.warn("Interrupted while waiting for batch workers to finish");
+    }
+
+    if (journal != null) {
+      journal.close();
     }
   }
 
   public int getQueueSize() {
-    return eventQueue.size();
+    int size = 0;
+    for (PersistenceStripe stripe : stripes) {
+      size += stripe.size();
+    }
+    return size;
+  }
+
+  public int getQueueCapacity() {
+    int capacity = 0;
+    for (PersistenceStripe stripe : stripes) {
+      capacity += stripe.capacity();
+    }
+    return capacity;
+  }
+
+  /** Size of the fullest stripe queue, which is what limits how much more can be accepted. */
+  public int getMaxStripeQueueSize() {
+    int max = 0;
+    for (PersistenceStripe stripe : stripes) {
+      max = Math.max(max, stripe.size());
+    }
+    return max;
+  }
+
+  public int getStripeQueueCapacity() {
+    return stripes[0].capacity();
   }
 }
@@ -0,0 +1,90 @@
+package app.js.service;
+
+import app.js.entity.WikimediaEvent;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Events written by this instance over the last hour, in per-second slots, so that the status
+ * endpoints can report counts and rates for any window up to an hour without querying MongoDB.
+ *
+ * <p>Each slot of the ring holds the running total of written events at the end of its second; the
+ * count of a window is the current total minus the slot the window starts at, so any window costs
+ * the same. Counts are per instance and start from zero at startup: they describe the throughput of
+ * this instance's write path, not what all instances wrote to the collection.
+ */
+@Service
+public class EventRateCounter implements PersistedEventsListener {
+
+  /** The longest window that can be asked for. */
+  static final Duration MAX_WINDOW = Duration.ofHours(1);
+
+  private static final int SLOTS = (int) MAX_WINDOW.toSeconds() + 1;
+
+  private final Clock clock;
+  private final long[] totals = new long[SLOTS];
+  private long headSecond;
+  private long total;
+
+  @Autowired
+  public EventRateCounter() {
+    this(Clock.systemUTC());
+  }
+
+  EventRateCounter(Clock clock) {
+    this.clock = clock;
+    this.headSecond = currentSecond();
+  }
+
+  @Override
+  public void onPersisted(List<WikimediaEvent> events) {
+    if (events.isEmpty()) {
+      return;
+    }
+    synchronized (this) {
+      advance(currentSecond());
+      total += events.size();
+      totals[slot(headSecond)] = total;
+    }
+  }
+
+  /**
+   * Events written in the last {@code window}, including the current second.
+   *
+   * @throws IllegalArgumentException if the window is longer than an hour
+   */
+  public synchronized long count(Duration window) {
+    long seconds = window.toSeconds();
+    if (seconds < 0 || seconds > MAX_WINDOW.toSeconds()) {
+      throw new IllegalArgumentException("Window must be between 0 and 1h: " + window);
+    }
+    advance(currentSecond());
+    return total - totals[slot(headSecond - seconds)];
+  }
+
+  /** Average events per second written over the last {@code window}. */
+  public double ratePerSecond(Duration window) {
+    long seconds = window.toSeconds();
+    return seconds == 0 ? 0 : count(window) / (double) seconds;
+  }
+
+  /** Moves the head to {@code second}, carrying the running total into the seconds skipped. */
+  private void advance(long second) {
+    long skipped = Math.min(second - headSecond, SLOTS);
+    for (long i = skipped - 1; i >= 0; i--) {
+      totals[slot(second - i)] = total;
+    }
+    headSecond = Math.max(headSecond, second);
+  }
+
+  private long currentSecond() {
+    return Math.floorDiv(clock.millis(), 1000);
+  }
+
+  private static int slot(long second) {
+    return (int) Math.floorMod(second, SLOTS);
+  }
+}
@@ -0,0 +1,423 @@
+package app.js.service;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.group;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.match;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.newAggregation;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.project;
+
+import app.js.config.AnalyticsProperties;
+import app.js.entity.HourlyRollup;
+import app.js.entity.RollupCheckpoint;
+import app.js.entity.WikimediaEvent;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.aggregation.DateOperators;
+import org.springframework.data.mongodb.core.aggregation.ProjectionOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+/**
+ * Event counts per hour and dimension in {@code wikimedia_rollups_hourly}, maintained by a
+ * background job. Each pass folds the completed hours after the persisted checkpoint, once they are
+ * {@code settle-delay} old, and then moves the checkpoint to the end of the last hour folded.
+ *
+ * <p>An hour is always recomputed as a whole: its rows are overwritten and, once they are written,
+ * the rows of keys the hour no longer has are removed. So a pass that fails before the checkpoint
+ * is written, several instances running the job at once or an hour folded again after its events
+ * changed repeat work but never count an event twice.
+ *
+ * <p>As a {@link PersistedEventsListener} it also has the hours folded again that a write reached
+ * too late for: {@code receivedAt} is stamped before the bulk insert, so a write stalled past the
+ * settle delay lands in an hour the checkpoint may already have passed.
+ */
+@Service
+public class HourlyRollupService implements PersistedEventsListener {
+
+  /** Dimensions rolled up, named after the event fields they count. */
+  static final List<String> DIMENSIONS = List.of("wiki", "type", "bot", "namespace");
+
+  /** Dimension with the total event count per hour, under the single key {@value #ALL}. */
+  static final String TOTAL = "total";
+
+  static final String ALL = "all";
+
+  private static final List<String> ROLLED_UP =
+      Stream.concat(DIMENSIONS.stream(), Stream.of(TOTAL)).toList();
+
+  /**
+   * Keys counted for events without a value of these dimensions: a missing bot flag is a human edit
+   * and a missing namespace is the main namespace. Events without a wiki or type are left out of
+   * those dimensions.
+   */
+  static final Map<String, Object> DEFAULT_KEYS = Map.of("bot", false, "namespace", 0);
+
+  private static final Logger log = LoggerFactory.getLogger(HourlyRollupService.class);
+
+  private static final String EVENTS = "wikimedia_events";
+  private static final String CHECKPOINT_ID = "hourly";
+
+  private static final int WRITE_BATCH_SIZE = 1000;
+
+  private static final AggregationOptions CURSOR_OPTIONS =
+      AggregationOptions.builder().allowDiskUse(true).cursorBatchSize(WRITE_BATCH_SIZE).build();
+
+  private final MongoTemplate mongoTemplate;
+  private final Clock clock;
+  private final Duration settleDelay;
+  private final int maxHoursPerRun;
+  private final boolean enabled;
+  private final AtomicReference<Instant> lastCheckpoint = new AtomicReference<>();
+  private final AtomicReference<Instant> refoldFrom = new AtomicReference<>();
+  private final ScheduledExecutorService scheduler;
+  private final Timer runTimer;
+
+  @Autowired
+  public HourlyRollupService(
+      MongoTemplate mongoTemplate, AnalyticsProperties properties, MeterRegistry meterRegistry) {
+    this(mongoTemplate, properties.getHourlyRollup(), meterRegistry, Clock.systemUTC());
+  }
+
+  HourlyRollupService(
+      MongoTemplate mongoTemplate,
+      AnalyticsProperties.HourlyRollup properties,
+      MeterRegistry meterRegistry,
+      Clock clock) {
+    this.mongoTemplate = mongoTemplate;
+    this.clock = clock;
+    this.settleDelay = properties.getSettleDelay();
+    this.maxHoursPerRun = Math.max(1, properties.getMaxHoursPerRun());
+    this.enabled = properties.isEnabled();
+
+    this.runTimer =
+        Timer.builder("wikimedia.analytics.hourly-rollup.run")
+            .description("Time of a pass of the hourly rollup job")
+            .register(meterRegistry);
+    Gauge.builder("wikimedia.analytics.hourly-rollup.lag", this, HourlyRollupService::lagSeconds)
+        .description("Seconds between now and the end of the last hour rolled up")
+        .baseUnit("seconds")
+        .register(meterRegistry);
+
+    long intervalMs = properties.getInterval().toMillis();
+    if (properties.isEnabled() && intervalMs > 0) {
+      this.scheduler =
+          Executors.newSingleThreadScheduledExecutor(
+              r -> {
+                Thread thread = new Thread(r, "hourly-rollup");
+                thread.setDaemon(true);
+                return thread;
+              });
+      scheduler.scheduleWithFixedDelay(this::catchUp, 0, intervalMs, TimeUnit.MILLISECONDS);
+    } else {
+      this.scheduler = null;
+    }
+  }
+
+  /**
+   * End of the last hour rolled up; every event received before it is in the rollups. Kept in
+   * memory by the job, which reads the persisted checkpoint at the start of each pass, so that
+   * progress made by other instances shows within an {@code interval}. {@code null} until the first
+   * pass, and always when the job is disabled on this instance.
+   */
+  public Instant checkpoint() {
+    return lastCheckpoint.get();
+  }
+
+  /**
+   * Has the next pass move the checkpoint back to the hour of {@code receivedAt}, if it is past it,
+   * and fold the hours from there again. Used when events already rolled up have been changed or
+   * were written late. When the job does not run on this instance the checkpoint is moved back
+   * right away, for the instances that do run it.
+   */
+  public void refold(Instant receivedAt) {
+    Instant hour = receivedAt.truncatedTo(ChronoUnit.HOURS);
+    if (enabled) {
+      refoldFrom.accumulateAndGet(hour, (a, b) -> a == null || b.isBefore(a) ? b : a);
+    } else {
+      rewind(hour, clock.instant());
+    }
+  }
+
+  /**
+   * Folds the hour of the oldest event again if it was written after that hour had settled, as the
+   * checkpoint may have passed it without counting the event.
+   */
+  @Override
+  public void onPersisted(List<WikimediaEvent> events) {
+    Instant oldest = null;
+    for (WikimediaEvent event : events) {
+      Instant receivedAt = event.getReceivedAt();
+      if (receivedAt != null && (oldest == null || receivedAt.isBefore(oldest))) {
+        oldest = receivedAt;
+      }
+    }
+    if (oldest == null) {
+      return;
+    }
+    Instant settledAt =
+        oldest.truncatedTo(ChronoUnit.HOURS).plus(1, ChronoUnit.HOURS).plus(settleDelay);
+    if (!clock.instant().isBefore(settledAt)) {
+      refold(oldest);
+    }
+  }
+
+  /** Counts per key of a dimension over the hours in {@code [from, to)}, summed in MongoDB. */
+  public Map<String, Long> sumByKey(String dimension, Instant from, Instant to) {
+    Aggregation aggregation =
+        newAggregation(
+            match(Criteria.where("dimension").is(dimension).and("hour").gte(from).lt(to)),
+            group("key").sum("count").as("count"));
+
+    Map<String, Long> counts = new LinkedHashMap<>();
+    for (Document row : mongoTemplate.aggregate(aggregation, HourlyRollup.class, Document.class)) {
+      counts.put(row.get("_id").toString(), ((Number) row.get("count")).longValue());
+    }
+    return counts;
+  }
+
+  /** Total event count of each hour in {@code [from, to)}, in time order. */
+  public Map<Instant, Long> totalsByHour(Instant from, Instant to) {
+    Query query =
+        Query.query(Criteria.where("dimension").is(TOTAL).and("hour").gte(from).lt(to))
+            .with(Sort.by("hour"));
+
+    Map<Instant, Long> totals = new LinkedHashMap<>();
+    for (HourlyRollup rollup : mongoTemplate.find(query, HourlyRollup.class)) {
+      totals.put(rollup.getHour(), rollup.getCount());
+    }
+    return totals;
+  }
+
+  private void catchUp() {
+    try {
+      while (rollUp() > 0) {
+        // keep folding until the settled hours are caught up
+      }
+    } catch (Exception e) {
+      log.warn("Hourly rollup failed, retrying with the next pass: {}", e.getMessage());
+    }
+  }
+
+  /**
+   * Folds up to {@code max-hours-per-run} settled hours after the checkpoint.
+   *
+   * @return number of hours folded, 0 when caught up
+   */
+  int rollUp() {
+    Instant now = clock.instant();
+    Instant settled = now.minus(settleDelay).truncatedTo(ChronoUnit.HOURS);
+
+    // applied on the job's thread, so that a pass in progress cannot move the checkpoint past it
+    Instant rewindTo = refoldFrom.getAndSet(null);
+    if (rewindTo != null) {
+      try {
+        rewind(rewindTo, now);
+      } catch (RuntimeException e) {
+        refold(rewindTo);
+        throw e;
+      }
+    }
+
+    Instant from = loadCheckpoint();
+    if (from == null) {
+      from = oldestEventHour();
+      if (from == null) {
+        return 0;
+      }
+    }
+    Instant to = from.plus(maxHoursPerRun, ChronoUnit.HOURS);
+    if (to.isAfter(settled)) {
+      to = settled;
+    }
+    if (!from.isBefore(to)) {
+      return 0;
+    }
+
+    Instant start = from;
+    Instant end = to;
+    runTimer.record(() -> fold(start, end, now));
+
+    int hours = (int) Duration.between(from, to).toHours();
+    log.debug("Rolled up {} hour(s) from {} to {}", hours, from, to);
+    return hours;
+  }
+
+  private void fold(Instant from, Instant to, Instant now) {
+    try (RowWriter writer = new RowWriter(now)) {
+      for (String dimension : DIMENSIONS) {
+        Criteria range = Criteria.where("receivedAt").gte(from).lt(to);
+        ProjectionOperation projection =
+            project().and(DateOperators.dateOf("receivedAt").truncate("hour")).as("hour");
+        Object defaultKey = DEFAULT_KEYS.get(dimension);
+        if (defaultKey != null) {
+          projection =
+              projection.and(ConditionalOperators.ifNull(dimension).then(defaultKey)).as("key");
+        } else {
+          range = range.and(dimension).nin(null, "");
+          projection = projection.and(dimension).as("key");
+        }
+        Aggregation aggregation =
+            newAggregation(match(range), projection, group("hour", "key").count().as("count"));
+        forEachRow(
+            aggregation,
+            row -> {
+              Document id = row.get("_id", Document.class);
+              writer.write(
+                  new HourlyRollup(
+                      id.getDate("hour").toInstant(),
+                      dimension,
+                      String.valueOf(id.get("key")),
+                      count(row)));
+            });
+      }
+
+      Aggregation totals =
+          newAggregation(
+              match(Criteria.where("receivedAt").gte(from).lt(to)),
+              project().and(DateOperators.dateOf("receivedAt").truncate("hour")).as("hour"),
+              group("hour").count().as("count"));
+      forEachRow(
+          totals,
+          row ->
+              writer.write(
+                  new HourlyRollup(row.getDate("_id").toInstant(), TOTAL, ALL, count(row))));
+    }
+
+    // rows of these hours the pass did not write are keys that no longer occur in them
+    mongoTemplate.remove(
+        Query.query(
+            Criteria.where("dimension")
+                .in(ROLLED_UP)
+                .and("hour")
+                .gte(from)
+                .lt(to)
+                .and("foldedAt")
+                .ne(now)),
+        HourlyRollup.class);
+
+    // $max keeps the checkpoint from moving back when instances race
+    mongoTemplate.upsert(
+        Query.query(Criteria.where("_id").is(CHECKPOINT_ID)),
+        new Update().max("lastReceivedAt", to).set("updatedAt", now),
+        RollupCheckpoint.class);
+    lastCheckpoint.set(to);
+  }
+
+  private void rewind(Instant hour, Instant now) {
+    mongoTemplate.updateFirst(
+        Query.query(Criteria.where("_id").is(CHECKPOINT_ID)),
+        new Update().min("lastReceivedAt", hour).set("updatedAt", now),
+        RollupCheckpoint.class);
+  }
+
+  private Instant loadCheckpoint() {
+    RollupCheckpoint checkpoint = mongoTemplate.findById(CHECKPOINT_ID, RollupCheckpoint.class);
+    Instant lastReceivedAt = checkpoint != null ? checkpoint.getLastReceivedAt() : null;
+    lastCheckpoint.set(lastReceivedAt);
+    return lastReceivedAt;
+  }
+
+  private Instant oldestEventHour() {
+    Query query = new Query().with(Sort.by("receivedAt")).limit(1);
+    query.fields().include("receivedAt");
+    WikimediaEvent oldest = mongoTemplate.findOne(query, WikimediaEvent.class);
+    if (oldest == null || oldest.getReceivedAt() == null) {
+      return null;
+    }
+    return oldest.getReceivedAt().truncatedTo(ChronoUnit.HOURS);
+  }
+
+  private void forEachRow(Aggregation aggregation, Consumer<Document> action) {
+    try (Stream<Document> rows =
+        mongoTemplate.aggregateStream(
+            aggregation.withOptions(CURSOR_OPTIONS), EVENTS, Document.class)) {
+      rows.forEach(action);
+    }
+  }
+
+  /**
+   * Upserts rows as they come off the cursors, executing a bulk write every {@value
+   * #WRITE_BATCH_SIZE} rows so that catching up on many hours does not hold them all in memory.
+   * Each row is stamped with the start of the pass, which tells the rows it wrote from stale ones.
+   */
+  private final class RowWriter implements AutoCloseable {
+
+    private final Instant foldedAt;
+    private BulkOperations bulk;
+    private int pending;
+
+    RowWriter(Instant foldedAt) {
+      this.foldedAt = foldedAt;
+    }
+
+    void write(HourlyRollup row) {
+      if (bulk == null) {
+        bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, HourlyRollup.class);
+      }
+      bulk.upsert(
+          Query.query(Criteria.where("_id").is(row.getId())),
+          Update.update("hour", row.getHour())
+              .set("dimension", row.getDimension())
+              .set("key", row.getKey())
+              .set("count", row.getCount())
+              .set("foldedAt", foldedAt));
+      if (++pending == WRITE_BATCH_SIZE) {
+        close();
+      }
+    }
+
+    /** Writes the rows still pending. */
+    @Override
+    public void close() {
+      if (pending > 0) {
+        bulk.execute();
+        bulk = null;
+        pending = 0;
+      }
+    }
+  }
+
+  private static long count(Document row) {
+    return ((Number) row.get("count")).longValue();
+  }
+
+  private double lagSeconds() {
+    Instant checkpoint = lastCheckpoint.get();
+    return checkpoint == null
+        ? Double.NaN
+        : Duration.between(checkpoint, clock.instant()).toMillis() / 1000.0;
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+}
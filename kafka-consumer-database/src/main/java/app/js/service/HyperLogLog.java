@@ -0,0 +1,121 @@
+package app.js.service;
+
+import java.util.Arrays;
+
+/**
+ * HyperLogLog distinct-count sketch (Flajolet et al.) with {@code 2^precision} one-byte registers,
+ * so 4 KB at the default precision of 12 regardless of the number of distinct values. The standard
+ * error of {@link #estimate()} is {@code 1.04 / sqrt(2^precision)}, about 1.6% at precision 12.
+ * Sketches of the same precision merge losslessly by taking the register-wise maximum, which makes
+ * the union of time buckets, and of instances, exact with respect to the sketch. Not thread-safe.
+ */
+final class HyperLogLog {
+
+  static final int MIN_PRECISION = 4;
+  static final int MAX_PRECISION = 16;
+
+  private final int precision;
+  private final byte[] registers;
+
+  HyperLogLog(int precision) {
+    if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+      throw new IllegalArgumentException(
+          "precision must be between " + MIN_PRECISION + " and " + MAX_PRECISION);
+    }
+    this.precision = precision;
+    this.registers = new byte[1 << precision];
+  }
+
+  /** Restores a sketch from {@link #toBytes()}; the precision follows from the length. */
+  static HyperLogLog fromBytes(byte[] bytes) {
+    int precision = Integer.numberOfTrailingZeros(bytes.length);
+    if (bytes.length != 1 << precision) {
+      throw new IllegalArgumentException("register count must be a power of two");
+    }
+    HyperLogLog sketch = new HyperLogLog(precision);
+    System.arraycopy(bytes, 0, sketch.registers, 0, bytes.length);
+    return sketch;
+  }
+
+  int precision() {
+    return precision;
+  }
+
+  void add(String value) {
+    long hash = hash(value);
+    int index = (int) (hash >>> (64 - precision));
+    // the guard bit caps the run of leading zeros at the bits left after the index
+    long rest = (hash << precision) | (1L << (precision - 1));
+    byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+    if (registers[index] < rank) {
+      registers[index] = rank;
+    }
+  }
+
+  void merge(HyperLogLog other) {
+    if (other.precision != precision) {
+      throw new IllegalArgumentException(
+          "cannot merge precision " + other.precision + " into " + precision);
+    }
+    for (int i = 0; i < registers.length; i++) {
+      if (registers[i] < other.registers[i]) {
+        registers[i] = other.registers[i];
+      }
+    }
+  }
+
+  long estimate() {
+    int m = registers.length;
+    double sum = 0;
+    int zeros = 0;
+    for (byte register : registers) {
+      sum += 1.0 / (1L << register);
+      if (register == 0) {
+        zeros++;
+      }
+    }
+    double estimate = alpha(m) * m * m / sum;
+    if (estimate <= 2.5 * m && zeros > 0) {
+      // linear counting is more accurate while many registers are still empty
+      estimate = m * Math.log((double) m / zeros);
+    }
+    return Math.round(estimate);
+  }
+
+  /** Relative standard error of the estimate. */
+  double relativeError() {
+    return 1.04 / Math.sqrt(registers.length);
+  }
+
+  void clear() {
+    Arrays.fill(registers, (byte) 0);
+  }
+
+  byte[] toBytes() {
+    return registers.clone();
+  }
+
+  private static double alpha(int m) {
+    return switch (m) {
+      case 16 -> 0.673;
+      case 32 -> 0.697;
+      case 64 -> 0.709;
+      default -> 0.7213 / (1 + 1.079 / m);
+    };
+  }
+
+  /** FNV-1a over the UTF-16 code units, finished with the MurmurHash3 64-bit mixer. */
+  static long hash(String value) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < value.length(); i++) {
+      h ^= value.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
@@ -0,0 +1,52 @@
+package app.js.service;
+
+/**
+ * An event handed from a Kafka listener to {@link EventPersistenceService}.
+ *
+ * <p>The timestamps feed {@link EventLatencyRecorder} and are {@link #NO_TIMESTAMP} where unknown.
+ * They are not kept by the spill queue or the journal, so events read back from disk only have the
+ * ones taken afterwards.
+ *
+ * @param partition the Kafka partition the event was read from, or {@link #NO_PARTITION}
+ * @param payload the raw event JSON
+ * @param sequence the write-ahead journal sequence assigned on submit, or {@link #NO_SEQUENCE}
+ * @param sentAtMillis when the producer sent the event, in epoch milliseconds
+ * @param consumedAtNanos {@link System#nanoTime()} when the Kafka listener received the event
+ * @param dequeuedAtNanos {@link System#nanoTime()} when a stripe worker took it off its queue
+ */
+public record IngestEvent(
+    int partition,
+    String payload,
+    long sequence,
+    long sentAtMillis,
+    long consumedAtNanos,
+    long dequeuedAtNanos) {
+
+  public static final int NO_PARTITION = -1;
+
+  public static final long NO_SEQUENCE = -1;
+
+  /** {@link System#nanoTime()} may be negative, so an absent timestamp is the minimum value. */
+  public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+  public IngestEvent(int partition, String payload, long sequence) {
+    this(partition, payload, sequence, NO_TIMESTAMP, NO_TIMESTAMP, NO_TIMESTAMP);
+  }
+
+  public IngestEvent(int partition, String payload) {
+    this(partition, payload, NO_SEQUENCE);
+  }
+
+  public static IngestEvent of(String payload) {
+    return new IngestEvent(NO_PARTITION, payload);
+  }
+
+  IngestEvent withSequence(long sequence) {
+    return new IngestEvent(
+        partition, payload, sequence, sentAtMillis, consumedAtNanos, dequeuedAtNanos);
+  }
+
+  IngestEvent dequeuedAt(long nanos) {
+    return new IngestEvent(partition, payload, sequence, sentAtMillis, consumedAtNanos, nanos);
+  }
+}
@@ -0,0 +1,38 @@
+package app.js.service;
+
+import app.js.config.PersistenceProperties.QueueType;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded multi-producer, single-consumer queue between the Kafka listeners and one persistence
+ * worker. The worker waits for the first element with {@link #poll(long, TimeUnit)} and then takes
+ * the rest of a batch in one pass with {@link #drainTo(Collection, int)}.
+ */
+interface IngestQueue<E> {
+
+  static <E> IngestQueue<E> create(QueueType type, int capacity) {
+    return switch (type) {
+      case LINKED -> new LinkedIngestQueue<>(capacity);
+      case RING -> new MpscRingBuffer<>(capacity);
+    };
+  }
+
+  boolean offer(E element);
+
+  boolean offer(E element, long timeout, TimeUnit unit) throws InterruptedException;
+
+  /** Takes the next element, waiting up to the timeout; only called by the consumer thread. */
+  E poll(long timeout, TimeUnit unit) throws InterruptedException;
+
+  /** Moves up to {@code maxElements} available elements into {@code sink}; consumer thread only. */
+  int drainTo(Collection<? super E> sink, int maxElements);
+
+  int size();
+
+  int capacity();
+
+  default boolean isEmpty() {
+    return size() == 0;
+  }
+}
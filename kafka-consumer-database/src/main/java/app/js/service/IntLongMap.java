@@ -0,0 +1,106 @@
+package app.js.service;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from {@code int} keys to {@code long} counts, with linear probing and no
+ * boxing. Used for the rollup buckets, which are updated for every persisted event. Not
+ * thread-safe; {@link Integer#MIN_VALUE} cannot be used as a key.
+ */
+final class IntLongMap {
+
+  private static final int EMPTY = Integer.MIN_VALUE;
+
+  private int[] keys;
+  private long[] values;
+  private int size;
+
+  IntLongMap(int expectedSize) {
+    int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+    keys = new int[capacity];
+    values = new long[capacity];
+    Arrays.fill(keys, EMPTY);
+  }
+
+  void add(int key, long delta) {
+    int mask = keys.length - 1;
+    int slot = mix(key) & mask;
+    while (keys[slot] != EMPTY) {
+      if (keys[slot] == key) {
+        values[slot] += delta;
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+    keys[slot] = key;
+    values[slot] = delta;
+    if (++size * 2 > keys.length) {
+      grow();
+    }
+  }
+
+  long get(int key) {
+    int mask = keys.length - 1;
+    int slot = mix(key) & mask;
+    while (keys[slot] != EMPTY) {
+      if (keys[slot] == key) {
+        return values[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+    return 0;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /** Adds every entry of this map to {@code target}. */
+  void addTo(IntLongMap target) {
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != EMPTY) {
+        target.add(keys[i], values[i]);
+      }
+    }
+  }
+
+  void forEach(Entry consumer) {
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != EMPTY) {
+        consumer.accept(keys[i], values[i]);
+      }
+    }
+  }
+
+  /** Removes all entries but keeps the table, which is sized for the next minute already. */
+  void clear() {
+    if (size > 0) {
+      Arrays.fill(keys, EMPTY);
+      size = 0;
+    }
+  }
+
+  private void grow() {
+    int[] oldKeys = keys;
+    long[] oldValues = values;
+    keys = new int[oldKeys.length * 2];
+    values = new long[oldValues.length * 2];
+    Arrays.fill(keys, EMPTY);
+    size = 0;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != EMPTY) {
+        add(oldKeys[i], oldValues[i]);
+      }
+    }
+  }
+
+  private static int mix(int key) {
+    int h = key * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  @FunctionalInterface
+  interface Entry {
+    void accept(int key, long value);
+  }
+}
@@ -0,0 +1,47 @@
+package app.js.service;
+
+import java.util.Collection;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/** {@link IngestQueue} backed by a {@link LinkedBlockingQueue}. */
+class LinkedIngestQueue<E> implements IngestQueue<E> {
+
+  private final LinkedBlockingQueue<E> queue;
+  private final int capacity;
+
+  LinkedIngestQueue(int capacity) {
+    this.queue = new LinkedBlockingQueue<>(capacity);
+    this.capacity = capacity;
+  }
+
+  @Override
+  public boolean offer(E element) {
+    return queue.offer(element);
+  }
+
+  @Override
+  public boolean offer(E element, long timeout, TimeUnit unit) throws InterruptedException {
+    return queue.offer(element, timeout, unit);
+  }
+
+  @Override
+  public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+    return queue.poll(timeout, unit);
+  }
+
+  @Override
+  public int drainTo(Collection<? super E> sink, int maxElements) {
+    return queue.drainTo(sink, maxElements);
+  }
+
+  @Override
+  public int size() {
+    return queue.size();
+  }
+
+  @Override
+  public int capacity() {
+    return capacity;
+  }
+}
@@ -0,0 +1,169 @@
+package app.js.service;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Preallocated, bounded, lock-free multi-producer/single-consumer ring buffer.
+ *
+ * <p>Producers claim a slot by CAS on the tail sequence and publish it by advancing the slot's
+ * sequence number (Vyukov's bounded queue), so an offer allocates nothing and never takes a lock.
+ * The single consumer reads slots in order and releases each one back to producers by moving its
+ * sequence a full lap ahead. An idle consumer parks and is unparked by the next producer, instead
+ * of waking up on a condition variable.
+ *
+ * <p>The capacity is rounded up to the next power of two.
+ */
+class MpscRingBuffer<E> implements IngestQueue<E> {
+
+  private static final int SPINS_BEFORE_PARK = 64;
+  private static final long FULL_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  private final Object[] buffer;
+  private final AtomicLongArray sequences;
+  private final int mask;
+  private final AtomicLong tail = new AtomicLong();
+  private final AtomicLong head = new AtomicLong();
+  private volatile Thread parkedConsumer;
+
+  MpscRingBuffer(int requestedCapacity) {
+    int capacity = Integer.highestOneBit(Math.max(2, requestedCapacity) - 1) << 1;
+    this.buffer = new Object[capacity];
+    this.sequences = new AtomicLongArray(capacity);
+    this.mask = capacity - 1;
+    for (int i = 0; i < capacity; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  @Override
+  public boolean offer(E element) {
+    long position = tail.get();
+    int index;
+    while (true) {
+      index = (int) (position & mask);
+      long difference = sequences.getAcquire(index) - position;
+      if (difference == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          break;
+        }
+        position = tail.get();
+      } else if (difference < 0) {
+        return false;
+      } else {
+        position = tail.get();
+      }
+    }
+
+    buffer[index] = element;
+    // Volatile publish pairs with the consumer's volatile read after it registers for parking.
+    sequences.set(index, position + 1);
+
+    Thread consumer = parkedConsumer;
+    if (consumer != null) {
+      LockSupport.unpark(consumer);
+    }
+    return true;
+  }
+
+  @Override
+  public boolean offer(E element, long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (!offer(element)) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        return false;
+      }
+      LockSupport.parkNanos(this, Math.min(remaining, FULL_BACKOFF_NANOS));
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+    E element = poll();
+    if (element != null) {
+      return element;
+    }
+
+    for (int i = 0; i < SPINS_BEFORE_PARK; i++) {
+      Thread.onSpinWait();
+      if ((element = poll()) != null) {
+        return element;
+      }
+    }
+
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    parkedConsumer = Thread.currentThread();
+    try {
+      while ((element = poll()) == null) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          return null;
+        }
+        LockSupport.parkNanos(this, remaining);
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+      }
+      return element;
+    } finally {
+      parkedConsumer = null;
+    }
+  }
+
+  @Override
+  public int drainTo(Collection<? super E> sink, int maxElements) {
+    long position = head.get();
+    int drained = 0;
+    while (drained < maxElements) {
+      int index = (int) (position & mask);
+      if (sequences.getAcquire(index) != position + 1) {
+        break;
+      }
+      sink.add(take(index, position));
+      position++;
+      drained++;
+    }
+    if (drained > 0) {
+      head.lazySet(position);
+    }
+    return drained;
+  }
+
+  private E poll() {
+    long position = head.get();
+    int index = (int) (position & mask);
+    if (sequences.get(index) != position + 1) {
+      return null;
+    }
+    E element = take(index, position);
+    head.lazySet(position + 1);
+    return element;
+  }
+
+  @SuppressWarnings("unchecked")
+  private E take(int index, long position) {
+    E element = (E) buffer[index];
+    buffer[index] = null;
+    sequences.setRelease(index, position + buffer.length);
+    return element;
+  }
+
+  @Override
+  public int size() {
+    long size = tail.get() - head.get();
+    return (int) Math.max(0, Math.min(size, buffer.length));
+  }
+
+  @Override
+  public int capacity() {
+    return buffer.length;
+  }
+}
@@ -0,0 +1,13 @@
+package app.js.service;
+
+import app.js.entity.WikimediaEvent;
+import java.util.List;
+
+/**
+ * Notified with the events that were written to MongoDB, on the thread that wrote them. Used to
+ * maintain in-memory aggregates at ingest; implementations must be thread-safe and cheap.
+ */
+public interface PersistedEventsListener {
+
+  void onPersisted(List<WikimediaEvent> events);
+}
@@ -0,0 +1,231 @@
+package app.js.service;
+
+import app.js.config.PersistenceProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One queue and worker thread of {@link EventPersistenceService}. Each stripe batches and flushes
+ * independently, so stripes write to MongoDB in parallel while events of one Kafka partition stay
+ * in order within their stripe.
+ *
+ * <p>With {@code app.persistence.spill.enabled} a stripe whose queue passes the spill threshold
+ * appends further events to a {@link SpillQueue} on disk instead, and keeps doing so until the
+ * worker has drained the spill, so events still reach MongoDB in arrival order. While events are on
+ * disk, one that cannot be spilled because the disk budget is used up is rejected rather than
+ * queued in memory ahead of them, so the submit wait and the consumer backpressure apply.
+ */
+class PersistenceStripe {
+
+  private static final Logger log = LoggerFactory.getLogger(PersistenceStripe.class);
+
+  /** How often a timed offer retries while the spill is out of disk budget. */
+  private static final long SPILL_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  private final int index;
+  private final IngestQueue<IngestEvent> queue;
+  private final SpillQueue spill;
+  private final int spillThreshold;
+  private final AdaptiveBatchController batchController;
+  private final BooleanSupplier running;
+  private final BatchWriter writer;
+  private final WriteAheadJournal journal;
+  private final EventLatencyRecorder latencyRecorder;
+  private final Thread worker;
+
+  PersistenceStripe(
+      int index,
+      int capacity,
+      PersistenceProperties properties,
+      BooleanSupplier running,
+      BatchWriter writer,
+      WriteAheadJournal journal,
+      EventLatencyRecorder latencyRecorder,
+      MeterRegistry meterRegistry) {
+    this.index = index;
+    this.queue = IngestQueue.create(properties.getQueueType(), capacity);
+    this.batchController = new AdaptiveBatchController(properties, index, meterRegistry);
+    this.running = running;
+    this.writer = writer;
+    this.journal = journal;
+    this.latencyRecorder = latencyRecorder;
+
+    PersistenceProperties.Spill spillProperties = properties.getSpill();
+    if (spillProperties.isEnabled()) {
+      this.spill =
+          new SpillQueue(
+              Path.of(spillProperties.getDirectory(), "stripe-" + index),
+              spillProperties.getSegmentSize().toBytes(),
+              spillProperties.getMaxSize().toBytes() / properties.getStripes(),
+              index,
+              meterRegistry);
+      this.spillThreshold = (int) (queue.capacity() * spillProperties.getThresholdRatio());
+    } else {
+      this.spill = null;
+      this.spillThreshold = Integer.MAX_VALUE;
+    }
+
+    Gauge.builder("wikimedia.events.stripe.queue.size", queue, IngestQueue::size)
+        .description("Current size of the event queue of one persistence stripe")
+        .tag("stripe", String.valueOf(index))
+        .register(meterRegistry);
+
+    this.worker = new Thread(this::processBatches, "event-persistence-worker-" + index);
+    this.worker.setDaemon(false);
+  }
+
+  void start() {
+    worker.start();
+  }
+
+  boolean offer(IngestEvent event) {
+    return switch (route(event)) {
+      case SPILLED -> true;
+      case QUEUE -> queue.offer(event);
+      case REJECTED -> false;
+    };
+  }
+
+  /** Waits up to {@code maxWait} for space in the queue, or on disk while the stripe spills. */
+  boolean offer(IngestEvent event, Duration maxWait) {
+    long deadline = System.nanoTime() + maxWait.toNanos();
+    try {
+      while (true) {
+        Route route = route(event);
+        if (route == Route.SPILLED) {
+          return true;
+        }
+        long remaining = deadline - System.nanoTime();
+        if (route == Route.QUEUE) {
+          return queue.offer(event, Math.max(0, remaining), TimeUnit.NANOSECONDS);
+        }
+        if (remaining <= 0) {
+          return false;
+        }
+        // the worker frees disk budget or empties the spill as it drains it
+        TimeUnit.NANOSECONDS.sleep(Math.min(remaining, SPILL_RETRY_NANOS));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Sends the event to disk while earlier events of this stripe are still spilled, or once the
+   * in-memory queue is past the spill threshold. An event that cannot be spilled goes to the
+   * in-memory queue only if nothing is on disk; otherwise it would overtake the spilled events.
+   */
+  private Route route(IngestEvent event) {
+    if (spill == null) {
+      return Route.QUEUE;
+    }
+    if (spill.appendIfSpilling(event)) {
+      return Route.SPILLED;
+    }
+    if (!spill.isEmpty()) {
+      return Route.REJECTED;
+    }
+    return queue.size() >= spillThreshold && spill.append(event) ? Route.SPILLED : Route.QUEUE;
+  }
+
+  private enum Route {
+    SPILLED,
+    QUEUE,
+    REJECTED
+  }
+
+  private void processBatches() {
+    List<IngestEvent> batch = new ArrayList<>(batchController.batchSize());
+    long lastFlushTime = System.currentTimeMillis();
+
+    while (running.getAsBoolean() || !queue.isEmpty()) {
+      try {
+        int batchSize = batchController.batchSize();
+        int dequeued = batch.size();
+        boolean spilled = spill != null && !spill.isEmpty();
+        IngestEvent event =
+            queue.poll(
+                spilled ? 0 : Math.min(100, batchController.flushIntervalMs()),
+                TimeUnit.MILLISECONDS);
+
+        if (event != null) {
+          batch.add(event);
+          queue.drainTo(batch, batchSize - batch.size());
+        }
+
+        // nothing is queued in memory while events are on disk, so queued events came first
+        if (spilled && queue.isEmpty() && batch.size() < batchSize) {
+          spill.drainTo(batch, batchSize - batch.size());
+        }
+        for (; dequeued < batch.size(); dequeued++) {
+          batch.set(dequeued, latencyRecorder.dequeued(batch.get(dequeued)));
+        }
+
+        long now = System.currentTimeMillis();
+        boolean shouldFlush =
+            batch.size() >= batchSize
+                || (now - lastFlushTime >= batchController.flushIntervalMs() && !batch.isEmpty());
+
+        if (shouldFlush) {
+          flush(batch);
+          batch.clear();
+          lastFlushTime = now;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+
+    if (!batch.isEmpty()) {
+      flush(batch);
+    }
+    if (spill != null) {
+      spill.close();
+    }
+
+    log.info("Event persistence worker {} stopped", index);
+  }
+
+  private void flush(List<IngestEvent> batch) {
+    List<IngestEvent> events = List.copyOf(batch);
+    writer.write(
+        events,
+        writeNanos -> {
+          if (journal != null) {
+            journal.release(events);
+          }
+          batchController.onFlush(events.size(), writeNanos, queue.size());
+        });
+  }
+
+  void join(long millis) throws InterruptedException {
+    worker.join(millis);
+  }
+
+  int size() {
+    return queue.size();
+  }
+
+  int capacity() {
+    return queue.capacity();
+  }
+
+  /**
+   * Writes a batch handed over by the stripe worker, either inline or asynchronously. The batch
+   * list is not reused by the worker afterwards; {@code onWritten} receives the write time.
+   */
+  interface BatchWriter {
+    void write(List<IngestEvent> batch, LongConsumer onWritten);
+  }
+}
@@ -0,0 +1,337 @@
+package app.js.service;
+
+import app.js.config.AnalyticsProperties;
+import app.js.entity.WikimediaEvent;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Per-minute counts of the persisted events by wiki, type, bot flag and namespace, kept in a ring
+ * of minute buckets covering the configured retention. The buckets are updated as batches are
+ * written, so a window within the ring is answered by summing at most {@code retention} buckets
+ * instead of scanning the events.
+ *
+ * <p>Windows are rounded down to whole minutes, and only start once the engine has seen a full
+ * minute: a window reaching back before this instance started, or past the retention, is not {@link
+ * #covers covered} and has to be read from MongoDB. Wiki and type names are mapped to {@code int}
+ * ids so that the buckets are primitive-keyed {@link IntLongMap}s.
+ *
+ * <p>Users and page titles have far too many distinct values to count exactly per minute. They are
+ * tracked in {@link SpaceSaving} sketches on a coarser ring of {@code top-k-bucket} wide buckets,
+ * which are merged per query into approximate top-K lists with per-item error bounds.
+ */
+@Service
+public class RollupEngine implements PersistedEventsListener {
+
+  private final boolean enabled;
+  private final Clock clock;
+  private final long coveredFromMinute;
+  private final MinuteBucket[] ring;
+  private final long sketchMinutes;
+  private final SketchBucket[] sketchRing;
+
+  private final Dictionary wikis = new Dictionary();
+  private final Dictionary types = new Dictionary();
+
+  @Autowired
+  public RollupEngine(AnalyticsProperties properties) {
+    this(properties.getRollup(), Clock.systemUTC());
+  }
+
+  RollupEngine(AnalyticsProperties.Rollup properties, Clock clock) {
+    this.enabled = properties.isEnabled();
+    this.clock = clock;
+    // the minute the engine starts in is only partially seen
+    this.coveredFromMinute = minuteOf(clock.instant()) + 1;
+
+    int minutes = enabled ? (int) Math.max(1, properties.getRetention().toMinutes()) : 0;
+    // one extra bucket so that a window of exactly the retention still fits
+    this.ring = new MinuteBucket[enabled ? minutes + 1 : 0];
+    for (int i = 0; i < ring.length; i++) {
+      ring[i] = new MinuteBucket();
+    }
+
+    this.sketchMinutes = Math.max(1, properties.getTopKBucket().toMinutes());
+    int sketches = enabled ? (int) ((minutes + sketchMinutes - 1) / sketchMinutes) + 1 : 0;
+    this.sketchRing = new SketchBucket[sketches];
+    for (int i = 0; i < sketchRing.length; i++) {
+      sketchRing[i] = new SketchBucket(properties.getTopKCapacity());
+    }
+  }
+
+  /** Counts written events into the bucket of their {@code receivedAt} minute. */
+  @Override
+  public void onPersisted(List<WikimediaEvent> events) {
+    if (!enabled) {
+      return;
+    }
+    for (WikimediaEvent event : events) {
+      if (event.getReceivedAt() != null) {
+        record(event);
+      }
+    }
+  }
+
+  private void record(WikimediaEvent event) {
+    long minute = minuteOf(event.getReceivedAt());
+    int wiki = idOf(wikis, event.getWiki());
+    int type = idOf(types, event.getType());
+
+    MinuteBucket bucket = ring[(int) Math.floorMod(minute, (long) ring.length)];
+    synchronized (bucket) {
+      if (bucket.minute < minute) {
+        bucket.reset(minute);
+      } else if (bucket.minute > minute) {
+        // older than the ring reaches
+        return;
+      }
+      bucket.total++;
+      // a missing bot flag counts as human and a missing namespace as Main, as in MongoDB
+      if (Boolean.TRUE.equals(event.getBot())) {
+        bucket.bot++;
+      } else {
+        bucket.human++;
+      }
+      if (wiki >= 0) {
+        bucket.byWiki.add(wiki, 1);
+      }
+      if (type >= 0) {
+        bucket.byType.add(type, 1);
+      }
+      bucket.byNamespace.add(event.getNamespace() != null ? event.getNamespace() : 0, 1);
+    }
+
+    boolean hasUser = event.getUser() != null && !event.getUser().isEmpty();
+    boolean hasTitle = event.getTitle() != null && !event.getTitle().isEmpty();
+    if (!hasUser && !hasTitle) {
+      return;
+    }
+    long slot = Math.floorDiv(minute, sketchMinutes);
+    SketchBucket sketch = sketchRing[(int) Math.floorMod(slot, (long) sketchRing.length)];
+    synchronized (sketch) {
+      if (sketch.slot < slot) {
+        sketch.reset(slot);
+      } else if (sketch.slot > slot) {
+        return;
+      }
+      if (hasUser) {
+        sketch.users.offer(event.getUser());
+      }
+      if (hasTitle) {
+        sketch.titles.offer(event.getTitle());
+      }
+    }
+  }
+
+  /** Whether the window starting at {@code since} and ending now lies entirely within the ring. */
+  public boolean covers(Instant since) {
+    if (!enabled) {
+      return false;
+    }
+    long sinceMinute = minuteOf(since);
+    return sinceMinute >= coveredFromMinute
+        && sinceMinute > minuteOf(clock.instant()) - ring.length;
+  }
+
+  /**
+   * Whether the top users and pages since {@code since} can be estimated from the sketches. Their
+   * buckets are coarser, so the window is rounded down to a {@code top-k-bucket} boundary.
+   */
+  public boolean coversTopK(Instant since) {
+    if (!enabled) {
+      return false;
+    }
+    long slot = Math.floorDiv(minuteOf(since), sketchMinutes);
+    return slot * sketchMinutes >= coveredFromMinute
+        && slot > Math.floorDiv(minuteOf(clock.instant()), sketchMinutes) - sketchRing.length;
+  }
+
+  /** Estimated most active users since {@code since}, with per-user error bounds. */
+  List<SpaceSaving.Estimate> topUsers(Instant since, int limit) {
+    return topK(since, limit, true);
+  }
+
+  /** Estimated most edited pages since {@code since}, with per-title error bounds. */
+  List<SpaceSaving.Estimate> topTitles(Instant since, int limit) {
+    return topK(since, limit, false);
+  }
+
+  private List<SpaceSaving.Estimate> topK(Instant since, int limit, boolean users) {
+    SpaceSaving.Merger merger = new SpaceSaving.Merger();
+    long sinceSlot = Math.floorDiv(minuteOf(since), sketchMinutes);
+    for (SketchBucket sketch : sketchRing) {
+      synchronized (sketch) {
+        if (sketch.slot >= sinceSlot) {
+          merger.add(users ? sketch.users : sketch.titles);
+        }
+      }
+    }
+    return merger.top(limit);
+  }
+
+  /** Event counts per wiki since {@code since}, most frequent first. */
+  public Map<String, Long> countsByWiki(Instant since) {
+    IntLongMap counts = new IntLongMap(64);
+    long sinceMinute = minuteOf(since);
+    for (MinuteBucket bucket : ring) {
+      synchronized (bucket) {
+        if (bucket.minute >= sinceMinute) {
+          bucket.byWiki.addTo(counts);
+        }
+      }
+    }
+    return named(counts, wikis);
+  }
+
+  /** Event counts per type since {@code since}, most frequent first. */
+  public Map<String, Long> countsByType(Instant since) {
+    IntLongMap counts = new IntLongMap(8);
+    long sinceMinute = minuteOf(since);
+    for (MinuteBucket bucket : ring) {
+      synchronized (bucket) {
+        if (bucket.minute >= sinceMinute) {
+          bucket.byType.addTo(counts);
+        }
+      }
+    }
+    return named(counts, types);
+  }
+
+  /** Event counts per hour since {@code since}, keyed by the start of the hour, oldest first. */
+  public Map<Instant, Long> countsByHour(Instant since) {
+    TreeMap<Long, Long> byHour = new TreeMap<>();
+    long sinceMinute = minuteOf(since);
+    for (MinuteBucket bucket : ring) {
+      synchronized (bucket) {
+        if (bucket.minute >= sinceMinute && bucket.total > 0) {
+          byHour.merge(Math.floorDiv(bucket.minute, 60L), bucket.total, Long::sum);
+        }
+      }
+    }
+
+    Map<Instant, Long> counts = new LinkedHashMap<>();
+    byHour.forEach((hour, count) -> counts.put(Instant.ofEpochSecond(hour * 3600), count));
+    return counts;
+  }
+
+  /** Total, bot/human and per-namespace counts since {@code since}. */
+  public Breakdown breakdown(Instant since) {
+    long total = 0;
+    long bot = 0;
+    long human = 0;
+    IntLongMap byNamespace = new IntLongMap(16);
+    long sinceMinute = minuteOf(since);
+    for (MinuteBucket bucket : ring) {
+      synchronized (bucket) {
+        if (bucket.minute >= sinceMinute) {
+          total += bucket.total;
+          bot += bucket.bot;
+          human += bucket.human;
+          bucket.byNamespace.addTo(byNamespace);
+        }
+      }
+    }
+
+    Map<Integer, Long> namespaces = new HashMap<>();
+    byNamespace.forEach(namespaces::put);
+    return new Breakdown(total, bot, human, namespaces);
+  }
+
+  public record Breakdown(long total, long bot, long human, Map<Integer, Long> byNamespace) {}
+
+  private static Map<String, Long> named(IntLongMap counts, Dictionary names) {
+    List<Map.Entry<String, Long>> entries = new ArrayList<>(counts.size());
+    counts.forEach((id, count) -> entries.add(Map.entry(names.name(id), count)));
+    entries.sort(
+        Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder())
+            .thenComparing(Map.Entry.comparingByKey()));
+
+    Map<String, Long> result = new LinkedHashMap<>();
+    entries.forEach(entry -> result.put(entry.getKey(), entry.getValue()));
+    return result;
+  }
+
+  /** Id of a dimension value, or -1 for values the analytics leave out. */
+  private static int idOf(Dictionary dictionary, String value) {
+    return value == null || value.isEmpty() ? -1 : dictionary.id(value);
+  }
+
+  private static long minuteOf(Instant instant) {
+    return Math.floorDiv(instant.getEpochSecond(), 60L);
+  }
+
+  private static final class MinuteBucket {
+
+    long minute = Long.MIN_VALUE;
+    long total;
+    long bot;
+    long human;
+    final IntLongMap byWiki = new IntLongMap(64);
+    final IntLongMap byType = new IntLongMap(8);
+    final IntLongMap byNamespace = new IntLongMap(16);
+
+    void reset(long minute) {
+      this.minute = minute;
+      total = 0;
+      bot = 0;
+      human = 0;
+      byWiki.clear();
+      byType.clear();
+      byNamespace.clear();
+    }
+  }
+
+  private static final class SketchBucket {
+
+    long slot = Long.MIN_VALUE;
+    final SpaceSaving users;
+    final SpaceSaving titles;
+
+    SketchBucket(int capacity) {
+      users = new SpaceSaving(capacity);
+      titles = new SpaceSaving(capacity);
+    }
+
+    void reset(long slot) {
+      this.slot = slot;
+      users.clear();
+      titles.clear();
+    }
+  }
+
+  /** Interns dimension values as dense {@code int} ids; there are only a few hundred wikis. */
+  private static final class Dictionary {
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final List<String> names = new CopyOnWriteArrayList<>();
+
+    int id(String name) {
+      Integer id = ids.get(name);
+      return id != null ? id : register(name);
+    }
+
+    private synchronized int register(String name) {
+      return ids.computeIfAbsent(
+          name,
+          n -> {
+            names.add(n);
+            return names.size() - 1;
+          });
+    }
+
+    String name(int id) {
+      return names.get(id);
+    }
+  }
+}
@@ -0,0 +1,154 @@
+package app.js.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Space-Saving heavy-hitter sketch (Metwally et al.) over a stream of strings, keeping at most
+ * {@code capacity} counters. When an untracked item arrives and the sketch is full, the counter
+ * with the smallest count is taken over by the new item, which inherits that count as its error.
+ *
+ * <p>Every reported count is an overestimate by at most its {@code error}, and any item not tracked
+ * occurred at most {@link #minCount()} times, which is at most {@code total / capacity}. Counters
+ * sit in a min-heap indexed by position so that an increment is O(log capacity). Not thread-safe.
+ */
+final class SpaceSaving {
+
+  private final int capacity;
+  private final Map<String, Counter> counters;
+  private final Counter[] heap;
+  private int size;
+
+  SpaceSaving(int capacity) {
+    this.capacity = Math.max(1, capacity);
+    this.counters = HashMap.newHashMap(this.capacity);
+    this.heap = new Counter[this.capacity];
+  }
+
+  void offer(String item) {
+    Counter counter = counters.get(item);
+    if (counter != null) {
+      counter.count++;
+      siftDown(counter.index);
+    } else if (size < capacity) {
+      counter = new Counter(item, size);
+      counter.count = 1;
+      heap[size++] = counter;
+      counters.put(item, counter);
+      siftUp(counter.index);
+    } else {
+      Counter min = heap[0];
+      counters.remove(min.item);
+      min.item = item;
+      min.error = min.count;
+      min.count++;
+      counters.put(item, min);
+      siftDown(0);
+    }
+  }
+
+  /** Upper bound on the count of any item that is not tracked. */
+  long minCount() {
+    return size < capacity ? 0 : heap[0].count;
+  }
+
+  void clear() {
+    counters.clear();
+    for (int i = 0; i < size; i++) {
+      heap[i] = null;
+    }
+    size = 0;
+  }
+
+  private void siftUp(int index) {
+    Counter counter = heap[index];
+    while (index > 0) {
+      int parent = (index - 1) >>> 1;
+      if (heap[parent].count <= counter.count) {
+        break;
+      }
+      place(heap[parent], index);
+      index = parent;
+    }
+    place(counter, index);
+  }
+
+  private void siftDown(int index) {
+    Counter counter = heap[index];
+    int half = size >>> 1;
+    while (index < half) {
+      int child = 2 * index + 1;
+      if (child + 1 < size && heap[child + 1].count < heap[child].count) {
+        child++;
+      }
+      if (counter.count <= heap[child].count) {
+        break;
+      }
+      place(heap[child], index);
+      index = child;
+    }
+    place(counter, index);
+  }
+
+  private void place(Counter counter, int index) {
+    heap[index] = counter;
+    counter.index = index;
+  }
+
+  private static final class Counter {
+
+    String item;
+    long count;
+    long error;
+    int index;
+
+    Counter(String item, int index) {
+      this.item = item;
+      this.index = index;
+    }
+  }
+
+  /** An item's estimated count, which overstates the true count by at most {@code error}. */
+  record Estimate(String item, long count, long error) {}
+
+  /**
+   * Merges sketches of disjoint parts of a stream, e.g. consecutive time buckets. An item missing
+   * from one sketch may still have occurred up to that sketch's {@link #minCount()} times there, so
+   * that amount is added to both its count and its error.
+   */
+  static final class Merger {
+
+    private final Map<String, long[]> totals = new HashMap<>();
+    private long minCountSum;
+
+    /** Adds a sketch; the caller holds whatever lock guards it. */
+    void add(SpaceSaving sketch) {
+      long minCount = sketch.minCount();
+      minCountSum += minCount;
+      for (int i = 0; i < sketch.size; i++) {
+        Counter counter = sketch.heap[i];
+        long[] total = totals.computeIfAbsent(counter.item, _ -> new long[3]);
+        total[0] += counter.count;
+        total[1] += counter.error;
+        // the minimum this item is already accounted for with
+        total[2] += minCount;
+      }
+    }
+
+    /** The {@code limit} items with the highest estimated counts. */
+    List<Estimate> top(int limit) {
+      List<Estimate> estimates = new ArrayList<>(totals.size());
+      totals.forEach(
+          (item, total) -> {
+            long missing = minCountSum - total[2];
+            estimates.add(new Estimate(item, total[0] + missing, total[1] + missing));
+          });
+      estimates.sort(
+          Comparator.comparingLong(Estimate::count).reversed().thenComparing(Estimate::item));
+      return estimates.size() > limit ? estimates.subList(0, limit) : estimates;
+    }
+  }
+}
@@ -0,0 +1,354 @@
+package app.js.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only overflow queue of one persistence stripe, stored in memory-mapped segment files.
+ *
+ * <p>Each record is {@code [int length][int partition][long sequence][UTF-8 payload]}, where {@code
+ * length} covers everything after itself; a zero length marks the end of the written part of a
+ * segment. Drained records are marked by negating their length in place, and a segment file is
+ * deleted once it is fully drained. Segments left over from a previous run are picked up again on
+ * startup, skipping records already marked as drained.
+ *
+ * <p>Records are written to the page cache only; a segment is forced to disk when it is rolled
+ * over. A process crash therefore loses nothing, an OS crash may lose the tail of the open segment.
+ * All methods are synchronized; the lock is only contended while the stripe is spilling.
+ */
+class SpillQueue {
+
+  private static final Logger log = LoggerFactory.getLogger(SpillQueue.class);
+
+  private static final String SEGMENT_SUFFIX = ".seg";
+  private static final int HEADER_BYTES = 2 * Integer.BYTES + Long.BYTES;
+
+  private final Path directory;
+  private final int segmentBytes;
+  private final int maxSegments;
+  private final Deque<Segment> segments = new ArrayDeque<>();
+  private long nextSegmentId;
+  private long pendingBytes;
+  private int pendingEvents;
+
+  private final Counter spilledCounter;
+  private final Counter drainedCounter;
+
+  SpillQueue(
+      Path directory, long segmentBytes, long maxBytes, int stripe, MeterRegistry meterRegistry) {
+    this.directory = directory;
+    this.segmentBytes = (int) Math.min(segmentBytes, Integer.MAX_VALUE);
+    this.maxSegments = (int) Math.max(1, maxBytes / this.segmentBytes);
+
+    try {
+      Files.createDirectories(directory);
+      recoverSegments();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot open spill directory " + directory, e);
+    }
+
+    String stripeTag = String.valueOf(stripe);
+    this.spilledCounter =
+        Counter.builder("wikimedia.persistence.spill.spilled")
+            .description("Number of events spilled to disk because the stripe queue was full")
+            .tag("stripe", stripeTag)
+            .register(meterRegistry);
+    this.drainedCounter =
+        Counter.builder("wikimedia.persistence.spill.drained")
+            .description("Number of spilled events read back from disk for persistence")
+            .tag("stripe", stripeTag)
+            .register(meterRegistry);
+    Gauge.builder("wikimedia.persistence.spill.size", this, SpillQueue::pendingBytes)
+        .description("Bytes of spilled events waiting on disk")
+        .baseUnit("bytes")
+        .tag("stripe", stripeTag)
+        .register(meterRegistry);
+    Gauge.builder("wikimedia.persistence.spill.segments", this, SpillQueue::segmentCount)
+        .description("Number of spill segment files of the stripe")
+        .tag("stripe", stripeTag)
+        .register(meterRegistry);
+  }
+
+  /** Appends the event only if earlier events are still waiting on disk, to keep FIFO order. */
+  synchronized boolean appendIfSpilling(IngestEvent event) {
+    return pendingEvents > 0 && append(event);
+  }
+
+  /**
+   * Appends the event, rolling over to a new segment when needed. Returns false when the disk
+   * budget is used up, the event is larger than a segment, or the write fails.
+   */
+  synchronized boolean append(IngestEvent event) {
+    byte[] payload = event.payload().getBytes(StandardCharsets.UTF_8);
+    int recordBytes = HEADER_BYTES + payload.length;
+    if (recordBytes > segmentBytes) {
+      return false;
+    }
+
+    try {
+      Segment segment = segments.peekLast();
+      if (segment == null || !segment.fits(recordBytes)) {
+        if (segments.size() >= maxSegments) {
+          return false;
+        }
+        if (segment != null) {
+          segment.buffer.force();
+        }
+        segment = Segment.create(directory.resolve(segmentName(nextSegmentId++)), segmentBytes);
+        segments.addLast(segment);
+      }
+      segment.append(event.partition(), event.sequence(), payload);
+    } catch (IOException e) {
+      log.error("Failed to spill event to {}: {}", directory, e.getMessage());
+      return false;
+    }
+
+    pendingBytes += recordBytes;
+    pendingEvents++;
+    spilledCounter.increment();
+    return true;
+  }
+
+  /** Moves up to {@code maxEvents} of the oldest spilled events into {@code target}. */
+  synchronized int drainTo(Collection<IngestEvent> target, int maxEvents) {
+    int drained = 0;
+    while (drained < maxEvents && pendingEvents > 0) {
+      Segment segment = segments.peekFirst();
+      if (!segment.hasNext()) {
+        // only non-tail segments can be exhausted while events are pending
+        segments.removeFirst();
+        segment.delete();
+        continue;
+      }
+
+      int recordBytes = segment.peekLength();
+      target.add(segment.next());
+      pendingBytes -= recordBytes;
+      pendingEvents--;
+      drained++;
+    }
+
+    if (pendingEvents == 0) {
+      releaseDrainedSegments();
+    }
+    drainedCounter.increment(drained);
+    return drained;
+  }
+
+  synchronized boolean isEmpty() {
+    return pendingEvents == 0;
+  }
+
+  synchronized long pendingBytes() {
+    return pendingBytes;
+  }
+
+  synchronized int segmentCount() {
+    return segments.size();
+  }
+
+  synchronized void close() {
+    for (Segment segment : segments) {
+      segment.buffer.force();
+      segment.close();
+    }
+    if (pendingEvents > 0) {
+      log.info("{} spilled event(s) left in {} for the next start", pendingEvents, directory);
+    }
+    segments.clear();
+  }
+
+  /** Keeps the tail segment for reuse from its start, deletes the others. */
+  private void releaseDrainedSegments() {
+    while (segments.size() > 1) {
+      segments.removeFirst().delete();
+    }
+    Segment tail = segments.peekFirst();
+    if (tail != null) {
+      tail.reset();
+    }
+  }
+
+  private void recoverSegments() throws IOException {
+    List<Path> files;
+    try (Stream<Path> listing = Files.list(directory)) {
+      files =
+          listing
+              .filter(p -> p.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+              .sorted()
+              .toList();
+    }
+
+    for (Path file : files) {
+      String name = file.getFileName().toString();
+      long id = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+      nextSegmentId = Math.max(nextSegmentId, id + 1);
+
+      Segment segment = Segment.recover(file);
+      if (!segment.hasNext()) {
+        segment.delete();
+        continue;
+      }
+      segments.addLast(segment);
+      pendingBytes += segment.writePosition - segment.readPosition;
+      pendingEvents += segment.countPending();
+    }
+
+    if (pendingEvents > 0) {
+      log.info(
+          "Recovered {} spilled event(s) in {} segment(s) from {}",
+          pendingEvents,
+          segments.size(),
+          directory);
+    }
+  }
+
+  private static String segmentName(long id) {
+    return String.format("%020d%s", id, SEGMENT_SUFFIX);
+  }
+
+  private static final class Segment {
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private int readPosition;
+    private int writePosition;
+
+    private Segment(Path file, FileChannel channel, MappedByteBuffer buffer) {
+      this.file = file;
+      this.channel = channel;
+      this.buffer = buffer;
+    }
+
+    static Segment create(Path file, int size) throws IOException {
+      FileChannel channel =
+          FileChannel.open(
+              file,
+              StandardOpenOption.CREATE_NEW,
+              StandardOpenOption.READ,
+              StandardOpenOption.WRITE);
+      return new Segment(file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+    }
+
+    static Segment recover(Path file) throws IOException {
+      FileChannel channel =
+          FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      Segment segment =
+          new Segment(
+              file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+
+      int position = 0;
+      boolean drainedPrefix = true;
+      while (position + Integer.BYTES <= segment.capacity()) {
+        int length = segment.buffer.getInt(position);
+        if (length == 0) {
+          break;
+        }
+        if (length > 0 && drainedPrefix) {
+          segment.readPosition = position;
+          drainedPrefix = false;
+        }
+        position += Integer.BYTES + Math.abs(length);
+      }
+      segment.writePosition = position;
+      if (drainedPrefix) {
+        segment.readPosition = position;
+      }
+      return segment;
+    }
+
+    int capacity() {
+      return buffer.capacity();
+    }
+
+    boolean fits(int recordBytes) {
+      return writePosition + recordBytes <= capacity();
+    }
+
+    void append(int partition, long sequence, byte[] payload) {
+      int position = writePosition;
+      int end = position + HEADER_BYTES + payload.length;
+      buffer.putInt(position + Integer.BYTES, partition);
+      buffer.putLong(position + 2 * Integer.BYTES, sequence);
+      buffer.put(position + HEADER_BYTES, payload);
+      if (end + Integer.BYTES <= capacity()) {
+        buffer.putInt(end, 0);
+      }
+      // the length goes last so a torn record still reads as end of segment
+      buffer.putInt(position, HEADER_BYTES - Integer.BYTES + payload.length);
+      writePosition = end;
+    }
+
+    boolean hasNext() {
+      return readPosition < writePosition;
+    }
+
+    int peekLength() {
+      return Integer.BYTES + buffer.getInt(readPosition);
+    }
+
+    IngestEvent next() {
+      int position = readPosition;
+      int length = buffer.getInt(position);
+      int partition = buffer.getInt(position + Integer.BYTES);
+      long sequence = buffer.getLong(position + 2 * Integer.BYTES);
+      byte[] payload = new byte[length - (HEADER_BYTES - Integer.BYTES)];
+      buffer.get(position + HEADER_BYTES, payload);
+      buffer.putInt(position, -length);
+      readPosition = position + Integer.BYTES + length;
+      return new IngestEvent(partition, new String(payload, StandardCharsets.UTF_8), sequence);
+    }
+
+    int countPending() {
+      int count = 0;
+      for (int position = readPosition; position < writePosition; ) {
+        int length = buffer.getInt(position);
+        if (length > 0) {
+          count++;
+        }
+        position += Integer.BYTES + Math.abs(length);
+      }
+      return count;
+    }
+
+    void reset() {
+      readPosition = 0;
+      writePosition = 0;
+      buffer.putInt(0, 0);
+    }
+
+    void close() {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        log.warn("Failed to close spill segment {}: {}", file, e.getMessage());
+      }
+    }
+
+    void delete() {
+      close();
+      try {
+        Files.deleteIfExists(file);
+      } catch (IOException e) {
+        log.warn("Failed to delete spill segment {}: {}", file, e.getMessage());
+      }
+    }
+  }
+}
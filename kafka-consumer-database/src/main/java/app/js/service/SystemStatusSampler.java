@@ -0,0 +1,228 @@
+package app.js.service;
+
+import app.js.config.SystemStatusProperties;
+import app.js.repository.FailedEventRepository;
+import app.js.repository.WikimediaEventRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import jakarta.annotation.PreDestroy;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+/**
+ * Samples a {@link SystemStatusSnapshot} every {@code interval} on a background thread, so that the
+ * {@code /api/system/*} endpoints cost one set of MongoDB counts per interval however many
+ * dashboards poll them. The first snapshot is sampled by the first request that needs one. When
+ * sampling fails the previous snapshot is kept and keeps ageing.
+ */
+@Service
+public class SystemStatusSampler {
+
+  private static final Logger log = LoggerFactory.getLogger(SystemStatusSampler.class);
+
+  /** Failed events at this retry count are no longer retried by the DLQ consumer. */
+  static final int MAX_RETRY_COUNT = 3;
+
+  private final WikimediaEventRepository eventRepository;
+  private final FailedEventRepository failedEventRepository;
+  private final EventPersistenceService persistenceService;
+  private final EventRateCounter rateCounter;
+  private final EventLatencyRecorder latencyRecorder;
+  private final int recentFailures;
+  private final int maxErrorTypes;
+  private final Clock clock;
+  private final Timer sampleTimer;
+  private final ScheduledExecutorService scheduler;
+  private volatile SystemStatusSnapshot snapshot;
+
+  @Autowired
+  public SystemStatusSampler(
+      WikimediaEventRepository eventRepository,
+      FailedEventRepository failedEventRepository,
+      EventPersistenceService persistenceService,
+      EventRateCounter rateCounter,
+      EventLatencyRecorder latencyRecorder,
+      SystemStatusProperties properties,
+      MeterRegistry meterRegistry) {
+    this(
+        eventRepository,
+        failedEventRepository,
+        persistenceService,
+        rateCounter,
+        latencyRecorder,
+        properties,
+        meterRegistry,
+        Clock.systemUTC());
+  }
+
+  SystemStatusSampler(
+      WikimediaEventRepository eventRepository,
+      FailedEventRepository failedEventRepository,
+      EventPersistenceService persistenceService,
+      EventRateCounter rateCounter,
+      EventLatencyRecorder latencyRecorder,
+      SystemStatusProperties properties,
+      MeterRegistry meterRegistry,
+      Clock clock) {
+    this.eventRepository = eventRepository;
+    this.failedEventRepository = failedEventRepository;
+    this.persistenceService = persistenceService;
+    this.rateCounter = rateCounter;
+    this.latencyRecorder = latencyRecorder;
+    this.recentFailures = Math.max(1, properties.getRecentFailures());
+    this.maxErrorTypes = Math.max(1, properties.getMaxErrorTypes());
+    this.clock = clock;
+
+    this.sampleTimer =
+        Timer.builder("wikimedia.system.status.sample")
+            .description("Time to sample the status snapshot behind the /api/system endpoints")
+            .register(meterRegistry);
+    Gauge.builder("wikimedia.system.status.age", this, SystemStatusSampler::ageSeconds)
+        .description("Age of the status snapshot served by the /api/system endpoints")
+        .baseUnit("seconds")
+        .register(meterRegistry);
+
+    long intervalMs = properties.getInterval().toMillis();
+    if (intervalMs > 0) {
+      this.scheduler =
+          Executors.newSingleThreadScheduledExecutor(
+              r -> {
+                Thread thread = new Thread(r, "system-status-sampler");
+                thread.setDaemon(true);
+                return thread;
+              });
+      scheduler.scheduleWithFixedDelay(
+          this::refresh, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    } else {
+      this.scheduler = null;
+    }
+  }
+
+  /** The latest snapshot; sampled now if there is none yet or sampling is not scheduled. */
+  public SystemStatusSnapshot current() {
+    SystemStatusSnapshot current = snapshot;
+    if (current != null && scheduler != null) {
+      return current;
+    }
+    synchronized (this) {
+      current = snapshot;
+      return current != null && scheduler != null ? current : sample();
+    }
+  }
+
+  /** Most recent failed events a snapshot holds, and so the most {@code /api/system/dlq} lists. */
+  public int maxRecentFailures() {
+    return recentFailures;
+  }
+
+  /** How long ago {@code snapshot} was sampled. */
+  public Duration age(SystemStatusSnapshot snapshot) {
+    Duration age = Duration.between(snapshot.sampledAt(), clock.instant());
+    return age.isNegative() ? Duration.ZERO : age;
+  }
+
+  /** Samples a new snapshot on the scheduler thread, keeping the previous one on failure. */
+  void refresh() {
+    try {
+      synchronized (this) {
+        sample();
+      }
+    } catch (RuntimeException e) {
+      log.warn(
+          "Sampling the system status failed, keeping the previous snapshot: {}", e.getMessage());
+    }
+  }
+
+  private SystemStatusSnapshot sample() {
+    SystemStatusSnapshot sampled = sampleTimer.record(this::query);
+    snapshot = sampled;
+    return sampled;
+  }
+
+  private SystemStatusSnapshot query() {
+    Instant now = clock.instant();
+
+    // grouped and counted in MongoDB, so memory does not grow with the failed_events collection
+    Map<String, Long> byErrorType = new LinkedHashMap<>();
+    for (FailedEventRepository.ErrorTypeCount errorType :
+        failedEventRepository.countPerErrorType(maxErrorTypes)) {
+      byErrorType.put(String.valueOf(errorType.errorType()), errorType.count());
+    }
+    List<SystemStatusSnapshot.Failure> recent =
+        failedEventRepository.findRecentWithoutPayload(PageRequest.of(0, recentFailures)).stream()
+            .map(
+                f ->
+                    new SystemStatusSnapshot.Failure(
+                        f.getId(),
+                        f.getErrorType(),
+                        f.getErrorMessage(),
+                        f.getFailedAt(),
+                        f.getRetryCount()))
+            .toList();
+
+    return new SystemStatusSnapshot(
+        now,
+        eventRepository.count(),
+        rateCounter.count(Duration.ofMinutes(1)),
+        rateCounter.count(Duration.ofMinutes(5)),
+        rateCounter.count(Duration.ofMinutes(15)),
+        rateCounter.count(Duration.ofHours(1)),
+        persistenceService.getQueueSize(),
+        failedEventRepository.count(),
+        failedEventRepository.countByFailedAtAfter(now.minus(Duration.ofMinutes(1))),
+        failedEventRepository.countByFailedAtAfter(now.minus(Duration.ofHours(1))),
+        failedEventRepository.countByRetryCountLessThan(MAX_RETRY_COUNT),
+        failedEventRepository.countByRetryCountGreaterThanEqual(MAX_RETRY_COUNT),
+        byErrorType,
+        recent,
+        latencies());
+  }
+
+  private Map<String, SystemStatusSnapshot.Latency> latencies() {
+    Map<String, SystemStatusSnapshot.Latency> latencies = new LinkedHashMap<>();
+    latencyRecorder
+        .snapshot()
+        .forEach(
+            (stage, histogram) -> {
+              double[] millis = new double[3];
+              for (ValueAtPercentile value : histogram.percentileValues()) {
+                int i = Arrays.binarySearch(EventLatencyRecorder.PERCENTILES, value.percentile());
+                if (i >= 0) {
+                  millis[i] = value.value(TimeUnit.MILLISECONDS);
+                }
+              }
+              latencies.put(
+                  stage.tag(),
+                  new SystemStatusSnapshot.Latency(
+                      histogram.count(), millis[0], millis[1], millis[2]));
+            });
+    return latencies;
+  }
+
+  private double ageSeconds() {
+    SystemStatusSnapshot current = snapshot;
+    return current == null ? Double.NaN : age(current).toMillis() / 1000.0;
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,52 @@
+package app.js.service;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The figures behind the {@code /api/system/*} endpoints at one point in time, as sampled by {@link
+ * SystemStatusSampler}.
+ *
+ * @param totalEvents events in {@code wikimedia_events}
+ * @param eventsLastMinute events written by this instance in the last minute, and so on
+ * @param failuresByErrorType failed events per error type, most frequent first
+ * @param recentFailures the most recent failed events, newest first
+ * @param latencies pipeline latency per {@link EventLatencyRecorder.Stage#tag() stage}
+ */
+public record SystemStatusSnapshot(
+    Instant sampledAt,
+    long totalEvents,
+    long eventsLastMinute,
+    long eventsLast5Minutes,
+    long eventsLast15Minutes,
+    long eventsLastHour,
+    int queueSize,
+    long failedTotal,
+    long failedLastMinute,
+    long failedLastHour,
+    long failedRetryable,
+    long failedExhausted,
+    Map<String, Long> failuresByErrorType,
+    List<Failure> recentFailures,
+    Map<String, Latency> latencies) {
+
+  public SystemStatusSnapshot {
+    failuresByErrorType = Collections.unmodifiableMap(new LinkedHashMap<>(failuresByErrorType));
+    recentFailures = List.copyOf(recentFailures);
+    latencies = Collections.unmodifiableMap(new LinkedHashMap<>(latencies));
+  }
+
+  /** A failed event without its payload. */
+  public record Failure(
+      String id, String errorType, String errorMessage, Instant failedAt, int retryCount) {}
+
+  /**
+   * Latency percentiles of one stage over the last few minutes.
+   *
+   * @param count events recorded since startup
+   */
+  public record Latency(long count, double p50Millis, double p99Millis, double p999Millis) {}
+}
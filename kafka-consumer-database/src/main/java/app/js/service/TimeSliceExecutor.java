@@ -0,0 +1,194 @@
+package app.js.service;
+
+import app.js.config.AnalyticsProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Scans a {@code receivedAt} range as consecutive time slices in parallel, so that a long window is
+ * read by several MongoDB range scans at once instead of one. Slice boundaries are multiples of
+ * {@code slice} since the epoch, so a window shorter than a slice is scanned directly on the
+ * calling thread.
+ *
+ * <p>The request thread always takes part; up to {@code max-slices-per-query - 1} pool threads join
+ * it, each taking the next unscanned slice until none are left. Pool threads are drawn from a
+ * budget of {@code max-concurrent-slices} shared by all queries. When the budget is exhausted a
+ * query proceeds with the threads it got, down to the request thread alone, rather than queueing
+ * behind a heavy dashboard.
+ */
+@Service
+public class TimeSliceExecutor {
+
+  private final Duration slice;
+  private final int maxSlicesPerQuery;
+  private final int maxConcurrentSlices;
+  private final Semaphore budget;
+  private final ExecutorService pool;
+  private final Clock clock;
+  private final Counter throttled;
+
+  @Autowired
+  public TimeSliceExecutor(AnalyticsProperties properties, MeterRegistry meterRegistry) {
+    this(properties.getParallel(), meterRegistry, Clock.systemUTC());
+  }
+
+  TimeSliceExecutor(
+      AnalyticsProperties.Parallel properties, MeterRegistry meterRegistry, Clock clock) {
+    this.slice = properties.getSlice();
+    this.maxSlicesPerQuery = Math.max(1, properties.getMaxSlicesPerQuery());
+    this.maxConcurrentSlices = Math.max(0, properties.getMaxConcurrentSlices());
+    this.budget = new Semaphore(maxConcurrentSlices);
+    this.clock = clock;
+
+    AtomicInteger threadId = new AtomicInteger();
+    this.pool =
+        maxSlicesPerQuery > 1 && maxConcurrentSlices > 0
+            ? Executors.newFixedThreadPool(
+                maxConcurrentSlices,
+                r -> {
+                  Thread thread = new Thread(r, "analytics-slice-" + threadId.incrementAndGet());
+                  thread.setDaemon(true);
+                  return thread;
+                })
+            : null;
+
+    this.throttled =
+        Counter.builder("wikimedia.analytics.slices.throttled")
+            .description("Sliced queries that got fewer threads than slices from the shared budget")
+            .register(meterRegistry);
+    Gauge.builder("wikimedia.analytics.slices.active", this, TimeSliceExecutor::activeSlices)
+        .description("Pool threads currently scanning analytics slices")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Applies {@code scanSlice} to each slice of {@code [from, to)} and returns the partial results
+   * in time order, for the caller to merge.
+   *
+   * @param to end of the range, or {@code null} for a range open towards the future; its last slice
+   *     is then passed a {@code null} end as well
+   * @throws RuntimeException the first failure of any slice, after the others have stopped
+   */
+  public <T> List<T> scan(Instant from, Instant to, BiFunction<Instant, Instant, T> scanSlice) {
+    List<Instant> bounds = bounds(from, to);
+    int slices = bounds.size() - 1;
+    if (slices == 1 || pool == null) {
+      List<T> partials = new ArrayList<>(slices);
+      for (int i = 0; i < slices; i++) {
+        partials.add(scanSlice.apply(bounds.get(i), bounds.get(i + 1)));
+      }
+      return partials;
+    }
+
+    Object[] partials = new Object[slices];
+    AtomicInteger next = new AtomicInteger();
+    Runnable worker =
+        () -> {
+          int i;
+          while ((i = next.getAndIncrement()) < slices) {
+            partials[i] = scanSlice.apply(bounds.get(i), bounds.get(i + 1));
+          }
+        };
+
+    int wanted = Math.min(slices, maxSlicesPerQuery) - 1;
+    int helpers = 0;
+    while (helpers < wanted && budget.tryAcquire()) {
+      helpers++;
+    }
+    if (helpers < wanted) {
+      throttled.increment();
+    }
+
+    List<Future<?>> futures = new ArrayList<>(helpers);
+    for (int h = 0; h < helpers; h++) {
+      futures.add(
+          pool.submit(
+              () -> {
+                try {
+                  worker.run();
+                } finally {
+                  budget.release();
+                }
+              }));
+    }
+
+    RuntimeException failure = null;
+    try {
+      worker.run();
+    } catch (RuntimeException e) {
+      failure = e;
+      // the helpers stop after their current slice
+      next.set(slices);
+    }
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        next.set(slices);
+        if (failure == null) {
+          failure =
+              e.getCause() instanceof RuntimeException cause
+                  ? cause
+                  : new IllegalStateException("Analytics slice failed", e.getCause());
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        next.set(slices);
+        if (failure == null) {
+          failure = new IllegalStateException("Interrupted while scanning analytics slices", e);
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+
+    @SuppressWarnings("unchecked")
+    List<T> result = (List<T>) Arrays.asList(partials);
+    return result;
+  }
+
+  /** {@code from}, the slice boundaries inside the range, and {@code to}. */
+  List<Instant> bounds(Instant from, Instant to) {
+    Instant end = to != null ? to : clock.instant();
+    long sliceMillis = Math.max(1, slice.toMillis());
+
+    List<Instant> bounds = new ArrayList<>();
+    bounds.add(from);
+    long boundary = Math.floorDiv(from.toEpochMilli(), sliceMillis) * sliceMillis + sliceMillis;
+    while (boundary < end.toEpochMilli()) {
+      bounds.add(Instant.ofEpochMilli(boundary));
+      boundary += sliceMillis;
+    }
+    bounds.add(to);
+    return bounds;
+  }
+
+  private double activeSlices() {
+    return maxConcurrentSlices - budget.availablePermits();
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (pool != null) {
+      pool.shutdownNow();
+    }
+  }
+}
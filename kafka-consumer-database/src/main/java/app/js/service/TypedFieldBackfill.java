@@ -0,0 +1,170 @@
+package app.js.service;
+
+import app.js.config.AnalyticsProperties;
+import app.js.entity.RollupCheckpoint;
+import app.js.entity.WikimediaEvent;
+import jakarta.annotation.PreDestroy;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+/**
+ * Copies the typed fields into events stored before {@link EventFieldExtractor} ran at ingest. Such
+ * documents have no {@code payloadSize}; until they are backfilled they count towards the totals,
+ * as human edits in the main namespace, but not by wiki or type.
+ *
+ * <p>Runs once on a background thread at startup over the events received before it started, in
+ * {@code receivedAt} order, and records its progress in {@code wikimedia_rollup_checkpoints}, so
+ * that a later start only looks at the events received since. The hours of the events it updates
+ * are folded again by {@link HourlyRollupService}.
+ */
+@Service
+public class TypedFieldBackfill {
+
+  private static final Logger log = LoggerFactory.getLogger(TypedFieldBackfill.class);
+
+  private static final String CHECKPOINT_ID = "typed-fields";
+
+  private final MongoTemplate mongoTemplate;
+  private final HourlyRollupService hourlyRollups;
+  private final int batchSize;
+  private final Clock clock;
+  private final EventFieldExtractor fieldExtractor = new EventFieldExtractor();
+  private final ExecutorService executor;
+
+  @Autowired
+  public TypedFieldBackfill(
+      MongoTemplate mongoTemplate,
+      HourlyRollupService hourlyRollups,
+      AnalyticsProperties properties) {
+    this(mongoTemplate, hourlyRollups, properties.getBackfill(), Clock.systemUTC());
+  }
+
+  TypedFieldBackfill(
+      MongoTemplate mongoTemplate,
+      HourlyRollupService hourlyRollups,
+      AnalyticsProperties.Backfill properties,
+      Clock clock) {
+    this.mongoTemplate = mongoTemplate;
+    this.hourlyRollups = hourlyRollups;
+    this.batchSize = Math.max(1, properties.getBatchSize());
+    this.clock = clock;
+
+    if (properties.isEnabled()) {
+      this.executor =
+          Executors.newSingleThreadExecutor(
+              r -> {
+                Thread thread = new Thread(r, "typed-field-backfill");
+                thread.setDaemon(true);
+                return thread;
+              });
+      executor.execute(this::run);
+    } else {
+      this.executor = null;
+    }
+  }
+
+  private void run() {
+    try {
+      long updated = backfill();
+      if (updated > 0) {
+        log.info("Backfilled the typed fields of {} event(s)", updated);
+      }
+    } catch (Exception e) {
+      log.warn("Typed field backfill failed, resuming with the next start: {}", e.getMessage());
+    }
+  }
+
+  /**
+   * Backfills the events received after the checkpoint and before now.
+   *
+   * @return number of events updated
+   */
+  long backfill() {
+    Instant until = clock.instant();
+    RollupCheckpoint checkpoint = mongoTemplate.findById(CHECKPOINT_ID, RollupCheckpoint.class);
+    Instant from = checkpoint != null ? checkpoint.getLastReceivedAt() : null;
+
+    long updated = 0;
+    while (true) {
+      // backfilled events have a payloadSize, so each query skips the ones updated before it
+      Criteria range = Criteria.where("receivedAt").lt(until);
+      if (from != null) {
+        range = range.gte(from);
+      }
+      Query query =
+          Query.query(range.and("payloadSize").exists(false))
+              .with(Sort.by("receivedAt"))
+              .limit(batchSize);
+      query.fields().include("eventData", "receivedAt");
+      List<WikimediaEvent> events = mongoTemplate.find(query, WikimediaEvent.class);
+      if (events.isEmpty()) {
+        break;
+      }
+
+      BulkOperations bulk =
+          mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, WikimediaEvent.class);
+      for (WikimediaEvent event : events) {
+        bulk.updateOne(Query.query(Criteria.where("_id").is(event.getId())), typedFields(event));
+      }
+      bulk.execute();
+      updated += events.size();
+
+      hourlyRollups.refold(events.get(0).getReceivedAt());
+      from = events.get(events.size() - 1).getReceivedAt();
+      saveCheckpoint(from);
+      if (events.size() < batchSize) {
+        break;
+      }
+    }
+    saveCheckpoint(until);
+    return updated;
+  }
+
+  private Update typedFields(WikimediaEvent stored) {
+    WikimediaEvent typed =
+        fieldExtractor.toEvent(Objects.requireNonNullElse(stored.getEventData(), ""));
+    Update update = Update.update("payloadSize", typed.getPayloadSize());
+    setIfPresent(update, "wiki", typed.getWiki());
+    setIfPresent(update, "type", typed.getType());
+    setIfPresent(update, "user", typed.getUser());
+    setIfPresent(update, "title", typed.getTitle());
+    setIfPresent(update, "bot", typed.getBot());
+    setIfPresent(update, "namespace", typed.getNamespace());
+    setIfPresent(update, "eventTimestamp", typed.getEventTimestamp());
+    return update;
+  }
+
+  private static void setIfPresent(Update update, String field, Object value) {
+    if (value != null) {
+      update.set(field, value);
+    }
+  }
+
+  private void saveCheckpoint(Instant receivedAt) {
+    mongoTemplate.upsert(
+        Query.query(Criteria.where("_id").is(CHECKPOINT_ID)),
+        new Update().max("lastReceivedAt", receivedAt).set("updatedAt", clock.instant()),
+        RollupCheckpoint.class);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+}
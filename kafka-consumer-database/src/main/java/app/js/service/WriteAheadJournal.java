@@ -0,0 +1,438 @@
+package app.js.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local write-ahead journal of submitted events, so that events already acknowledged to Kafka
+ * survive a crash of the pod while they are still queued or being written.
+ *
+ * <p>Submitting threads hand their records to a single writer thread and wait until it has written
+ * and fsynced them. The writer takes everything that arrived during the previous fsync as one
+ * group, so the number of fsyncs stays bounded by the disk latency rather than the event rate.
+ * Records are {@code [int length][int crc32c][UTF-8 payload]} and appended sequentially to segment
+ * files named after their first sequence.
+ *
+ * <p>Every journaled event carries its sequence through the stripe queue and spill. Once an event
+ * has been written to MongoDB or the DLQ, or was rejected by its queue, it is {@link #release
+ * released}; a segment file is deleted when it is no longer written to and all its events are
+ * released. Segments found on startup are {@link #replay replayed} before new events are accepted.
+ * Replay is at-least-once: events persisted shortly before a crash may be written again.
+ */
+class WriteAheadJournal {
+
+  private static final Logger log = LoggerFactory.getLogger(WriteAheadJournal.class);
+
+  private static final String SEGMENT_SUFFIX = ".wal";
+  private static final int HEADER_BYTES = 2 * Integer.BYTES;
+
+  private final Path directory;
+  private final long segmentBytes;
+  private final List<Path> recoveredSegments;
+  private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition workAvailable = lock.newCondition();
+  private final Condition committed = lock.newCondition();
+  private List<byte[]> pending = new ArrayList<>();
+  private long nextSequence;
+  private long durableSequence;
+  private boolean closed;
+  private IOException failure;
+
+  private final Thread writer;
+  private Segment activeSegment;
+  private ByteBuffer writeBuffer = ByteBuffer.allocateDirect(1 << 20);
+
+  private final Timer commitTimer;
+  private final DistributionSummary groupSize;
+  private final Counter replayedCounter;
+
+  WriteAheadJournal(Path directory, long segmentBytes, MeterRegistry meterRegistry) {
+    this.directory = directory;
+    this.segmentBytes = segmentBytes;
+
+    long lastSequence;
+    try {
+      Files.createDirectories(directory);
+      try (Stream<Path> listing = Files.list(directory)) {
+        this.recoveredSegments =
+            listing
+                .filter(p -> p.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                .sorted()
+                .toList();
+      }
+      lastSequence = recoveredSegments.isEmpty() ? -1 : lastSequence(recoveredSegments.getLast());
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot open journal directory " + directory, e);
+    }
+
+    // sequences keep growing across restarts, so events recovered from a spill file never
+    // match a segment of this run
+    this.nextSequence = Math.max(lastSequence + 1, System.currentTimeMillis() * 1000);
+    this.durableSequence = nextSequence - 1;
+
+    this.commitTimer =
+        Timer.builder("wikimedia.persistence.journal.commit")
+            .description("Time to write and fsync one group of journal records")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+    this.groupSize =
+        DistributionSummary.builder("wikimedia.persistence.journal.group.size")
+            .description("Number of events made durable by one journal fsync")
+            .register(meterRegistry);
+    this.replayedCounter =
+        Counter.builder("wikimedia.persistence.journal.replayed")
+            .description("Number of events replayed from the journal on startup")
+            .register(meterRegistry);
+    Gauge.builder("wikimedia.persistence.journal.segments", segments, Map::size)
+        .description("Number of journal segment files holding unreleased events")
+        .register(meterRegistry);
+
+    this.writer = new Thread(this::writeGroups, "event-journal-writer");
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  /**
+   * Writes the events of segments left over from a previous run to {@code sink} in batches of
+   * {@code batchSize}, in journal order, and deletes the segments afterwards. Stops at the first
+   * torn or corrupt record of a segment.
+   *
+   * @return the number of replayed events
+   */
+  int replay(int batchSize, Consumer<List<String>> sink) {
+    int replayed = 0;
+    for (Path file : recoveredSegments) {
+      List<String> batch = new ArrayList<>(batchSize);
+      try {
+        for (String payload : readRecords(file)) {
+          batch.add(payload);
+          if (batch.size() >= batchSize) {
+            sink.accept(List.copyOf(batch));
+            replayed += batch.size();
+            batch.clear();
+          }
+        }
+        if (!batch.isEmpty()) {
+          sink.accept(List.copyOf(batch));
+          replayed += batch.size();
+        }
+        Files.deleteIfExists(file);
+      } catch (IOException e) {
+        log.error("Failed to replay journal segment {}: {}", file, e.getMessage());
+      }
+    }
+
+    if (replayed > 0) {
+      log.info(
+          "Replayed {} event(s) from {} journal segment(s)", replayed, recoveredSegments.size());
+    }
+    replayedCounter.increment(replayed);
+    return replayed;
+  }
+
+  /** Journals one event; see {@link #appendAll}. */
+  IngestEvent append(IngestEvent event) {
+    List<IngestEvent> journaled = appendAll(List.of(event));
+    return journaled == null ? null : journaled.getFirst();
+  }
+
+  /**
+   * Journals the events and waits until they are durable on disk.
+   *
+   * @return the events with their journal sequence, or {@code null} if the journal is closed or
+   *     failed and the events must not be acknowledged
+   */
+  List<IngestEvent> appendAll(List<IngestEvent> events) {
+    List<byte[]> records = new ArrayList<>(events.size());
+    for (IngestEvent event : events) {
+      records.add(encode(event.payload()));
+    }
+
+    List<IngestEvent> journaled = new ArrayList<>(events.size());
+    lock.lock();
+    try {
+      if (closed || failure != null) {
+        return null;
+      }
+      for (int i = 0; i < events.size(); i++) {
+        pending.add(records.get(i));
+        journaled.add(events.get(i).withSequence(nextSequence++));
+      }
+      long lastSequence = nextSequence - 1;
+      workAvailable.signal();
+
+      while (durableSequence < lastSequence) {
+        if (failure != null) {
+          return null;
+        }
+        committed.await();
+      }
+      return journaled;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Marks the events as no longer needing the journal and deletes segments that become fully
+   * released. Events without a sequence of this run are ignored.
+   */
+  void release(Collection<IngestEvent> events) {
+    for (IngestEvent event : events) {
+      if (event.sequence() == IngestEvent.NO_SEQUENCE) {
+        continue;
+      }
+      Map.Entry<Long, Segment> entry = segments.floorEntry(event.sequence());
+      if (entry != null) {
+        Segment segment = entry.getValue();
+        if (segment.unreleased.decrementAndGet() == 0 && !segment.active) {
+          deleteSegment(segment);
+        }
+      }
+    }
+  }
+
+  int segmentCount() {
+    return segments.size();
+  }
+
+  /** Stops accepting events, writes what is pending and deletes fully released segments. */
+  void close() {
+    lock.lock();
+    try {
+      closed = true;
+      workAvailable.signal();
+    } finally {
+      lock.unlock();
+    }
+
+    try {
+      writer.join(10000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    for (Segment segment : segments.values()) {
+      segment.active = false;
+      if (segment.unreleased.get() == 0) {
+        deleteSegment(segment);
+      } else {
+        segment.close();
+      }
+    }
+    if (!segments.isEmpty()) {
+      log.info("{} journal segment(s) left in {} for replay", segments.size(), directory);
+    }
+  }
+
+  private void writeGroups() {
+    List<byte[]> group = new ArrayList<>();
+    while (true) {
+      long lastSequence;
+      lock.lock();
+      try {
+        while (pending.isEmpty() && !closed) {
+          workAvailable.awaitUninterruptibly();
+        }
+        if (pending.isEmpty()) {
+          return;
+        }
+        List<byte[]> taken = pending;
+        pending = group;
+        group = taken;
+        lastSequence = nextSequence - 1;
+      } finally {
+        lock.unlock();
+      }
+
+      long start = System.nanoTime();
+      try {
+        writeGroup(group, lastSequence - group.size() + 1);
+      } catch (IOException e) {
+        log.error("Journal write to {} failed, rejecting further events", directory, e);
+        lock.lock();
+        try {
+          failure = e;
+          committed.signalAll();
+        } finally {
+          lock.unlock();
+        }
+        return;
+      }
+      commitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      groupSize.record(group.size());
+
+      lock.lock();
+      try {
+        durableSequence = lastSequence;
+        committed.signalAll();
+      } finally {
+        lock.unlock();
+      }
+      group.clear();
+    }
+  }
+
+  private void writeGroup(List<byte[]> group, long firstSequence) throws IOException {
+    long sequence = firstSequence;
+    int written = 0;
+    for (byte[] record : group) {
+      if (activeSegment == null || activeSegment.size >= segmentBytes) {
+        flushWriteBuffer(written);
+        written = 0;
+        rollSegment(sequence);
+      }
+      if (writeBuffer.remaining() < record.length) {
+        flushWriteBuffer(written);
+        written = 0;
+        if (writeBuffer.capacity() < record.length) {
+          writeBuffer = ByteBuffer.allocateDirect(record.length);
+        }
+      }
+      writeBuffer.put(record);
+      activeSegment.size += record.length;
+      written++;
+      sequence++;
+    }
+    flushWriteBuffer(written);
+    activeSegment.channel.force(false);
+  }
+
+  private void flushWriteBuffer(int records) throws IOException {
+    if (activeSegment == null) {
+      return;
+    }
+    writeBuffer.flip();
+    while (writeBuffer.hasRemaining()) {
+      activeSegment.channel.write(writeBuffer);
+    }
+    writeBuffer.clear();
+    activeSegment.unreleased.addAndGet(records);
+  }
+
+  private void rollSegment(long firstSequence) throws IOException {
+    Segment previous = activeSegment;
+    Path file = directory.resolve(String.format("%020d%s", firstSequence, SEGMENT_SUFFIX));
+    activeSegment =
+        new Segment(
+            file, FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
+    segments.put(firstSequence, activeSegment);
+
+    if (previous != null) {
+      previous.channel.force(false);
+      previous.active = false;
+      if (previous.unreleased.get() == 0) {
+        deleteSegment(previous);
+      }
+    }
+  }
+
+  private void deleteSegment(Segment segment) {
+    if (!segment.deleted.compareAndSet(false, true)) {
+      return;
+    }
+    segments.values().remove(segment);
+    segment.close();
+    try {
+      Files.deleteIfExists(segment.file);
+    } catch (IOException e) {
+      log.warn("Failed to delete journal segment {}: {}", segment.file, e.getMessage());
+    }
+  }
+
+  private static byte[] encode(String payload) {
+    byte[] data = payload.getBytes(StandardCharsets.UTF_8);
+    CRC32C crc = new CRC32C();
+    crc.update(data);
+    ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + data.length);
+    record.putInt(data.length).putInt((int) crc.getValue()).put(data);
+    return record.array();
+  }
+
+  private static List<String> readRecords(Path file) throws IOException {
+    List<String> payloads = new ArrayList<>();
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      CRC32C crc = new CRC32C();
+      while (buffer.remaining() >= HEADER_BYTES) {
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+          log.warn("Torn journal record in {}, ignoring the rest of the segment", file);
+          break;
+        }
+        byte[] data = new byte[length];
+        buffer.get(data);
+        crc.reset();
+        crc.update(data);
+        if ((int) crc.getValue() != checksum) {
+          log.warn("Corrupt journal record in {}, ignoring the rest of the segment", file);
+          break;
+        }
+        payloads.add(new String(data, StandardCharsets.UTF_8));
+      }
+    }
+    return payloads;
+  }
+
+  private static long lastSequence(Path file) throws IOException {
+    String name = file.getFileName().toString();
+    long first = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    return first + readRecords(file).size() - 1;
+  }
+
+  private static final class Segment {
+
+    private final Path file;
+    private final FileChannel channel;
+    private final AtomicInteger unreleased = new AtomicInteger();
+    private final AtomicBoolean deleted = new AtomicBoolean();
+    private volatile boolean active = true;
+    private long size;
+
+    private Segment(Path file, FileChannel channel) {
+      this.file = file;
+      this.channel = channel;
+    }
+
+    void close() {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        log.warn("Failed to close journal segment {}: {}", file, e.getMessage());
+      }
+    }
+  }
+}
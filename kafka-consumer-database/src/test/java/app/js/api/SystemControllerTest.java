@@ -1,14 +1,28 @@
 package app.js.api;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
+import app.js.config.SystemStatusProperties;
 import app.js.entity.FailedEvent;
+import app.js.entity.WikimediaEvent;
+import app.js.kafka.ConsumerLagMonitor;
+import app.js.kafka.ConsumerLagSnapshot;
 import app.js.repository.FailedEventRepository;
+import app.js.repository.FailedEventRepository.ErrorTypeCount;
 import app.js.repository.WikimediaEventRepository;
+import app.js.service.EventLatencyRecorder;
 import app.js.service.EventPersistenceService;
+import app.js.service.EventRateCounter;
+import app.js.service.SystemStatusSampler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import org.junit.jupiter.api.BeforeEach;
@@ -16,8 +30,9 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
 
 @ExtendWith(MockitoExtension.class)
 class SystemControllerTest {
@@ -28,18 +43,34 @@ class SystemControllerTest {
 
   @Mock private EventPersistenceService persistenceService;
 
+  @Mock private ConsumerLagMonitor lagMonitor;
+
+  private final EventRateCounter rateCounter = new EventRateCounter();
+
   private SystemController systemController;
 
   @BeforeEach
   void setUp() {
+    // sample on every request, so that each test sees its own stubs
+    SystemStatusProperties properties = new SystemStatusProperties();
+    properties.setInterval(Duration.ZERO);
     systemController =
-        new SystemController(eventRepository, failedEventRepository, persistenceService);
+        new SystemController(
+            new SystemStatusSampler(
+                eventRepository,
+                failedEventRepository,
+                persistenceService,
+                rateCounter,
+                new EventLatencyRecorder(new SimpleMeterRegistry()),
+                properties,
+                new SimpleMeterRegistry()),
+            lagMonitor);
   }
 
   @Test
   void shouldReturnHealthyStatus() {
     when(eventRepository.count()).thenReturn(1000L);
-    when(eventRepository.countByReceivedAtAfter(any())).thenReturn(60L);
+    persisted(60);
     when(failedEventRepository.count()).thenReturn(5L);
     when(failedEventRepository.countByFailedAtAfter(any())).thenReturn(0L);
     when(failedEventRepository.countByRetryCountGreaterThanEqual(anyInt())).thenReturn(0L);
@@ -51,12 +82,13 @@ class SystemControllerTest {
     assertThat(result).containsKey("events");
     assertThat(result).containsKey("queue");
     assertThat(result).containsKey("dlq");
+    assertThat(result).containsKey("snapshotAgeMillis");
   }
 
   @Test
   void shouldReturnWarningStatusWhenQueueHigh() {
     when(eventRepository.count()).thenReturn(1000L);
-    when(eventRepository.countByReceivedAtAfter(any())).thenReturn(60L);
+    persisted(60);
     when(failedEventRepository.count()).thenReturn(5L);
     when(failedEventRepository.countByFailedAtAfter(any())).thenReturn(0L);
     when(failedEventRepository.countByRetryCountGreaterThanEqual(anyInt())).thenReturn(0L);
@@ -70,7 +102,7 @@ class SystemControllerTest {
   @Test
   void shouldReturnCriticalStatusWhenQueueCritical() {
     when(eventRepository.count()).thenReturn(1000L);
-    when(eventRepository.countByReceivedAtAfter(any())).thenReturn(60L);
+    persisted(60);
     when(failedEventRepository.count()).thenReturn(5L);
     when(failedEventRepository.countByFailedAtAfter(any())).thenReturn(0L);
     when(failedEventRepository.countByRetryCountGreaterThanEqual(anyInt())).thenReturn(0L);
@@ -88,11 +120,12 @@ class SystemControllerTest {
     failedEvent.setId("test-id-123");
 
     when(failedEventRepository.count()).thenReturn(10L);
-    when(failedEventRepository.findByRetryCountLessThan(anyInt())).thenReturn(List.of(failedEvent));
+    when(failedEventRepository.countByRetryCountLessThan(anyInt())).thenReturn(8L);
     when(failedEventRepository.countByRetryCountGreaterThanEqual(anyInt())).thenReturn(2L);
-    when(failedEventRepository.findAllByOrderByFailedAtDesc(any(Pageable.class)))
-        .thenReturn(new PageImpl<>(List.of(failedEvent)));
-    when(failedEventRepository.findAll()).thenReturn(List.of(failedEvent));
+    when(failedEventRepository.findRecentWithoutPayload(any(Pageable.class)))
+        .thenReturn(List.of(failedEvent));
+    when(failedEventRepository.countPerErrorType(anyInt()))
+        .thenReturn(List.of(new ErrorTypeCount("MongoTimeoutException", 10)));
     when(failedEventRepository.countByFailedAtAfter(any())).thenReturn(5L);
 
     Map<String, Object> result = systemController.getDlqStatus(10);
@@ -104,16 +137,37 @@ class SystemControllerTest {
     @SuppressWarnings("unchecked")
     Map<String, Object> summary = (Map<String, Object>) result.get("summary");
     assertThat(summary.get("total")).isEqualTo(10L);
+    assertThat(summary.get("retryable")).isEqualTo(8L);
     assertThat(summary.get("exhausted")).isEqualTo(2L);
+    assertThat(result.get("byErrorType")).isEqualTo(Map.of("MongoTimeoutException", 10L));
+  }
+
+  @Test
+  void shouldCapTheDlqLimitAtTheFailuresInTheSnapshot() {
+    FailedEvent failedEvent = new FailedEvent("test data", "Connection refused", "Timeout");
+    failedEvent.setId("test-id-123");
+    when(failedEventRepository.findRecentWithoutPayload(any(Pageable.class)))
+        .thenReturn(List.of(failedEvent));
+
+    Map<String, Object> result = systemController.getDlqStatus(500);
+
+    assertThat(result.get("limit")).isEqualTo(100);
+    assertThat(result.get("maxLimit")).isEqualTo(100);
+    assertThat((List<?>) result.get("recentFailures")).hasSize(1);
+  }
+
+  @Test
+  void shouldRejectANegativeDlqLimit() {
+    assertThatThrownBy(() -> systemController.getDlqStatus(-1))
+        .isInstanceOfSatisfying(
+            ResponseStatusException.class,
+            e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST));
+    verifyNoInteractions(failedEventRepository);
   }
 
   @Test
   void shouldReturnThroughputMetrics() {
-    when(eventRepository.countByReceivedAtAfter(any()))
-        .thenReturn(120L)
-        .thenReturn(500L)
-        .thenReturn(1200L)
-        .thenReturn(4500L);
+    persisted(120);
     when(persistenceService.getQueueSize()).thenReturn(50);
 
     Map<String, Object> result = systemController.getThroughput();
@@ -122,11 +176,16 @@ class SystemControllerTest {
     assertThat(result).containsKey("averages");
     assertThat(result).containsKey("totals");
     assertThat(result.get("queueSize")).isEqualTo(50);
+
+    @SuppressWarnings("unchecked")
+    Map<String, Object> totals = (Map<String, Object>) result.get("totals");
+    assertThat(totals.get("lastMinute")).isEqualTo(120L);
+    assertThat(totals.get("lastHour")).isEqualTo(120L);
   }
 
   @Test
   void shouldReturnLatencyEstimate() {
-    when(eventRepository.countByReceivedAtAfter(any())).thenReturn(120L);
+    persisted(120);
     when(persistenceService.getQueueSize()).thenReturn(100);
 
     Map<String, Object> result = systemController.getLatencyEstimate();
@@ -136,11 +195,22 @@ class SystemControllerTest {
     assertThat(result).containsKey("processingRatePerSecond");
     assertThat(result).containsKey("estimatedLatencySeconds");
     assertThat(result).containsKey("estimatedLatencyFormatted");
+    assertThat(result.get("statusBasis")).isEqualTo("queue-estimate");
+
+    @SuppressWarnings("unchecked")
+    Map<String, Object> stages = (Map<String, Object>) result.get("stages");
+    assertThat(stages)
+        .containsOnlyKeys(
+            "event-to-produce",
+            "produce-to-consume",
+            "consume-to-dequeue",
+            "dequeue-to-commit",
+            "produce-to-commit");
   }
 
   @Test
   void shouldReturnGoodLatencyStatus() {
-    when(eventRepository.countByReceivedAtAfter(any())).thenReturn(120L);
+    persisted(120);
     when(persistenceService.getQueueSize()).thenReturn(10);
 
     Map<String, Object> result = systemController.getLatencyEstimate();
@@ -150,7 +220,7 @@ class SystemControllerTest {
 
   @Test
   void shouldReturnWarningLatencyStatus() {
-    when(eventRepository.countByReceivedAtAfter(any())).thenReturn(60L);
+    persisted(60);
     when(persistenceService.getQueueSize()).thenReturn(50);
 
     Map<String, Object> result = systemController.getLatencyEstimate();
@@ -160,7 +230,7 @@ class SystemControllerTest {
 
   @Test
   void shouldReturnCriticalLatencyStatus() {
-    when(eventRepository.countByReceivedAtAfter(any())).thenReturn(60L);
+    persisted(60);
     when(persistenceService.getQueueSize()).thenReturn(100);
 
     Map<String, Object> result = systemController.getLatencyEstimate();
@@ -170,11 +240,46 @@ class SystemControllerTest {
 
   @Test
   void shouldHandleZeroProcessingRate() {
-    when(eventRepository.countByReceivedAtAfter(any())).thenReturn(0L);
     when(persistenceService.getQueueSize()).thenReturn(100);
 
     Map<String, Object> result = systemController.getLatencyEstimate();
 
     assertThat(result.get("estimatedLatencySeconds")).isEqualTo(0.0);
   }
+
+  @Test
+  void shouldReturnConsumerLag() {
+    ConsumerLagSnapshot snapshot =
+        new ConsumerLagSnapshot(
+            Instant.parse("2025-06-01T12:00:00Z"),
+            List.of(
+                new ConsumerLagSnapshot.Partition("events", 0, 90, 95, 100, 5, 10.0, 0.5),
+                new ConsumerLagSnapshot.Partition(
+                    "events", 1, ConsumerLagMonitor.NO_OFFSET, 0, 40, 40, 0.0, Double.NaN)));
+    when(lagMonitor.current()).thenReturn(snapshot);
+    when(lagMonitor.age(snapshot)).thenReturn(Duration.ofSeconds(2));
+
+    Map<String, Object> result = systemController.getConsumerLag();
+
+    assertThat(result.get("snapshotAgeMillis")).isEqualTo(2000L);
+    assertThat(result.get("totalLag")).isEqualTo(45L);
+    // partition 1 is lagging without being consumed, so the time to catch up is unknown
+    assertThat(result.get("maxLagSeconds")).isNull();
+
+    @SuppressWarnings("unchecked")
+    List<Map<String, Object>> partitions = (List<Map<String, Object>>) result.get("partitions");
+    assertThat(partitions).hasSize(2);
+    assertThat(partitions.get(0))
+        .containsEntry("committedOffset", 90L)
+        .containsEntry("position", 95L)
+        .containsEntry("logEndOffset", 100L)
+        .containsEntry("lagSeconds", 0.5);
+    assertThat(partitions.get(1))
+        .containsEntry("committedOffset", null)
+        .containsEntry("lagSeconds", null);
+  }
+
+  private void persisted(int count) {
+    rateCounter.onPersisted(Collections.nCopies(count, new WikimediaEvent("{}")));
+  }
 }
@@ -0,0 +1,117 @@
+package app.js.api;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import app.js.entity.WikimediaEvent;
+import app.js.repository.WikimediaEventRepository;
+import app.js.service.EventPersistenceService;
+import app.js.service.EventRateCounter;
+import app.js.service.SystemStatusSampler;
+import app.js.service.SystemStatusSnapshot;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+@ExtendWith(MockitoExtension.class)
+class WikimediaEventControllerTest {
+
+  private static final Instant NOW = Instant.parse("2025-06-01T12:00:00.123Z");
+
+  @Mock private WikimediaEventRepository repository;
+
+  @Mock private EventPersistenceService persistenceService;
+
+  @Mock private SystemStatusSampler statusSampler;
+
+  private WikimediaEventController controller;
+
+  @BeforeEach
+  void setUp() {
+    controller =
+        new WikimediaEventController(
+            repository, persistenceService, new EventRateCounter(), statusSampler);
+  }
+
+  @Test
+  void shouldReportTheTotalFromTheSampledStatus() {
+    SystemStatusSnapshot snapshot =
+        new SystemStatusSnapshot(
+            NOW, 1234, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, Map.of(), List.of(), Map.of());
+    when(statusSampler.current()).thenReturn(snapshot);
+    when(statusSampler.age(snapshot)).thenReturn(Duration.ofMillis(1500));
+    when(persistenceService.getQueueSize()).thenReturn(7);
+
+    Map<String, Object> stats = controller.getStats();
+
+    assertThat(stats)
+        .containsEntry("totalEvents", 1234L)
+        .containsEntry("snapshotAgeMillis", 1500L)
+        .containsEntry("queueSize", 7);
+    verifyNoInteractions(repository);
+  }
+
+  @Test
+  void shouldReturnASliceWithTheCursorOfItsLastEvent() {
+    List<WikimediaEvent> events =
+        List.of(
+            event("665f1c000000000000000003", NOW),
+            event("665f1c000000000000000002", NOW),
+            event("665f1c000000000000000001", NOW.minusSeconds(1)));
+    when(repository.findNewestAfter(isNull(), isNull(), isNull(), eq(3))).thenReturn(events);
+
+    Map<String, Object> result = controller.getEventSlice(null, 2, null);
+
+    assertThat(result.get("content")).isEqualTo(events.subList(0, 2));
+    assertThat(result.get("numberOfElements")).isEqualTo(2);
+    assertThat(result.get("hasNext")).isEqualTo(true);
+    assertThat(result).doesNotContainKey("totalElements");
+    EventCursor cursor = EventCursor.decode((String) result.get("nextCursor"));
+    assertThat(cursor).isEqualTo(new EventCursor(NOW, "665f1c000000000000000002"));
+  }
+
+  @Test
+  void shouldSeekPastTheCursorForTheNextSlice() {
+    String cursor = new EventCursor(NOW, "665f1c000000000000000002").encode();
+    WikimediaEvent last = event("665f1c000000000000000001", NOW.minusSeconds(1));
+    when(repository.findNewestAfter(NOW, "665f1c000000000000000002", "edit", 3))
+        .thenReturn(List.of(last));
+
+    Map<String, Object> result = controller.getEventSlice(cursor, 2, "edit");
+
+    assertThat(result.get("content")).isEqualTo(List.of(last));
+    assertThat(result.get("hasNext")).isEqualTo(false);
+    assertThat(result.get("nextCursor")).isNull();
+  }
+
+  @Test
+  void shouldRejectInvalidCursorsAndSizes() {
+    assertThatThrownBy(() -> controller.getEventSlice("not a cursor", 20, null))
+        .isInstanceOfSatisfying(
+            ResponseStatusException.class,
+            e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST));
+    assertThatThrownBy(
+            () -> controller.getEventSlice(null, WikimediaEventController.MAX_SLICE_SIZE + 1, null))
+        .isInstanceOf(ResponseStatusException.class);
+    verifyNoInteractions(repository);
+  }
+
+  private static WikimediaEvent event(String id, Instant receivedAt) {
+    WikimediaEvent event = new WikimediaEvent("{}");
+    event.setId(id);
+    event.setReceivedAt(receivedAt);
+    return event;
+  }
+}
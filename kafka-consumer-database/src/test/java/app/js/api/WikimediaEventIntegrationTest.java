@@ -0,0 +1,89 @@
+package app.js.api;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import app.js.ContainersConfig;
+import app.js.entity.WikimediaEvent;
+import app.js.repository.WikimediaEventRepository;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.test.web.servlet.client.MockMvcWebTestClient;
+import org.springframework.web.context.WebApplicationContext;
+
+@SpringBootTest
+@Import(ContainersConfig.class)
+@ActiveProfiles("test")
+class WikimediaEventIntegrationTest {
+
+  private WebTestClient webTestClient;
+
+  @Autowired private WebApplicationContext wac;
+
+  @Autowired private WikimediaEventRepository eventRepository;
+
+  @BeforeEach
+  void setUp() {
+    webTestClient = MockMvcWebTestClient.bindToApplicationContext(wac).build();
+    eventRepository.deleteAll();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void shouldWalkAllEventsNewestFirstWithCursors() {
+    // pairs of events share a receivedAt, so slices have to break ties on _id
+    Instant base = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+    List<WikimediaEvent> seeded = new ArrayList<>();
+    for (int i = 0; i < 7; i++) {
+      WikimediaEvent event = new WikimediaEvent("{\"title\": \"Page" + i + "\"}");
+      event.setReceivedAt(base.minusSeconds(i / 2));
+      seeded.add(event);
+    }
+    eventRepository.saveAll(seeded);
+
+    List<String> walked = new ArrayList<>();
+    String cursor = null;
+    int slices = 0;
+    do {
+      String uri = "/api/events/cursor?size=3" + (cursor == null ? "" : "&cursor=" + cursor);
+      Map<String, Object> body =
+          webTestClient
+              .get()
+              .uri(uri)
+              .exchange()
+              .expectStatus()
+              .isOk()
+              .expectBody(new ParameterizedTypeReference<Map<String, Object>>() {})
+              .returnResult()
+              .getResponseBody();
+      assertThat(body).doesNotContainKey("totalElements");
+      for (Map<String, Object> event : (List<Map<String, Object>>) body.get("content")) {
+        walked.add((String) event.get("id"));
+      }
+      cursor = (String) body.get("nextCursor");
+      slices++;
+    } while (cursor != null);
+
+    List<String> expected =
+        eventRepository.findAll().stream()
+            .sorted(
+                (a, b) -> {
+                  int byTime = b.getReceivedAt().compareTo(a.getReceivedAt());
+                  return byTime != 0 ? byTime : b.getId().compareTo(a.getId());
+                })
+            .map(WikimediaEvent::getId)
+            .toList();
+    assertThat(walked).containsExactlyElementsOf(expected);
+    assertThat(slices).isEqualTo(3);
+  }
+}
@@ -0,0 +1,93 @@
+package app.js.config;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import app.js.kafka.EventQueueFullException;
+import java.time.Duration;
+import java.util.List;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.kafka.listener.ListenerExecutionFailedException;
+import org.springframework.kafka.listener.MessageListenerContainer;
+
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class KafkaListenerConfigTest {
+
+  private static final TopicPartition PARTITION = new TopicPartition("events", 0);
+
+  @Mock private Consumer<String, String> consumer;
+
+  @Mock private MessageListenerContainer container;
+
+  private final DefaultErrorHandler errorHandler =
+      new KafkaListenerConfig().eventListenerErrorHandler(0);
+
+  private final List<ConsumerRecord<?, ?>> records =
+      List.of(new ConsumerRecord<>(PARTITION.topic(), PARTITION.partition(), 42L, null, "{}"));
+
+  @BeforeEach
+  void setUp() {
+    when(container.getContainerProperties()).thenReturn(new ContainerProperties("events"));
+  }
+
+  // a delivery that is sought back rather than recovered ends with "Record in retry"
+  @Test
+  void shouldNeverSkipARecordRejectedOnAFullQueue() {
+    for (int attempt = 0; attempt < 15; attempt++) {
+      assertThatThrownBy(
+              () ->
+                  errorHandler.handleRemaining(
+                      failed(new EventQueueFullException("Event queue still full")),
+                      records,
+                      consumer,
+                      container))
+          .hasMessageContaining("in retry");
+    }
+
+    // each delivery seeks back to the record, so its offset is never committed
+    verify(consumer, times(15)).seek(PARTITION, 42L);
+    verify(consumer, never()).commitSync(anyMap());
+    verify(consumer, never()).commitSync(anyMap(), any(Duration.class));
+  }
+
+  @Test
+  void shouldSkipOtherFailuresAfterTheDefaultAttempts() {
+    for (int attempt = 0; attempt < 9; attempt++) {
+      assertThatThrownBy(
+              () ->
+                  errorHandler.handleRemaining(
+                      failed(new IllegalArgumentException("Malformed")),
+                      records,
+                      consumer,
+                      container))
+          .hasMessageContaining("in retry");
+    }
+
+    // the tenth delivery is recovered (logged and skipped) instead of sought back
+    errorHandler.handleRemaining(
+        failed(new IllegalArgumentException("Malformed")), records, consumer, container);
+    verify(consumer, times(9)).seek(PARTITION, 42L);
+  }
+
+  private static ListenerExecutionFailedException failed(Exception cause) {
+    return new ListenerExecutionFailedException("Listener failed", cause);
+  }
+}
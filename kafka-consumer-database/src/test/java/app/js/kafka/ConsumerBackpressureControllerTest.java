@@ -0,0 +1,94 @@
+package app.js.kafka;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import app.js.config.KafkaListenerConfig;
+import app.js.service.EventPersistenceService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class ConsumerBackpressureControllerTest {
+
+  @Mock private KafkaListenerEndpointRegistry registry;
+
+  @Mock private MessageListenerContainer container;
+
+  @Mock private EventPersistenceService persistenceService;
+
+  private SimpleMeterRegistry meterRegistry;
+
+  private ConsumerBackpressureController controller;
+
+  @BeforeEach
+  void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    when(persistenceService.getStripeQueueCapacity()).thenReturn(100);
+    when(registry.getListenerContainer(KafkaListenerConfig.EVENT_LISTENER_ID))
+        .thenReturn(container);
+    controller =
+        new ConsumerBackpressureController(
+            registry, persistenceService, meterRegistry, 0.8, 0.5, 10);
+  }
+
+  @AfterEach
+  void tearDown() {
+    controller.shutdown();
+  }
+
+  @Test
+  void shouldNotPauseBelowHighWaterMark() {
+    when(persistenceService.getMaxStripeQueueSize()).thenReturn(79);
+
+    controller.onSubmitted();
+
+    verify(container, never()).pause();
+    assertThat(controller.isPaused()).isFalse();
+  }
+
+  @Test
+  void shouldPauseOnceAtHighWaterMark() {
+    when(persistenceService.getMaxStripeQueueSize()).thenReturn(80);
+
+    controller.onSubmitted();
+    controller.onSubmitted();
+
+    verify(container, times(1)).pause();
+    assertThat(controller.isPaused()).isTrue();
+    assertThat(meterRegistry.get("wikimedia.consumer.pauses").counter().count()).isEqualTo(1.0);
+    assertThat(meterRegistry.get("wikimedia.consumer.paused").gauge().value()).isEqualTo(1.0);
+  }
+
+  @Test
+  void shouldResumeAtLowWaterMark() {
+    when(persistenceService.getMaxStripeQueueSize()).thenReturn(90);
+    controller.onSubmitted();
+
+    when(persistenceService.getMaxStripeQueueSize()).thenReturn(60);
+    await().during(100, TimeUnit.MILLISECONDS).until(controller::isPaused);
+
+    when(persistenceService.getMaxStripeQueueSize()).thenReturn(50);
+    await().atMost(2, TimeUnit.SECONDS).until(() -> !controller.isPaused());
+
+    verify(container).resume();
+    assertThat(meterRegistry.get("wikimedia.consumer.resumes").counter().count()).isEqualTo(1.0);
+    assertThat(meterRegistry.get("wikimedia.consumer.paused.duration").timer().count())
+        .isEqualTo(1);
+  }
+}
@@ -0,0 +1,144 @@
+package app.js.kafka;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import app.js.MutableClock;
+import app.js.config.ConsumerLagProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ConsumerLagMonitorTest {
+
+  private static final String TOPIC = "events";
+  private static final TopicPartition P0 = new TopicPartition(TOPIC, 0);
+  private static final TopicPartition P1 = new TopicPartition(TOPIC, 1);
+
+  private final MutableClock clock = new MutableClock(Instant.parse("2025-06-01T12:00:00Z"));
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final Set<TopicPartition> assigned = new HashSet<>();
+  private final Map<TopicPartition, Long> committed = new HashMap<>();
+  private final Map<TopicPartition, Long> logEnd = new HashMap<>();
+
+  private ConsumerLagMonitor monitor;
+
+  @BeforeEach
+  void setUp() {
+    // sampled by the tests calling refresh()
+    ConsumerLagProperties properties = new ConsumerLagProperties();
+    properties.setInterval(Duration.ZERO);
+    monitor =
+        new ConsumerLagMonitor(
+            () -> Set.copyOf(assigned),
+            new ConsumerLagMonitor.OffsetReader() {
+              @Override
+              public Map<TopicPartition, Long> committed(Set<TopicPartition> partitions) {
+                return Map.copyOf(committed);
+              }
+
+              @Override
+              public Map<TopicPartition, Long> logEnd(Set<TopicPartition> partitions) {
+                return Map.copyOf(logEnd);
+              }
+            },
+            TOPIC,
+            properties,
+            meterRegistry,
+            clock);
+  }
+
+  @AfterEach
+  void tearDown() {
+    monitor.shutdown();
+  }
+
+  @Test
+  void shouldReportLagOfEachAssignedPartition() {
+    assigned.addAll(Set.of(P0, P1, new TopicPartition("other", 0)));
+    committed.put(P0, 90L);
+    logEnd.put(P0, 100L);
+    logEnd.put(P1, 40L);
+    monitor.consumed(new ConsumerRecord<>(TOPIC, 0, 94L, null, "{}"));
+
+    monitor.refresh();
+
+    ConsumerLagSnapshot snapshot = monitor.current();
+    assertThat(snapshot.partitions())
+        .extracting(ConsumerLagSnapshot.Partition::partition)
+        .containsExactly(0, 1);
+    ConsumerLagSnapshot.Partition p0 = snapshot.partitions().get(0);
+    assertThat(p0.committedOffset()).isEqualTo(90);
+    assertThat(p0.position()).isEqualTo(95);
+    assertThat(p0.lag()).isEqualTo(5);
+    assertThat(p0.consumedPerSecond()).isNaN();
+    ConsumerLagSnapshot.Partition p1 = snapshot.partitions().get(1);
+    assertThat(p1.committedOffset()).isEqualTo(ConsumerLagMonitor.NO_OFFSET);
+    assertThat(p1.lag()).isEqualTo(40);
+    assertThat(snapshot.totalLag()).isEqualTo(45);
+    assertThat(lagRecords(P0)).isEqualTo(5.0);
+  }
+
+  @Test
+  void shouldEstimateLagInSecondsFromTheConsumptionRate() {
+    assigned.add(P0);
+    committed.put(P0, 100L);
+    logEnd.put(P0, 300L);
+    monitor.refresh();
+    assertThat(monitor.current().maxLagSeconds()).isNaN();
+
+    clock.advance(Duration.ofSeconds(10));
+    monitor.consumed(new ConsumerRecord<>(TOPIC, 0, 199L, null, "{}"));
+    logEnd.put(P0, 400L);
+    monitor.refresh();
+
+    ConsumerLagSnapshot.Partition p0 = monitor.current().partitions().get(0);
+    assertThat(p0.consumedPerSecond()).isEqualTo(10.0);
+    assertThat(p0.lag()).isEqualTo(200);
+    assertThat(p0.lagSeconds()).isEqualTo(20.0);
+    assertThat(
+            meterRegistry
+                .get("wikimedia.consumer.lag.seconds")
+                .tag("partition", "0")
+                .gauge()
+                .value())
+        .isEqualTo(20.0);
+  }
+
+  @Test
+  void shouldStopReportingRevokedPartitions() {
+    assigned.addAll(Set.of(P0, P1));
+    logEnd.put(P0, 10L);
+    logEnd.put(P1, 10L);
+    monitor.refresh();
+    assertThat(lagRecords(P1)).isEqualTo(10.0);
+
+    assigned.remove(P1);
+    clock.advance(Duration.ofSeconds(5));
+    monitor.refresh();
+
+    assertThat(monitor.current().partitions())
+        .extracting(ConsumerLagSnapshot.Partition::partition)
+        .containsExactly(0);
+    assertThat(meterRegistry.find("wikimedia.consumer.lag.records").tag("partition", "1").gauge())
+        .isNull();
+    assertThat(monitor.age(monitor.current())).isEqualTo(Duration.ZERO);
+  }
+
+  private double lagRecords(TopicPartition tp) {
+    return meterRegistry
+        .get("wikimedia.consumer.lag.records")
+        .tag("topic", tp.topic())
+        .tag("partition", String.valueOf(tp.partition()))
+        .gauge()
+        .value();
+  }
+}
@@ -0,0 +1,92 @@
+package app.js.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import app.js.config.PersistenceProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class AdaptiveBatchControllerTest {
+
+  private PersistenceProperties properties;
+  private SimpleMeterRegistry meterRegistry;
+
+  @BeforeEach
+  void setUp() {
+    properties = new PersistenceProperties();
+    properties.setBatchSize(100);
+    properties.setFlushIntervalMs(1000);
+    properties.getAdaptive().setEnabled(true);
+    properties.getAdaptive().setTargetLatencyMs(500);
+    properties.getAdaptive().setMinBatchSize(10);
+    properties.getAdaptive().setMaxBatchSize(1000);
+    properties.getAdaptive().setMinFlushIntervalMs(20);
+    properties.getAdaptive().setMaxFlushIntervalMs(1000);
+    meterRegistry = new SimpleMeterRegistry();
+  }
+
+  @Test
+  void shouldKeepConfiguredValuesWhenDisabled() {
+    properties.getAdaptive().setEnabled(false);
+    AdaptiveBatchController controller = new AdaptiveBatchController(properties, 0, meterRegistry);
+
+    controller.onFlush(100, millis(5), 5000);
+
+    assertThat(controller.batchSize()).isEqualTo(100);
+    assertThat(controller.flushIntervalMs()).isEqualTo(1000);
+    assertThat(meterRegistry.find("wikimedia.persistence.adaptive.batch.size").gauge()).isNull();
+  }
+
+  @Test
+  void shouldGrowBatchWhileBacklogBuildsAndWritesAreFast() {
+    AdaptiveBatchController controller = new AdaptiveBatchController(properties, 0, meterRegistry);
+
+    for (int i = 0; i < 20; i++) {
+      controller.onFlush(controller.batchSize(), millis(10), 5000);
+    }
+
+    assertThat(controller.batchSize()).isEqualTo(1000);
+  }
+
+  @Test
+  void shouldShrinkBatchWhenWritesExceedHalfTheTarget() {
+    AdaptiveBatchController controller = new AdaptiveBatchController(properties, 0, meterRegistry);
+
+    for (int i = 0; i < 20; i++) {
+      controller.onFlush(controller.batchSize(), millis(400), 5000);
+    }
+
+    assertThat(controller.batchSize()).isEqualTo(10);
+  }
+
+  @Test
+  void shouldNotGrowBatchWithoutBacklog() {
+    AdaptiveBatchController controller = new AdaptiveBatchController(properties, 0, meterRegistry);
+
+    controller.onFlush(5, millis(10), 0);
+
+    assertThat(controller.batchSize()).isEqualTo(100);
+  }
+
+  @Test
+  void shouldSetFlushDeadlineToRemainingLatencyBudget() {
+    AdaptiveBatchController controller = new AdaptiveBatchController(properties, 2, meterRegistry);
+
+    controller.onFlush(50, millis(100), 0);
+
+    assertThat(controller.flushIntervalMs()).isEqualTo(400);
+    assertThat(
+            meterRegistry
+                .get("wikimedia.persistence.adaptive.flush.interval")
+                .tag("stripe", "2")
+                .gauge()
+                .value())
+        .isEqualTo(400.0);
+  }
+
+  private static long millis(long millis) {
+    return TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+}
@@ -0,0 +1,172 @@
+package app.js.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import app.js.MutableClock;
+import app.js.config.AnalyticsProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class AnalyticsResultCacheTest {
+
+  private final MutableClock clock = new MutableClock(Instant.parse("2025-06-01T12:00:00Z"));
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final AnalyticsProperties.Cache properties = new AnalyticsProperties().getCache();
+
+  private AnalyticsResultCache cache;
+
+  @BeforeEach
+  void setUp() {
+    properties.setMaxEntries(2);
+    cache = new AnalyticsResultCache(properties, meterRegistry, clock);
+  }
+
+  @Test
+  void shouldReuseResultsUntilTheirWindowDependentTtl() {
+    AtomicInteger loads = new AtomicInteger();
+
+    assertThat(cache.get("by-wiki", 24, loads::incrementAndGet)).isEqualTo(1);
+    assertThat(cache.get("by-wiki", 24, loads::incrementAndGet)).isEqualTo(1);
+    assertThat(cache.get("by-type", 24, loads::incrementAndGet)).isEqualTo(2);
+
+    // a 24-hour window is reused for a minute
+    clock.advance(Duration.ofSeconds(59));
+    assertThat(cache.get("by-wiki", 24, loads::incrementAndGet)).isEqualTo(1);
+    clock.advance(Duration.ofSeconds(1));
+    assertThat(cache.get("by-wiki", 24, loads::incrementAndGet)).isEqualTo(3);
+
+    assertThat(meterRegistry.get("wikimedia.analytics.cache.hit.ratio").gauge().value())
+        .isEqualTo(0.4);
+    assertThat(meterRegistry.get("wikimedia.analytics.cache.load").timer().count()).isEqualTo(3);
+  }
+
+  @Test
+  void shouldClampTheTtl() {
+    assertThat(cache.ttl(1)).isEqualTo(Duration.ofSeconds(5));
+    assertThat(cache.ttl(24)).isEqualTo(Duration.ofMinutes(1));
+    assertThat(cache.ttl(30 * 24)).isEqualTo(Duration.ofMinutes(5));
+  }
+
+  @Test
+  void shouldHandOutUnmodifiableCopies() {
+    Map<String, Object> loaded = new LinkedHashMap<>();
+    loaded.put("totalEvents", 3L);
+    loaded.put("byBot", new LinkedHashMap<>(Map.of("bot", 1L)));
+    loaded.put("top", new ArrayList<>(List.of("enwiki", "dewiki")));
+    loaded.put("since", null);
+
+    Map<String, Object> first = cache.get("breakdown", 24, () -> loaded);
+    loaded.put("totalEvents", 4L);
+
+    Map<String, Object> second = cache.get("breakdown", 24, () -> Map.of());
+    assertThat(second).isSameAs(first).containsEntry("totalEvents", 3L).containsKey("since");
+    assertThat(second.keySet()).containsExactly("totalEvents", "byBot", "top", "since");
+    assertThatThrownBy(() -> second.put("totalEvents", 0L))
+        .isInstanceOf(UnsupportedOperationException.class);
+    @SuppressWarnings("unchecked")
+    Map<String, Long> byBot = (Map<String, Long>) second.get("byBot");
+    assertThatThrownBy(() -> byBot.put("human", 2L))
+        .isInstanceOf(UnsupportedOperationException.class);
+    @SuppressWarnings("unchecked")
+    List<String> top = (List<String>) second.get("top");
+    assertThatThrownBy(() -> top.add("frwiki")).isInstanceOf(UnsupportedOperationException.class);
+  }
+
+  @Test
+  void shouldEvictTheLeastRecentlyUsedEntry() {
+    cache.get("by-wiki", 1, () -> "wiki");
+    cache.get("by-type", 1, () -> "type");
+    cache.get("by-wiki", 1, () -> "reloaded");
+    cache.get("hourly", 1, () -> "hourly");
+
+    assertThat(cache.size()).isEqualTo(2);
+    assertThat(cache.get("by-wiki", 1, () -> "reloaded")).isEqualTo("wiki");
+    assertThat(cache.get("by-type", 1, () -> "reloaded")).isEqualTo("reloaded");
+    assertThat(meterRegistry.get("wikimedia.analytics.cache.evictions").functionCounter().count())
+        .isEqualTo(2);
+  }
+
+  @Test
+  void shouldCollapseConcurrentLoadsIntoOne() throws Exception {
+    CountDownLatch loading = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger loads = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Integer>> results = new ArrayList<>();
+      results.add(
+          executor.submit(
+              () ->
+                  cache.get(
+                      "breakdown",
+                      24,
+                      () -> {
+                        loading.countDown();
+                        await(release);
+                        return loads.incrementAndGet();
+                      })));
+      loading.await(5, TimeUnit.SECONDS);
+      for (int i = 0; i < 3; i++) {
+        results.add(executor.submit(() -> cache.get("breakdown", 24, loads::incrementAndGet)));
+      }
+      release.countDown();
+
+      for (Future<Integer> result : results) {
+        assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo(1);
+      }
+      assertThat(loads).hasValue(1);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void shouldNotCacheFailures() {
+    assertThatThrownBy(
+            () ->
+                cache.get(
+                    "hourly",
+                    24,
+                    () -> {
+                      throw new IllegalStateException("mongo down");
+                    }))
+        .isInstanceOf(IllegalStateException.class);
+
+    assertThat(cache.get("hourly", 24, () -> "recovered")).isEqualTo("recovered");
+  }
+
+  @Test
+  void shouldAlwaysLoadWhenDisabled() {
+    properties.setEnabled(false);
+    AnalyticsResultCache disabled = new AnalyticsResultCache(properties, meterRegistry, clock);
+    AtomicInteger loads = new AtomicInteger();
+
+    disabled.get("by-wiki", 24, loads::incrementAndGet);
+    disabled.get("by-wiki", 24, loads::incrementAndGet);
+
+    assertThat(loads).hasValue(2);
+    assertThat(disabled.size()).isZero();
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
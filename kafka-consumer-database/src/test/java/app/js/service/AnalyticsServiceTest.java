@@ -1,135 +1,149 @@
 package app.js.service;
 
+import static java.time.ZoneOffset.UTC;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import app.js.config.AnalyticsProperties;
+import app.js.entity.WikimediaEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 import org.bson.Document;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Query;
 
 @ExtendWith(MockitoExtension.class)
 class AnalyticsServiceTest {
 
   @Mock private MongoTemplate mongoTemplate;
 
+  @Mock private DistinctCounter distinctCounter;
+
+  @Mock private HourlyRollupService hourlyRollups;
+
   private AnalyticsService analyticsService;
 
   @BeforeEach
   void setUp() {
-    analyticsService = new AnalyticsService(mongoTemplate);
+    // created now, so no window reaching back into the past is covered and queries go to MongoDB
+    analyticsService =
+        new AnalyticsService(
+            mongoTemplate,
+            new RollupEngine(new AnalyticsProperties()),
+            distinctCounter,
+            hourlyRollups,
+            unsliced());
   }
 
   @Test
   void shouldGroupEventsByWiki() {
-    List<Document> events =
-        List.of(
-            createEventDocument("{\"wiki\": \"enwiki\", \"type\": \"edit\"}"),
-            createEventDocument("{\"wiki\": \"enwiki\", \"type\": \"edit\"}"),
-            createEventDocument("{\"wiki\": \"dewiki\", \"type\": \"edit\"}"));
-
-    when(mongoTemplate.find(any(), eq(Document.class), eq("wikimedia_events"))).thenReturn(events);
+    givenAggregationRows(row("enwiki", 2), row("dewiki", 1));
 
     Map<String, Long> result = analyticsService.getEventsByWiki(24);
 
     assertThat(result).containsEntry("enwiki", 2L);
     assertThat(result).containsEntry("dewiki", 1L);
+    List<Document> pipeline = pipeline();
+    assertThat(pipeline.get(0).get("$match", Document.class)).containsKeys("receivedAt", "wiki");
+    assertThat(pipeline.get(1).get("$group", Document.class)).containsEntry("_id", "$wiki");
+    assertThat(pipeline.get(2).get("$sort", Document.class))
+        .containsExactly(Map.entry("count", -1), Map.entry("_id", 1));
   }
 
   @Test
   void shouldGroupEventsByType() {
-    List<Document> events =
-        List.of(
-            createEventDocument("{\"wiki\": \"enwiki\", \"type\": \"edit\"}"),
-            createEventDocument("{\"wiki\": \"enwiki\", \"type\": \"edit\"}"),
-            createEventDocument("{\"wiki\": \"enwiki\", \"type\": \"categorize\"}"));
-
-    when(mongoTemplate.find(any(), eq(Document.class), eq("wikimedia_events"))).thenReturn(events);
+    givenAggregationRows(row("edit", 2), row("categorize", 1));
 
     Map<String, Long> result = analyticsService.getEventsByType(24);
 
-    assertThat(result).containsEntry("edit", 2L);
-    assertThat(result).containsEntry("categorize", 1L);
+    assertThat(result).containsExactly(Map.entry("edit", 2L), Map.entry("categorize", 1L));
+    assertThat(pipeline().get(1).get("$group", Document.class)).containsEntry("_id", "$type");
   }
 
   @Test
   void shouldGetTopUsers() {
-    List<Document> events =
-        List.of(
-            createEventDocument("{\"user\": \"Alice\", \"type\": \"edit\"}"),
-            createEventDocument("{\"user\": \"Alice\", \"type\": \"edit\"}"),
-            createEventDocument("{\"user\": \"Alice\", \"type\": \"edit\"}"),
-            createEventDocument("{\"user\": \"Bob\", \"type\": \"edit\"}"),
-            createEventDocument("{\"user\": \"Bob\", \"type\": \"edit\"}"),
-            createEventDocument("{\"user\": \"Charlie\", \"type\": \"edit\"}"));
-
-    when(mongoTemplate.find(any(), eq(Document.class), eq("wikimedia_events"))).thenReturn(events);
+    givenAggregationRows(row("Alice", 3), row("Bob", 2));
 
-    List<Map<String, Object>> result = analyticsService.getTopUsers(24, 2);
+    List<Map<String, Object>> result = analyticsService.getTopUsers(24, 2, false);
 
     assertThat(result).hasSize(2);
     assertThat(result.get(0).get("user")).isEqualTo("Alice");
     assertThat(result.get(0).get("count")).isEqualTo(3L);
     assertThat(result.get(1).get("user")).isEqualTo("Bob");
     assertThat(result.get(1).get("count")).isEqualTo(2L);
+    assertThat(pipeline().getLast()).isEqualTo(new Document("$limit", 2L));
   }
 
   @Test
   void shouldGetTopPages() {
-    List<Document> events =
-        List.of(
-            createEventDocument("{\"title\": \"Main Page\", \"type\": \"edit\"}"),
-            createEventDocument("{\"title\": \"Main Page\", \"type\": \"edit\"}"),
-            createEventDocument("{\"title\": \"Test Article\", \"type\": \"edit\"}"));
+    givenAggregationRows(row("Main Page", 2), row("Test Article", 1));
 
-    when(mongoTemplate.find(any(), eq(Document.class), eq("wikimedia_events"))).thenReturn(events);
-
-    List<Map<String, Object>> result = analyticsService.getTopPages(24, 10);
+    List<Map<String, Object>> result = analyticsService.getTopPages(24, 10, false);
 
     assertThat(result).hasSize(2);
     assertThat(result.get(0).get("title")).isEqualTo("Main Page");
     assertThat(result.get(0).get("count")).isEqualTo(2L);
+    List<Document> pipeline = pipeline();
+    assertThat(pipeline.get(1).get("$group", Document.class)).containsEntry("_id", "$title");
+    assertThat(pipeline.getLast()).isEqualTo(new Document("$limit", 10L));
   }
 
   @Test
   void shouldGetEventBreakdown() {
-    List<Document> events =
-        List.of(
-            createEventDocument("{\"bot\": true, \"namespace\": 0}"),
-            createEventDocument("{\"bot\": false, \"namespace\": 0}"),
-            createEventDocument("{\"bot\": false, \"namespace\": 1}"),
-            createEventDocument("{\"bot\": true, \"namespace\": 2}"));
-
-    when(mongoTemplate.find(any(), eq(Document.class), eq("wikimedia_events"))).thenReturn(events);
+    givenAggregationRows(
+        breakdownRow(true, 0, 1),
+        breakdownRow(false, 0, 1),
+        breakdownRow(false, 1, 1),
+        breakdownRow(true, 2, 1),
+        breakdownRow(false, 0, 3));
 
     Map<String, Object> result = analyticsService.getEventBreakdown(24);
 
-    assertThat(result.get("totalEvents")).isEqualTo(4L);
+    assertThat(result.get("totalEvents")).isEqualTo(7L);
 
     @SuppressWarnings("unchecked")
     Map<String, Long> byBot = (Map<String, Long>) result.get("byBot");
     assertThat(byBot.get("bot")).isEqualTo(2L);
-    assertThat(byBot.get("human")).isEqualTo(2L);
+    assertThat(byBot.get("human")).isEqualTo(5L);
 
     @SuppressWarnings("unchecked")
     Map<String, Long> byNamespace = (Map<String, Long>) result.get("byNamespace");
-    assertThat(byNamespace.get("Main")).isEqualTo(2L);
+    assertThat(byNamespace.get("Main")).isEqualTo(5L);
     assertThat(byNamespace.get("Talk")).isEqualTo(1L);
     assertThat(byNamespace.get("User")).isEqualTo(1L);
+
+    // events without a bot flag or namespace are grouped as human edits in the main namespace
+    Document project = pipeline().get(1).get("$project", Document.class);
+    assertThat(project.get("bot", Document.class).getList("$ifNull", Object.class))
+        .containsExactly("$bot", false);
+    assertThat(project.get("namespace", Document.class).getList("$ifNull", Object.class))
+        .containsExactly("$namespace", 0);
   }
 
   @Test
   void shouldHandleEmptyResults() {
-    when(mongoTemplate.find(any(), eq(Document.class), eq("wikimedia_events")))
-        .thenReturn(List.of());
+    givenAggregationRows();
 
     Map<String, Long> result = analyticsService.getEventsByWiki(24);
 
@@ -137,45 +151,251 @@ class AnalyticsServiceTest {
   }
 
   @Test
-  void shouldHandleMalformedJson() {
-    List<Document> events =
-        List.of(
-            createEventDocument("not valid json"), createEventDocument("{\"wiki\": \"enwiki\"}"));
+  void shouldNeverFetchRawDocuments() {
+    givenAggregationRows(row("enwiki", 1));
 
-    when(mongoTemplate.find(any(), eq(Document.class), eq("wikimedia_events"))).thenReturn(events);
+    analyticsService.getEventsByWiki(24);
 
-    Map<String, Long> result = analyticsService.getEventsByWiki(24);
+    Document match = pipeline().get(0).get("$match", Document.class);
+    assertThat(match.get("wiki", Document.class).getList("$nin", Object.class))
+        .containsExactly(null, "");
+    verify(mongoTemplate, never()).find(any(Query.class), any(), any());
+  }
 
-    assertThat(result).containsEntry("enwiki", 1L);
+  @Test
+  void shouldStreamRowsThroughABatchedCursor() {
+    givenAggregationRows(breakdownRow(true, 0, 1));
+
+    analyticsService.getEventBreakdown(72);
+
+    ArgumentCaptor<Aggregation> captor = ArgumentCaptor.forClass(Aggregation.class);
+    verify(mongoTemplate)
+        .aggregateStream(captor.capture(), eq("wikimedia_events"), eq(Document.class));
+    assertThat(captor.getValue().getOptions().isAllowDiskUse()).isTrue();
+    assertThat(captor.getValue().getOptions().getCursorBatchSize())
+        .isEqualTo(AnalyticsService.CURSOR_BATCH_SIZE);
+    verify(mongoTemplate, never()).aggregate(any(Aggregation.class), anyString(), any());
   }
 
   @Test
   void shouldGetHourlyDistribution() {
+    Instant hour = Instant.now().truncatedTo(ChronoUnit.HOURS);
+    givenAggregationRows(
+        new Document("_id", Date.from(hour.minus(1, ChronoUnit.HOURS))).append("count", 1),
+        new Document("_id", Date.from(hour)).append("count", 2));
+
+    Map<String, Long> result = analyticsService.getHourlyDistribution(24);
+
+    assertThat(result)
+        .containsExactly(
+            Map.entry(hour.minus(1, ChronoUnit.HOURS).toString(), 1L),
+            Map.entry(hour.toString(), 2L));
+    Document project = pipeline().get(1).get("$project", Document.class);
+    assertThat(project.get("hour", Document.class).get("$dateTrunc", Document.class))
+        .containsEntry("date", "$receivedAt")
+        .containsEntry("unit", "hour");
+  }
+
+  @Test
+  void shouldAnswerWindowsWithinTheRollupsWithoutMongo() {
     Instant now = Instant.now();
-    List<Document> events =
+    RollupEngine rollups =
+        new RollupEngine(
+            new AnalyticsProperties().getRollup(),
+            Clock.fixed(now.minus(3, ChronoUnit.HOURS), UTC));
+    rollups.onPersisted(
         List.of(
-            createEventDocumentWithTime("{\"type\": \"edit\"}", now),
-            createEventDocumentWithTime("{\"type\": \"edit\"}", now),
-            createEventDocumentWithTime("{\"type\": \"edit\"}", now.minusSeconds(3600)));
+            event(now.minus(30, ChronoUnit.MINUTES), "enwiki", "edit", true, 0),
+            event(now.minus(20, ChronoUnit.MINUTES), "enwiki", "edit", false, 1),
+            event(now.minus(10, ChronoUnit.MINUTES), "dewiki", "log", false, 0)));
+    AnalyticsService service =
+        new AnalyticsService(mongoTemplate, rollups, distinctCounter, hourlyRollups, unsliced());
+
+    assertThat(service.getEventsByWiki(1))
+        .containsExactly(Map.entry("enwiki", 2L), Map.entry("dewiki", 1L));
+    assertThat(service.getEventsByType(1)).containsEntry("edit", 2L).containsEntry("log", 1L);
+    assertThat(service.getHourlyDistribution(2).values().stream().mapToLong(Long::longValue).sum())
+        .isEqualTo(3);
+    @SuppressWarnings("unchecked")
+    Map<String, Long> byNamespace =
+        (Map<String, Long>) service.getEventBreakdown(1).get("byNamespace");
+    assertThat(byNamespace).containsEntry("Main", 2L).containsEntry("Talk", 1L);
+    verify(mongoTemplate, never()).aggregateStream(any(Aggregation.class), anyString(), any());
+  }
 
-    when(mongoTemplate.find(any(), eq(Document.class), eq("wikimedia_events"))).thenReturn(events);
+  @Test
+  void shouldServeTopUsersFromSketchesUnlessExactIsRequested() {
+    Instant now = Instant.now();
+    RollupEngine rollups =
+        new RollupEngine(
+            new AnalyticsProperties().getRollup(),
+            Clock.fixed(now.minus(3, ChronoUnit.HOURS), UTC));
+    WikimediaEvent edit = event(now.minus(5, ChronoUnit.MINUTES), "enwiki", "edit", false, 0);
+    edit.setUser("Alice");
+    rollups.onPersisted(List.of(edit, edit));
+    AnalyticsService service =
+        new AnalyticsService(mongoTemplate, rollups, distinctCounter, hourlyRollups, unsliced());
+
+    List<Map<String, Object>> estimated = service.getTopUsers(1, 10, false);
+    assertThat(estimated).hasSize(1);
+    assertThat(estimated.get(0))
+        .containsEntry("user", "Alice")
+        .containsEntry("count", 2L)
+        .containsEntry("error", 0L);
+    verify(mongoTemplate, never()).aggregateStream(any(Aggregation.class), anyString(), any());
+
+    givenAggregationRows(row("Alice", 2));
+    assertThat(service.getTopUsers(1, 10, true).get(0)).doesNotContainKey("error");
+    assertThat(pipeline().get(1).get("$group", Document.class)).containsEntry("_id", "$user");
+  }
 
-    Map<String, Long> result = analyticsService.getHourlyDistribution(24);
+  @Test
+  void shouldReadFullHoursFromHourlyRollupsAndOnlyTheEdgesFromEvents() {
+    Instant checkpoint = Instant.now().truncatedTo(ChronoUnit.HOURS);
+    when(hourlyRollups.checkpoint()).thenReturn(checkpoint);
+    when(hourlyRollups.sumByKey(eq("wiki"), any(), eq(checkpoint)))
+        .thenReturn(Map.of("enwiki", 500L, "dewiki", 40L));
+    givenAggregationRows(row("dewiki", 480), row("frwiki", 3));
+
+    Map<String, Long> result = analyticsService.getEventsByWiki(30 * 24);
+
+    // a 30-day window ending now starts at a partial hour, so there are two raw edges
+    assertThat(result)
+        .containsExactly(
+            Map.entry("dewiki", 1000L), Map.entry("enwiki", 500L), Map.entry("frwiki", 6L));
+    ArgumentCaptor<Instant> rolledFrom = ArgumentCaptor.forClass(Instant.class);
+    verify(hourlyRollups).sumByKey(eq("wiki"), rolledFrom.capture(), eq(checkpoint));
+    assertThat(rolledFrom.getValue())
+        .isEqualTo(checkpoint.minus(30 * 24 - 1, ChronoUnit.HOURS))
+        .isEqualTo(rolledFrom.getValue().truncatedTo(ChronoUnit.HOURS));
+
+    ArgumentCaptor<Aggregation> captor = ArgumentCaptor.forClass(Aggregation.class);
+    verify(mongoTemplate, times(2))
+        .aggregateStream(captor.capture(), eq("wikimedia_events"), eq(Document.class));
+    Document head = captor.getAllValues().get(0).toPipeline(Aggregation.DEFAULT_CONTEXT).get(0);
+    Document tail = captor.getAllValues().get(1).toPipeline(Aggregation.DEFAULT_CONTEXT).get(0);
+    assertThat(head.get("$match", Document.class).get("receivedAt", Document.class))
+        .containsKeys("$gte", "$lt");
+    assertThat(tail.get("$match", Document.class).get("receivedAt", Document.class))
+        .containsOnlyKeys("$gte");
+  }
 
-    assertThat(result).hasSize(2);
+  @Test
+  void shouldCombineHourlyRollupsIntoTheBreakdown() {
+    Instant checkpoint = Instant.now().truncatedTo(ChronoUnit.HOURS);
+    when(hourlyRollups.checkpoint()).thenReturn(checkpoint);
+    when(hourlyRollups.sumByKey(eq(HourlyRollupService.TOTAL), any(), any()))
+        .thenReturn(Map.of(HourlyRollupService.ALL, 10L));
+    when(hourlyRollups.sumByKey(eq("bot"), any(), any()))
+        .thenReturn(Map.of("true", 4L, "false", 6L));
+    when(hourlyRollups.sumByKey(eq("namespace"), any(), any())).thenReturn(Map.of("0", 10L));
+    givenAggregationRows(breakdownRow(true, 0, 1));
+
+    Map<String, Object> result = analyticsService.getEventBreakdown(48);
+
+    // the rollups plus one row for each of the two edges
+    assertThat(result.get("totalEvents")).isEqualTo(12L);
+    assertThat(result.get("byBot")).isEqualTo(Map.of("bot", 6L, "human", 6L));
+    assertThat(result.get("byNamespace")).isEqualTo(Map.of("Main", 12L));
+  }
+
+  @Test
+  void shouldReportDistinctCountsWithTheirError() {
+    Instant since = Instant.parse("2025-06-01T10:00:00Z");
+    when(distinctCounter.count(any()))
+        .thenReturn(new DistinctCounter.Distinct(120, 4500, 15, since, 0.01625));
+
+    Map<String, Object> all = analyticsService.getDistinctCounts(24);
+    Map<String, Object> pages = analyticsService.getDistinctCount("pages", 24);
+
+    assertThat(all)
+        .containsEntry("users", 120L)
+        .containsEntry("pages", 4500L)
+        .containsEntry("wikis", 15L)
+        .containsEntry("since", "2025-06-01T10:00:00Z")
+        .containsEntry("relativeError", 0.01625);
+    assertThat(pages).containsEntry("dimension", "pages").containsEntry("count", 4500L);
+  }
+
+  @Test
+  void shouldMergeThePartialCountsOfParallelSlices() {
+    AnalyticsProperties.Parallel parallel = new AnalyticsProperties().getParallel();
+    parallel.setSlice(Duration.ofHours(6));
+    parallel.setMaxConcurrentSlices(4);
+    TimeSliceExecutor slices =
+        new TimeSliceExecutor(parallel, new SimpleMeterRegistry(), Clock.systemUTC());
+    AnalyticsService service =
+        new AnalyticsService(
+            mongoTemplate,
+            new RollupEngine(new AnalyticsProperties()),
+            distinctCounter,
+            hourlyRollups,
+            slices);
+    givenAggregationRows(row("enwiki", 2), row("dewiki", 1));
+
+    try {
+      Map<String, Long> result = service.getEventsByWiki(24);
+
+      // 24 hours from a point within a slice cover five 6-hour slices, unless it is on a boundary
+      ArgumentCaptor<Aggregation> captor = ArgumentCaptor.forClass(Aggregation.class);
+      verify(mongoTemplate, atLeast(4))
+          .aggregateStream(captor.capture(), eq("wikimedia_events"), eq(Document.class));
+      int scanned = captor.getAllValues().size();
+      assertThat(result)
+          .containsExactly(Map.entry("enwiki", 2L * scanned), Map.entry("dewiki", 1L * scanned));
+      assertThat(captor.getAllValues())
+          .extracting(
+              aggregation ->
+                  aggregation
+                      .toPipeline(Aggregation.DEFAULT_CONTEXT)
+                      .get(0)
+                      .get("$match", Document.class)
+                      .get("receivedAt", Document.class))
+          .filteredOn(range -> !range.containsKey("$lt"))
+          .hasSize(1);
+    } finally {
+      slices.shutdown();
+    }
+  }
+
+  /** Scans every range as a single slice, so each query runs one pipeline per raw range. */
+  private static TimeSliceExecutor unsliced() {
+    AnalyticsProperties.Parallel parallel = new AnalyticsProperties().getParallel();
+    parallel.setSlice(Duration.ofDays(100_000));
+    parallel.setMaxSlicesPerQuery(1);
+    return new TimeSliceExecutor(parallel, new SimpleMeterRegistry(), Clock.systemUTC());
+  }
+
+  private static WikimediaEvent event(
+      Instant receivedAt, String wiki, String type, boolean bot, int namespace) {
+    WikimediaEvent event = new WikimediaEvent("{}");
+    event.setReceivedAt(receivedAt);
+    event.setWiki(wiki);
+    event.setType(type);
+    event.setBot(bot);
+    event.setNamespace(namespace);
+    return event;
+  }
+
+  private void givenAggregationRows(Document... rows) {
+    when(mongoTemplate.aggregateStream(
+            any(Aggregation.class), eq("wikimedia_events"), eq(Document.class)))
+        .thenAnswer(invocation -> Stream.of(rows));
+  }
+
+  private List<Document> pipeline() {
+    ArgumentCaptor<Aggregation> captor = ArgumentCaptor.forClass(Aggregation.class);
+    verify(mongoTemplate)
+        .aggregateStream(captor.capture(), eq("wikimedia_events"), eq(Document.class));
+    return captor.getValue().toPipeline(Aggregation.DEFAULT_CONTEXT);
   }
 
-  private Document createEventDocument(String eventData) {
-    Document doc = new Document();
-    doc.put("eventData", eventData);
-    doc.put("receivedAt", java.util.Date.from(Instant.now()));
-    return doc;
+  private static Document row(String key, long count) {
+    return new Document("_id", key).append("count", count);
   }
 
-  private Document createEventDocumentWithTime(String eventData, Instant time) {
-    Document doc = new Document();
-    doc.put("eventData", eventData);
-    doc.put("receivedAt", java.util.Date.from(time));
-    return doc;
+  private static Document breakdownRow(boolean bot, int namespace, int count) {
+    return new Document("_id", new Document("bot", bot).append("namespace", namespace))
+        .append("count", count);
   }
 }
@@ -1,46 +1,68 @@
 package app.js.service;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.awaitility.Awaitility.await;
 import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
+import app.js.config.AnalyticsProperties;
+import app.js.config.PersistenceProperties;
 import app.js.entity.FailedEvent;
+import app.js.entity.WikimediaEvent;
 import app.js.repository.FailedEventRepository;
-import app.js.repository.WikimediaEventRepository;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Instant;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.bson.BsonDocument;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.kafka.core.KafkaTemplate;
 
 @ExtendWith(MockitoExtension.class)
 class DeadLetterQueueTest {
 
-  @Mock private WikimediaEventRepository eventRepository;
+  @Mock private MongoTemplate mongoTemplate;
+
+  @Mock private BulkOperations bulkOperations;
 
   @Mock private FailedEventRepository failedEventRepository;
 
   @Mock private KafkaTemplate<String, String> kafkaTemplate;
 
+  private final RollupEngine rollups = new RollupEngine(new AnalyticsProperties());
+
   private EventPersistenceService service;
 
   @BeforeEach
   void setUp() {
+    lenient()
+        .when(mongoTemplate.bulkOps(BulkMode.UNORDERED, WikimediaEvent.class))
+        .thenReturn(bulkOperations);
+    lenient().when(bulkOperations.insert(anyList())).thenReturn(bulkOperations);
+
     service =
         new EventPersistenceService(
-            eventRepository,
+            mongoTemplate,
             failedEventRepository,
             kafkaTemplate,
             new SimpleMeterRegistry(),
             "test-dlq-topic",
-            100,
-            5,
-            200);
+            properties(100, 5, 200),
+            new EventLatencyRecorder(new SimpleMeterRegistry()),
+            List.of(rollups));
   }
 
   @AfterEach
@@ -50,8 +72,7 @@ class DeadLetterQueueTest {
 
   @Test
   void shouldSaveToDeadLetterQueueOnPersistenceFailure() {
-    when(eventRepository.saveAll(anyList()))
-        .thenThrow(new RuntimeException("MongoDB connection failed"));
+    when(bulkOperations.execute()).thenThrow(new RuntimeException("MongoDB connection failed"));
 
     for (int i = 0; i < 5; i++) {
       service.submit("{\"id\": " + i + "}");
@@ -65,10 +86,65 @@ class DeadLetterQueueTest {
             });
   }
 
+  @Test
+  @SuppressWarnings("unchecked")
+  void shouldOnlyRouteRejectedDocumentsToDeadLetterQueue() {
+    // the worker may split the events over several batches, so reject {"id": 2} wherever it lands
+    AtomicReference<List<WikimediaEvent>> inserted = new AtomicReference<>();
+    when(bulkOperations.insert(anyList()))
+        .thenAnswer(
+            invocation -> {
+              inserted.set(invocation.getArgument(0, List.class));
+              return bulkOperations;
+            });
+    when(bulkOperations.execute())
+        .thenAnswer(
+            _ -> {
+              List<WikimediaEvent> batch = inserted.get();
+              int index =
+                  batch.stream().map(WikimediaEvent::getEventData).toList().indexOf("{\"id\": 2}");
+              if (index < 0) {
+                return null;
+              }
+              BulkOperationException bulkFailure = mock(BulkOperationException.class);
+              when(bulkFailure.getErrors())
+                  .thenReturn(
+                      List.of(
+                          new BulkWriteError(
+                              11000, "E11000 duplicate key", new BsonDocument(), index)));
+              when(bulkFailure.getResult())
+                  .thenReturn(
+                      BulkWriteResult.acknowledged(
+                          batch.size() - 1, 0, 0, 0, List.of(), List.of()));
+              throw bulkFailure;
+            });
+
+    for (int i = 0; i < 5; i++) {
+      service.submit("{\"id\": " + i + "}");
+    }
+
+    await()
+        .atMost(3, TimeUnit.SECONDS)
+        .untilAsserted(
+            () -> {
+              verify(failedEventRepository)
+                  .save(
+                      argThat(
+                          failedEvent ->
+                              failedEvent.getEventData().equals("{\"id\": 2}")
+                                  && failedEvent.getErrorType().equals("BulkWriteError")
+                                  && failedEvent.getErrorMessage().startsWith("E11000")));
+            });
+    verify(failedEventRepository, times(1)).save(any(FailedEvent.class));
+    verify(kafkaTemplate, times(1)).send(anyString(), anyString());
+    // only the inserted events are rolled up
+    assertThat(rollups.breakdown(Instant.EPOCH).total()).isEqualTo(4);
+  }
+
   @Test
   void shouldCaptureErrorDetailsInDeadLetterQueue() {
     String errorMessage = "Duplicate key error";
-    when(eventRepository.saveAll(anyList())).thenThrow(new IllegalStateException(errorMessage));
+    when(bulkOperations.execute()).thenThrow(new IllegalStateException(errorMessage));
 
     service.submit("{\"test\": \"event\"}");
 
@@ -88,9 +164,9 @@ class DeadLetterQueueTest {
 
   @Test
   void shouldContinueProcessingAfterFailure() {
-    when(eventRepository.saveAll(anyList()))
+    when(bulkOperations.execute())
         .thenThrow(new RuntimeException("First batch fails"))
-        .thenReturn(List.of());
+        .thenReturn(null);
 
     for (int i = 0; i < 5; i++) {
       service.submit("{\"batch1\": " + i + "}");
@@ -100,10 +176,10 @@ class DeadLetterQueueTest {
         .atMost(2, TimeUnit.SECONDS)
         .untilAsserted(
             () -> {
-              verify(eventRepository, atLeastOnce()).saveAll(anyList());
+              verify(bulkOperations, atLeastOnce()).execute();
             });
 
-    reset(eventRepository);
+    clearInvocations(bulkOperations);
 
     for (int i = 0; i < 5; i++) {
       service.submit("{\"batch2\": " + i + "}");
@@ -113,13 +189,13 @@ class DeadLetterQueueTest {
         .atMost(2, TimeUnit.SECONDS)
         .untilAsserted(
             () -> {
-              verify(eventRepository, atLeastOnce()).saveAll(anyList());
+              verify(bulkOperations, atLeastOnce()).execute();
             });
   }
 
   @Test
   void shouldHandlePartialBatchFailure() {
-    when(eventRepository.saveAll(anyList())).thenThrow(new RuntimeException("Batch insert failed"));
+    when(bulkOperations.execute()).thenThrow(new RuntimeException("Batch insert failed"));
 
     int eventCount = 10;
     for (int i = 0; i < eventCount; i++) {
@@ -136,7 +212,7 @@ class DeadLetterQueueTest {
 
   @Test
   void failedEventShouldHaveTimestamp() {
-    when(eventRepository.saveAll(anyList())).thenThrow(new RuntimeException("DB error"));
+    when(bulkOperations.execute()).thenThrow(new RuntimeException("DB error"));
 
     service.submit("{\"test\": \"event\"}");
 
@@ -148,4 +224,13 @@ class DeadLetterQueueTest {
                   .save(argThat(failedEvent -> failedEvent.getFailedAt() != null));
             });
   }
+
+  private static PersistenceProperties properties(
+      int queueCapacity, int batchSize, long flushIntervalMs) {
+    PersistenceProperties properties = new PersistenceProperties();
+    properties.setQueueCapacity(queueCapacity);
+    properties.setBatchSize(batchSize);
+    properties.setFlushIntervalMs(flushIntervalMs);
+    return properties;
+  }
 }
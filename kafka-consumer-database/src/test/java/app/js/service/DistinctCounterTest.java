@@ -0,0 +1,150 @@
+package app.js.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import app.js.config.AnalyticsProperties;
+import app.js.entity.DistinctSketch;
+import app.js.entity.WikimediaEvent;
+import app.js.repository.DistinctSketchRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class DistinctCounterTest {
+
+  @Mock private DistinctSketchRepository repository;
+
+  private DistinctCounter counter;
+
+  @BeforeEach
+  void setUp() {
+    AnalyticsProperties.Distinct properties = new AnalyticsProperties().getDistinct();
+    // snapshots are triggered by the tests
+    properties.setSnapshotInterval(Duration.ZERO);
+    counter = new DistinctCounter(repository, properties, new SimpleMeterRegistry());
+  }
+
+  @Test
+  void shouldCountDistinctValuesOfBucketsInTheWindow() {
+    Instant now = Instant.now();
+    counter.onPersisted(
+        List.of(
+            event(now.minus(Duration.ofHours(2)), "Alice", "Main Page", "enwiki"),
+            event(now.minus(Duration.ofMinutes(30)), "Alice", "Main Page", "enwiki"),
+            event(now.minus(Duration.ofMinutes(20)), "Bob", "Other", "dewiki"),
+            event(now, "Bob", "", "dewiki")));
+
+    DistinctCounter.Distinct lastHour = counter.count(now.minus(Duration.ofMinutes(40)));
+    DistinctCounter.Distinct lastDay = counter.count(now.minus(Duration.ofHours(24)));
+
+    assertThat(lastHour.users()).isEqualTo(2);
+    assertThat(lastHour.pages()).isEqualTo(2);
+    assertThat(lastHour.wikis()).isEqualTo(2);
+    assertThat(lastHour.since()).isBeforeOrEqualTo(now.minus(Duration.ofMinutes(40)));
+    assertThat(lastDay.users()).isEqualTo(2);
+    assertThat(lastHour.relativeError()).isCloseTo(0.01625, within(1e-5));
+  }
+
+  @Test
+  void shouldUnionSnapshotsOfOtherInstances() {
+    Instant now = Instant.now();
+    counter.onPersisted(List.of(event(now, "Alice", "Main Page", "enwiki")));
+
+    HyperLogLog otherUsers = new HyperLogLog(12);
+    otherUsers.add("Alice");
+    otherUsers.add("Carol");
+    HyperLogLog otherPages = new HyperLogLog(12);
+    otherPages.add("Main Page");
+    when(repository.streamByBucketStartGreaterThanEqual(any()))
+        .thenReturn(
+            Stream.of(
+                new DistinctSketch(
+                    now.minus(Duration.ofMinutes(30)),
+                    "other-instance",
+                    otherUsers.toBytes(),
+                    otherPages.toBytes(),
+                    new HyperLogLog(12).toBytes())));
+
+    DistinctCounter.Distinct distinct = counter.count(now.minus(Duration.ofHours(1)));
+
+    assertThat(distinct.users()).isEqualTo(2);
+    assertThat(distinct.pages()).isEqualTo(1);
+    assertThat(distinct.wikis()).isEqualTo(1);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void shouldOnlySnapshotChangedBuckets() {
+    Instant now = Instant.now();
+    counter.onPersisted(
+        List.of(
+            event(now.minus(Duration.ofHours(1)), "Alice", "Main Page", "enwiki"),
+            event(now, "Bob", "Other", "dewiki")));
+
+    counter.snapshot();
+    counter.snapshot();
+    counter.onPersisted(List.of(event(now, "Carol", "Other", "dewiki")));
+    counter.snapshot();
+
+    ArgumentCaptor<List<DistinctSketch>> saved = ArgumentCaptor.forClass(List.class);
+    verify(repository, times(2)).saveAll(saved.capture());
+    assertThat(saved.getAllValues().get(0)).hasSize(2);
+    List<DistinctSketch> second = saved.getAllValues().get(1);
+    assertThat(second).hasSize(1);
+    assertThat(HyperLogLog.fromBytes(second.get(0).getUsers()).estimate()).isEqualTo(2);
+    assertThat(second.get(0).getId()).endsWith(second.get(0).getInstance());
+  }
+
+  @Test
+  void shouldRetryFailedSnapshots() {
+    counter.onPersisted(List.of(event(Instant.now(), "Alice", "Main Page", "enwiki")));
+    when(repository.saveAll(anyList()))
+        .thenThrow(new IllegalStateException("connection lost"))
+        .thenReturn(List.of());
+
+    counter.snapshot();
+    counter.snapshot();
+    counter.snapshot();
+
+    verify(repository, times(2)).saveAll(anyList());
+  }
+
+  @Test
+  void shouldOnlyReadSnapshotsWhenDisabled() {
+    AnalyticsProperties.Distinct properties = new AnalyticsProperties().getDistinct();
+    properties.setEnabled(false);
+    DistinctCounter disabled =
+        new DistinctCounter(repository, properties, new SimpleMeterRegistry());
+
+    disabled.onPersisted(List.of(event(Instant.now(), "Alice", "Main Page", "enwiki")));
+    disabled.snapshot();
+
+    assertThat(disabled.count(Instant.now().minus(Duration.ofHours(1))).users()).isZero();
+    verify(repository, never()).saveAll(anyList());
+  }
+
+  private static WikimediaEvent event(Instant receivedAt, String user, String title, String wiki) {
+    WikimediaEvent event = new WikimediaEvent("{}");
+    event.setReceivedAt(receivedAt);
+    event.setUser(user);
+    event.setTitle(title);
+    event.setWiki(wiki);
+    return event;
+  }
+}
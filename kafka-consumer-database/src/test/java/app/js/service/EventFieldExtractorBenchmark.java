@@ -0,0 +1,99 @@
+package app.js.service;
+
+import app.js.entity.WikimediaEvent;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Extracting the typed fields of one recent-change event with the streaming {@link
+ * EventFieldExtractor} versus building a {@code JsonNode} tree with {@code readTree}, over the
+ * sample payloads in {@code wikimedia/recentchange-sample.jsonl} (edit, Wikidata bot edit,
+ * categorize, log and a non-ASCII edit). Scores are events per second.
+ *
+ * <p>Run with {@code mvn -pl kafka-consumer-database test-compile exec:exec -Dexec.executable=java
+ * -Dexec.classpathScope=test -Dexec.args="-cp %classpath org.openjdk.jmh.Main
+ * EventFieldExtractorBenchmark -prof gc"}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EventFieldExtractorBenchmark {
+
+  private static final int SAMPLES = 5;
+
+  private final EventFieldExtractor extractor = new EventFieldExtractor();
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private List<String> payloads;
+
+  @Setup
+  public void setUp() throws IOException {
+    try (BufferedReader reader =
+        new BufferedReader(
+            new InputStreamReader(
+                getClass().getResourceAsStream("/wikimedia/recentchange-sample.jsonl"),
+                StandardCharsets.UTF_8))) {
+      payloads = reader.lines().filter(line -> !line.isBlank()).toList();
+    }
+    if (payloads.size() != SAMPLES) {
+      throw new IllegalStateException("Expected " + SAMPLES + " sample payloads");
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SAMPLES)
+  public void streaming(Blackhole blackhole) {
+    for (String payload : payloads) {
+      blackhole.consume(extractor.toEvent(payload));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SAMPLES)
+  public void readTree(Blackhole blackhole) {
+    for (String payload : payloads) {
+      blackhole.consume(readTree(payload));
+    }
+  }
+
+  /** The tree-based extraction the streaming extractor replaced. */
+  private WikimediaEvent readTree(String payload) {
+    WikimediaEvent event = new WikimediaEvent(payload);
+    event.setPayloadSize(EventFieldExtractor.utf8Length(payload));
+    try {
+      JsonNode json = objectMapper.readTree(payload);
+      event.setWiki(json.path("wiki").asText(null));
+      event.setType(json.path("type").asText(null));
+      event.setUser(json.path("user").asText(null));
+      event.setTitle(json.path("title").asText(null));
+      event.setBot(json.path("bot").asBoolean());
+      event.setNamespace(json.path("namespace").asInt());
+      event.setEventTimestamp(Instant.ofEpochSecond(json.path("timestamp").asLong()));
+    } catch (JsonProcessingException e) {
+      // keep raw data only
+    }
+    return event;
+  }
+}
@@ -0,0 +1,103 @@
+package app.js.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import app.js.entity.WikimediaEvent;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class EventFieldExtractorTest {
+
+  private final EventFieldExtractor extractor = new EventFieldExtractor();
+
+  @Test
+  void shouldExtractTypedFields() {
+    String json =
+        """
+        {"meta": {"dt": "2025-01-15T10:00:00Z"}, "type": "edit", "namespace": 4,
+         "title": "Wikipedia:Sandbox", "user": "Alice", "bot": false,
+         "timestamp": 1736935201, "wiki": "enwiki"}
+        """;
+
+    WikimediaEvent event = extractor.toEvent(json);
+
+    assertThat(event.getEventData()).isEqualTo(json);
+    assertThat(event.getReceivedAt()).isNotNull();
+    assertThat(event.getWiki()).isEqualTo("enwiki");
+    assertThat(event.getType()).isEqualTo("edit");
+    assertThat(event.getUser()).isEqualTo("Alice");
+    assertThat(event.getTitle()).isEqualTo("Wikipedia:Sandbox");
+    assertThat(event.getBot()).isFalse();
+    assertThat(event.getNamespace()).isEqualTo(4);
+    assertThat(event.getEventTimestamp()).isEqualTo(Instant.ofEpochSecond(1736935201));
+    assertThat(event.getPayloadSize()).isEqualTo(json.length());
+  }
+
+  @Test
+  void shouldFallBackToMetaTimestamp() {
+    WikimediaEvent event = extractor.toEvent("{\"meta\": {\"dt\": \"2025-01-15T10:00:00Z\"}}");
+
+    assertThat(event.getEventTimestamp()).isEqualTo(Instant.parse("2025-01-15T10:00:00Z"));
+    assertThat(event.getWiki()).isNull();
+    assertThat(event.getBot()).isNull();
+  }
+
+  @Test
+  void shouldKeepOnlyRawDataForMalformedEvents() {
+    WikimediaEvent event = extractor.toEvent("not valid json");
+
+    assertThat(event.getEventData()).isEqualTo("not valid json");
+    assertThat(event.getPayloadSize()).isEqualTo(14);
+    assertThat(event.getType()).isNull();
+    assertThat(event.getNamespace()).isNull();
+    assertThat(event.getEventTimestamp()).isNull();
+  }
+
+  @Test
+  void shouldCountPayloadSizeInUtf8Bytes() {
+    WikimediaEvent event = extractor.toEvent("{\"title\": \"Zürich 東京 😀\"}");
+
+    assertThat(event.getPayloadSize())
+        .isEqualTo("{\"title\": \"Zürich 東京 😀\"}".getBytes(StandardCharsets.UTF_8).length);
+    assertThat(event.getTitle()).isEqualTo("Zürich 東京 😀");
+  }
+
+  @Test
+  void shouldSkipNestedObjectsAndDropFieldsOfTruncatedEvents() {
+    WikimediaEvent nested =
+        extractor.toEvent(
+            "{\"length\": {\"wiki\": \"nested\"}, \"log_params\": [{\"user\": \"x\"}],"
+                + " \"wiki\": \"enwiki\", \"user\": {\"name\": \"x\"}}");
+    assertThat(nested.getWiki()).isEqualTo("enwiki");
+    assertThat(nested.getUser()).isNull();
+
+    WikimediaEvent truncated = extractor.toEvent("{\"wiki\": \"enwiki\", \"type\": \"ed");
+    assertThat(truncated.getWiki()).isNull();
+    assertThat(truncated.getType()).isNull();
+  }
+
+  @Test
+  void shouldExtractSamplePayloads() throws Exception {
+    try (var lines =
+        Files.lines(
+            Path.of(getClass().getResource("/wikimedia/recentchange-sample.jsonl").toURI()))) {
+      List<WikimediaEvent> events = lines.map(extractor::toEvent).toList();
+
+      assertThat(events)
+          .extracting(WikimediaEvent::getWiki)
+          .containsExactly("enwiki", "wikidatawiki", "commonswiki", "dewiki", "jawiki");
+      assertThat(events)
+          .extracting(WikimediaEvent::getType)
+          .containsExactly("edit", "edit", "categorize", "log", "edit");
+      assertThat(events)
+          .extracting(WikimediaEvent::getBot)
+          .containsExactly(false, true, false, false, false);
+      assertThat(events.get(4).getTitle()).isEqualTo("東京都");
+      assertThat(events).allMatch(event -> event.getEventTimestamp() != null);
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package app.js.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import app.js.entity.WikimediaEvent;
+import app.js.service.EventLatencyRecorder.Stage;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.Test;
+
+class EventLatencyRecorderTest {
+
+  private static final Instant NOW = Instant.parse("2025-06-01T12:00:00Z");
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final AtomicLong nanos = new AtomicLong(-5_000_000_000L);
+  private final EventLatencyRecorder recorder =
+      new EventLatencyRecorder(meterRegistry, Clock.fixed(NOW, ZoneOffset.UTC), nanos::get);
+
+  @Test
+  void shouldRecordEveryStageOfAStampedEvent() {
+    IngestEvent consumed = recorder.consumed(record(NOW.toEpochMilli() - 250));
+    assertThat(consumed.partition()).isEqualTo(2);
+    assertThat(consumed.sentAtMillis()).isEqualTo(NOW.toEpochMilli() - 250);
+
+    nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(40));
+    IngestEvent dequeued = recorder.dequeued(consumed);
+    nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(15));
+    WikimediaEvent event = new WikimediaEvent("{}");
+    event.setEventTimestamp(NOW.minusSeconds(2));
+    recorder.committed(List.of(dequeued), List.of(event));
+
+    assertThat(totalMillis(Stage.PRODUCE_TO_CONSUME)).isEqualTo(250);
+    assertThat(totalMillis(Stage.CONSUME_TO_DEQUEUE)).isEqualTo(40);
+    assertThat(totalMillis(Stage.DEQUEUE_TO_COMMIT)).isEqualTo(15);
+    assertThat(totalMillis(Stage.PRODUCE_TO_COMMIT)).isEqualTo(250);
+    assertThat(totalMillis(Stage.EVENT_TO_PRODUCE)).isEqualTo(1750);
+  }
+
+  @Test
+  void shouldSkipStagesWithoutTimestamps() {
+    // events read back from the spill queue have no listener timestamps
+    IngestEvent dequeued = recorder.dequeued(new IngestEvent(0, "{}", 7));
+    nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(20));
+    recorder.committed(List.of(dequeued), List.of(new WikimediaEvent("{}")));
+
+    assertThat(count(Stage.CONSUME_TO_DEQUEUE)).isZero();
+    assertThat(count(Stage.DEQUEUE_TO_COMMIT)).isEqualTo(1);
+    assertThat(count(Stage.PRODUCE_TO_COMMIT)).isZero();
+    assertThat(count(Stage.EVENT_TO_PRODUCE)).isZero();
+    assertThat(recorder.consumed(new ConsumerRecord<>("topic", 0, 0L, null, "{}")).sentAtMillis())
+        .isEqualTo(IngestEvent.NO_TIMESTAMP);
+  }
+
+  @Test
+  void shouldReportPercentiles() {
+    for (int i = 1; i <= 1000; i++) {
+      recorder.consumed(record(NOW.toEpochMilli() - i));
+    }
+
+    HistogramSnapshot snapshot = recorder.snapshot().get(Stage.PRODUCE_TO_CONSUME);
+    assertThat(snapshot.count()).isEqualTo(1000);
+    assertThat(snapshot.percentileValues())
+        .extracting(ValueAtPercentile::percentile)
+        .containsExactly(0.5, 0.99, 0.999);
+    assertThat(snapshot.percentileValues()[0].value(TimeUnit.MILLISECONDS)).isBetween(450.0, 550.0);
+  }
+
+  private static ConsumerRecord<String, String> record(long sentAtMillis) {
+    ConsumerRecord<String, String> record = new ConsumerRecord<>("topic", 2, 0L, null, "{}");
+    record
+        .headers()
+        .add(
+            EventLatencyRecorder.SENT_AT_HEADER,
+            Long.toString(sentAtMillis).getBytes(StandardCharsets.UTF_8));
+    return record;
+  }
+
+  private double totalMillis(Stage stage) {
+    return timer(stage).totalTime(TimeUnit.MILLISECONDS);
+  }
+
+  private long count(Stage stage) {
+    return timer(stage).count();
+  }
+
+  private Timer timer(Stage stage) {
+    return meterRegistry.get("wikimedia.events.latency").tag("stage", stage.tag()).timer();
+  }
+}
@@ -5,44 +5,67 @@ import static org.awaitility.Awaitility.await;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.Mockito.*;
 
+import app.js.config.AnalyticsProperties;
+import app.js.config.PersistenceProperties;
 import app.js.entity.WikimediaEvent;
 import app.js.repository.FailedEventRepository;
-import app.js.repository.WikimediaEventRepository;
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.util.unit.DataSize;
 
 @ExtendWith(MockitoExtension.class)
 class EventPersistenceServiceTest {
 
-  @Mock private WikimediaEventRepository eventRepository;
+  @Mock private MongoTemplate mongoTemplate;
+
+  @Mock private BulkOperations bulkOperations;
 
   @Mock private FailedEventRepository failedEventRepository;
 
   @Mock private KafkaTemplate<String, String> kafkaTemplate;
 
+  private final RollupEngine rollups = new RollupEngine(new AnalyticsProperties());
+
   private EventPersistenceService service;
 
   @BeforeEach
   void setUp() {
+    lenient()
+        .when(mongoTemplate.bulkOps(BulkMode.UNORDERED, WikimediaEvent.class))
+        .thenReturn(bulkOperations);
+    lenient().when(bulkOperations.insert(anyList())).thenReturn(bulkOperations);
+
     service =
         new EventPersistenceService(
-            eventRepository,
+            mongoTemplate,
             failedEventRepository,
             kafkaTemplate,
             new SimpleMeterRegistry(),
             "test-dlq-topic",
-            100,
-            10,
-            500);
+            properties(100, 10, 500),
+            new EventLatencyRecorder(new SimpleMeterRegistry()),
+            List.of(rollups));
   }
 
   @AfterEach
@@ -56,6 +79,19 @@ class EventPersistenceServiceTest {
     assertThat(result).isTrue();
   }
 
+  @Test
+  void shouldSubmitAllEventsOfPoll() {
+    int accepted =
+        service.submitAll(
+            List.of(
+                new IngestEvent(0, "{\"id\": 1}"),
+                new IngestEvent(1, "{\"id\": 2}"),
+                new IngestEvent(0, "{\"id\": 3}")),
+            Duration.ofMillis(100));
+
+    assertThat(accepted).isEqualTo(3);
+  }
+
   @Test
   void shouldBatchAndPersistEvents() {
     for (int i = 0; i < 10; i++) {
@@ -66,7 +102,7 @@ class EventPersistenceServiceTest {
         .atMost(2, TimeUnit.SECONDS)
         .untilAsserted(
             () -> {
-              verify(eventRepository, atLeastOnce()).saveAll(anyList());
+              verify(bulkOperations, atLeastOnce()).execute();
             });
   }
 
@@ -78,7 +114,7 @@ class EventPersistenceServiceTest {
         .atMost(2, TimeUnit.SECONDS)
         .untilAsserted(
             () -> {
-              verify(eventRepository, atLeastOnce()).saveAll(anyList());
+              verify(bulkOperations, atLeastOnce()).execute();
             });
   }
 
@@ -94,7 +130,7 @@ class EventPersistenceServiceTest {
         .atMost(2, TimeUnit.SECONDS)
         .untilAsserted(
             () -> {
-              verify(eventRepository, atLeastOnce()).saveAll(captor.capture());
+              verify(bulkOperations, atLeastOnce()).insert(captor.capture());
             });
 
     List<WikimediaEvent> savedEvents = captor.getValue();
@@ -104,7 +140,7 @@ class EventPersistenceServiceTest {
 
   @Test
   void shouldHandleRepositoryFailure() {
-    when(eventRepository.saveAll(anyList())).thenThrow(new RuntimeException("DB error"));
+    when(bulkOperations.execute()).thenThrow(new RuntimeException("DB error"));
 
     service.submit("{\"fail\": \"event\"}");
 
@@ -120,14 +156,14 @@ class EventPersistenceServiceTest {
   void shouldRejectWhenQueueFull() {
     EventPersistenceService smallQueueService =
         new EventPersistenceService(
-            eventRepository,
+            mongoTemplate,
             failedEventRepository,
             kafkaTemplate,
             new SimpleMeterRegistry(),
             "test-dlq-topic",
-            5,
-            100,
-            10000);
+            properties(5, 100, 10000),
+            new EventLatencyRecorder(new SimpleMeterRegistry()),
+            List.of(rollups));
 
     try {
       for (int i = 0; i < 10; i++) {
@@ -140,6 +176,342 @@ class EventPersistenceServiceTest {
     }
   }
 
+  @Test
+  void shouldWaitForQueueSpaceWhenSubmittingWithTimeout() {
+    EventPersistenceService smallQueueService =
+        new EventPersistenceService(
+            mongoTemplate,
+            failedEventRepository,
+            kafkaTemplate,
+            new SimpleMeterRegistry(),
+            "test-dlq-topic",
+            properties(5, 2, 10000),
+            new EventLatencyRecorder(new SimpleMeterRegistry()),
+            List.of(rollups));
+
+    try {
+      for (int i = 0; i < 20; i++) {
+        assertThat(
+                smallQueueService.submit(
+                    IngestEvent.of("{\"id\": " + i + "}"), Duration.ofSeconds(2)))
+            .isTrue();
+      }
+    } finally {
+      smallQueueService.shutdown();
+    }
+  }
+
+  @Test
+  void shouldPersistEventsThroughRingBufferQueue() {
+    PersistenceProperties properties = properties(100, 10, 500);
+    properties.setQueueType(PersistenceProperties.QueueType.RING);
+    EventPersistenceService ringService =
+        new EventPersistenceService(
+            mongoTemplate,
+            failedEventRepository,
+            kafkaTemplate,
+            new SimpleMeterRegistry(),
+            "test-dlq-topic",
+            properties,
+            new EventLatencyRecorder(new SimpleMeterRegistry()),
+            List.of(rollups));
+
+    try {
+      for (int i = 0; i < 10; i++) {
+        assertThat(ringService.submit("{\"id\": " + i + "}")).isTrue();
+      }
+
+      await()
+          .atMost(2, TimeUnit.SECONDS)
+          .untilAsserted(() -> verify(bulkOperations, atLeastOnce()).execute());
+      assertThat(ringService.getQueueCapacity()).isEqualTo(128);
+    } finally {
+      ringService.shutdown();
+    }
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void shouldKeepPartitionOrderAcrossStripes() {
+    PersistenceProperties properties = properties(100, 1000, 200);
+    properties.setStripes(2);
+    EventPersistenceService stripedService =
+        new EventPersistenceService(
+            mongoTemplate,
+            failedEventRepository,
+            kafkaTemplate,
+            new SimpleMeterRegistry(),
+            "test-dlq-topic",
+            properties,
+            new EventLatencyRecorder(new SimpleMeterRegistry()),
+            List.of(rollups));
+
+    try {
+      for (int i = 0; i < 5; i++) {
+        for (int partition = 0; partition < 4; partition++) {
+          stripedService.submit(
+              new IngestEvent(partition, "p" + partition + "-" + i), Duration.ZERO);
+        }
+      }
+
+      ArgumentCaptor<List<WikimediaEvent>> captor = ArgumentCaptor.forClass(List.class);
+      await()
+          .atMost(2, TimeUnit.SECONDS)
+          .untilAsserted(() -> verify(bulkOperations, times(2)).insert(captor.capture()));
+
+      for (List<WikimediaEvent> batch : captor.getAllValues()) {
+        assertThat(batch).hasSize(10);
+        List<String> data = batch.stream().map(WikimediaEvent::getEventData).toList();
+        for (int partition = 0; partition < 4; partition++) {
+          String prefix = "p" + partition + "-";
+          List<String> ofPartition = data.stream().filter(d -> d.startsWith(prefix)).toList();
+          if (!ofPartition.isEmpty()) {
+            assertThat(ofPartition)
+                .containsExactly(prefix + 0, prefix + 1, prefix + 2, prefix + 3, prefix + 4);
+          }
+        }
+      }
+    } finally {
+      stripedService.shutdown();
+    }
+  }
+
+  @Test
+  void shouldPipelineBatchWritesUpToMaxInFlight() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger concurrentWrites = new AtomicInteger();
+    AtomicInteger maxConcurrentWrites = new AtomicInteger();
+    when(bulkOperations.execute())
+        .thenAnswer(
+            _ -> {
+              maxConcurrentWrites.accumulateAndGet(concurrentWrites.incrementAndGet(), Math::max);
+              release.await(5, TimeUnit.SECONDS);
+              concurrentWrites.decrementAndGet();
+              return null;
+            });
+
+    PersistenceProperties properties = properties(100, 2, 10000);
+    properties.setMaxInFlightBatches(3);
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    EventPersistenceService pipelinedService =
+        new EventPersistenceService(
+            mongoTemplate,
+            failedEventRepository,
+            kafkaTemplate,
+            meterRegistry,
+            "test-dlq-topic",
+            properties,
+            new EventLatencyRecorder(new SimpleMeterRegistry()),
+            List.of(rollups));
+
+    try {
+      for (int i = 0; i < 10; i++) {
+        pipelinedService.submit("{\"id\": " + i + "}");
+      }
+
+      await()
+          .atMost(2, TimeUnit.SECONDS)
+          .untilAsserted(
+              () ->
+                  assertThat(
+                          meterRegistry
+                              .get("wikimedia.persistence.batches.in-flight")
+                              .gauge()
+                              .value())
+                      .isEqualTo(3.0));
+      assertThat(maxConcurrentWrites.get()).isEqualTo(3);
+
+      release.countDown();
+      await()
+          .atMost(2, TimeUnit.SECONDS)
+          .untilAsserted(() -> verify(bulkOperations, times(5)).execute());
+      assertThat(maxConcurrentWrites.get()).isEqualTo(3);
+      assertThat(meterRegistry.get("wikimedia.persistence.batch.write").timer().count())
+          .isEqualTo(5);
+    } finally {
+      release.countDown();
+      pipelinedService.shutdown();
+    }
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void shouldSpillToDiskWhenQueueIsFullAndDrainInOrder(@TempDir Path spillDirectory)
+      throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    when(bulkOperations.execute())
+        .thenAnswer(
+            _ -> {
+              release.await(5, TimeUnit.SECONDS);
+              return null;
+            });
+
+    PersistenceProperties properties = properties(4, 2, 50);
+    properties.getSpill().setEnabled(true);
+    properties.getSpill().setDirectory(spillDirectory.toString());
+    properties.getSpill().setThresholdRatio(0.5);
+    properties.getSpill().setSegmentSize(DataSize.ofKilobytes(1));
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    EventPersistenceService spillingService =
+        new EventPersistenceService(
+            mongoTemplate,
+            failedEventRepository,
+            kafkaTemplate,
+            meterRegistry,
+            "test-dlq-topic",
+            properties,
+            new EventLatencyRecorder(new SimpleMeterRegistry()),
+            List.of(rollups));
+
+    try {
+      for (int i = 0; i < 50; i++) {
+        assertThat(spillingService.submit("e" + i)).isTrue();
+      }
+      assertThat(spillingService.getQueueSize()).isLessThanOrEqualTo(4);
+      assertThat(meterRegistry.get("wikimedia.persistence.spill.spilled").counter().count())
+          .isPositive();
+
+      release.countDown();
+      await()
+          .atMost(5, TimeUnit.SECONDS)
+          .untilAsserted(
+              () -> {
+                // a fresh captor per attempt, as a captor keeps the values of earlier attempts
+                ArgumentCaptor<List<WikimediaEvent>> inserted = ArgumentCaptor.forClass(List.class);
+                verify(bulkOperations, atLeastOnce()).insert(inserted.capture());
+                assertThat(inserted.getAllValues().stream().mapToInt(List::size).sum())
+                    .isGreaterThanOrEqualTo(50);
+              });
+
+      ArgumentCaptor<List<WikimediaEvent>> captor = ArgumentCaptor.forClass(List.class);
+      verify(bulkOperations, atLeastOnce()).insert(captor.capture());
+      List<String> persisted =
+          captor.getAllValues().stream()
+              .flatMap(List::stream)
+              .map(WikimediaEvent::getEventData)
+              .toList();
+      assertThat(persisted)
+          .containsExactlyElementsOf(IntStream.range(0, 50).mapToObj(i -> "e" + i).toList());
+    } finally {
+      release.countDown();
+      spillingService.shutdown();
+    }
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void shouldRejectRatherThanOvertakeSpilledEventsWhenTheDiskBudgetIsUsedUp(
+      @TempDir Path spillDirectory) throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    when(bulkOperations.execute())
+        .thenAnswer(
+            _ -> {
+              release.await(5, TimeUnit.SECONDS);
+              return null;
+            });
+
+    // a single 1 KB segment holds 8 of these events
+    PersistenceProperties properties = properties(4, 2, 50);
+    properties.setStripes(1);
+    properties.getSpill().setEnabled(true);
+    properties.getSpill().setDirectory(spillDirectory.toString());
+    properties.getSpill().setThresholdRatio(0.5);
+    properties.getSpill().setSegmentSize(DataSize.ofKilobytes(1));
+    properties.getSpill().setMaxSize(DataSize.ofKilobytes(1));
+    EventPersistenceService spillingService =
+        new EventPersistenceService(
+            mongoTemplate,
+            failedEventRepository,
+            kafkaTemplate,
+            new SimpleMeterRegistry(),
+            "test-dlq-topic",
+            properties,
+            new EventLatencyRecorder(new SimpleMeterRegistry()),
+            List.of(rollups));
+
+    try {
+      List<String> accepted = new ArrayList<>();
+      for (int i = 0; i < 30; i++) {
+        String eventData = "e" + i + "-" + "x".repeat(96);
+        if (spillingService.submit(eventData)) {
+          accepted.add(eventData);
+        }
+      }
+      // the events past the disk budget were turned away, not queued ahead of the spilled ones
+      assertThat(accepted).hasSizeLessThan(30);
+      assertThat(
+              spillingService.submit(
+                  IngestEvent.of("late-" + "x".repeat(96)), Duration.ofMillis(50)))
+          .isFalse();
+
+      release.countDown();
+      await()
+          .atMost(5, TimeUnit.SECONDS)
+          .untilAsserted(
+              () -> {
+                ArgumentCaptor<List<WikimediaEvent>> inserted = ArgumentCaptor.forClass(List.class);
+                verify(bulkOperations, atLeastOnce()).insert(inserted.capture());
+                assertThat(inserted.getAllValues().stream().mapToInt(List::size).sum())
+                    .isEqualTo(accepted.size());
+              });
+
+      ArgumentCaptor<List<WikimediaEvent>> captor = ArgumentCaptor.forClass(List.class);
+      verify(bulkOperations, atLeastOnce()).insert(captor.capture());
+      assertThat(
+              captor.getAllValues().stream()
+                  .flatMap(List::stream)
+                  .map(WikimediaEvent::getEventData)
+                  .toList())
+          .containsExactlyElementsOf(accepted);
+    } finally {
+      release.countDown();
+      spillingService.shutdown();
+    }
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void shouldReplayJournaledEventsOnStartup(@TempDir Path journalDirectory) throws Exception {
+    WriteAheadJournal previousRun =
+        new WriteAheadJournal(journalDirectory, 1 << 20, new SimpleMeterRegistry());
+    previousRun.append(new IngestEvent(0, "queued-before-crash-1"));
+    previousRun.append(new IngestEvent(1, "queued-before-crash-2"));
+    previousRun.close();
+
+    PersistenceProperties properties = properties(100, 10, 50);
+    properties.getJournal().setEnabled(true);
+    properties.getJournal().setDirectory(journalDirectory.toString());
+    EventPersistenceService journaledService =
+        new EventPersistenceService(
+            mongoTemplate,
+            failedEventRepository,
+            kafkaTemplate,
+            new SimpleMeterRegistry(),
+            "test-dlq-topic",
+            properties,
+            new EventLatencyRecorder(new SimpleMeterRegistry()),
+            List.of(rollups));
+
+    try {
+      ArgumentCaptor<List<WikimediaEvent>> captor = ArgumentCaptor.forClass(List.class);
+      verify(bulkOperations).insert(captor.capture());
+      assertThat(captor.getValue())
+          .extracting(WikimediaEvent::getEventData)
+          .containsExactly("queued-before-crash-1", "queued-before-crash-2");
+
+      assertThat(journaledService.submit(new IngestEvent(0, "live"), Duration.ZERO)).isTrue();
+      await()
+          .atMost(2, TimeUnit.SECONDS)
+          .untilAsserted(() -> verify(bulkOperations, times(2)).execute());
+    } finally {
+      journaledService.shutdown();
+    }
+
+    try (Stream<Path> files = Files.list(journalDirectory)) {
+      assertThat(files).isEmpty();
+    }
+  }
+
   @Test
   void shouldFlushOnShutdown() {
     for (int i = 0; i < 5; i++) {
@@ -148,6 +520,15 @@ class EventPersistenceServiceTest {
 
     service.shutdown();
 
-    verify(eventRepository, atLeastOnce()).saveAll(anyList());
+    verify(bulkOperations, atLeastOnce()).execute();
+  }
+
+  private static PersistenceProperties properties(
+      int queueCapacity, int batchSize, long flushIntervalMs) {
+    PersistenceProperties properties = new PersistenceProperties();
+    properties.setQueueCapacity(queueCapacity);
+    properties.setBatchSize(batchSize);
+    properties.setFlushIntervalMs(flushIntervalMs);
+    return properties;
   }
 }
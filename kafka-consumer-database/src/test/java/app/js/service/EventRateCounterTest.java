@@ -0,0 +1,66 @@
+package app.js.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import app.js.MutableClock;
+import app.js.entity.WikimediaEvent;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+
+class EventRateCounterTest {
+
+  private final MutableClock clock = new MutableClock(Instant.parse("2025-06-01T12:00:00.500Z"));
+  private final EventRateCounter counter = new EventRateCounter(clock);
+
+  @Test
+  void shouldCountEventsPerWindow() {
+    persisted(10);
+    clock.advance(Duration.ofMinutes(3));
+    persisted(20);
+    clock.advance(Duration.ofSeconds(30));
+    persisted(5);
+    persisted(5);
+
+    assertThat(counter.count(Duration.ofMinutes(1))).isEqualTo(30);
+    assertThat(counter.count(Duration.ofMinutes(5))).isEqualTo(40);
+    assertThat(counter.count(Duration.ofMinutes(15))).isEqualTo(40);
+    assertThat(counter.count(Duration.ofHours(1))).isEqualTo(40);
+    assertThat(counter.ratePerSecond(Duration.ofMinutes(1))).isEqualTo(0.5);
+  }
+
+  @Test
+  void shouldDropEventsOnceTheyLeaveTheWindow() {
+    persisted(60);
+    assertThat(counter.ratePerSecond(Duration.ofMinutes(1))).isEqualTo(1.0);
+
+    clock.advance(Duration.ofSeconds(59));
+    assertThat(counter.count(Duration.ofMinutes(1))).isEqualTo(60);
+    clock.advance(Duration.ofSeconds(1));
+    assertThat(counter.count(Duration.ofMinutes(1))).isZero();
+    assertThat(counter.count(Duration.ofHours(1))).isEqualTo(60);
+  }
+
+  @Test
+  void shouldForgetEverythingAfterAGapLongerThanTheRing() {
+    persisted(100);
+    clock.advance(Duration.ofHours(3));
+    assertThat(counter.count(Duration.ofHours(1))).isZero();
+
+    persisted(7);
+    assertThat(counter.count(Duration.ofMinutes(1))).isEqualTo(7);
+    assertThat(counter.count(Duration.ofHours(1))).isEqualTo(7);
+  }
+
+  @Test
+  void shouldRejectWindowsLongerThanAnHour() {
+    assertThatThrownBy(() -> counter.count(Duration.ofMinutes(61)))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private void persisted(int count) {
+    counter.onPersisted(Collections.nCopies(count, new WikimediaEvent("{}")));
+  }
+}
@@ -0,0 +1,302 @@
+package app.js.service;
+
+import static java.time.ZoneOffset.UTC;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import app.js.config.AnalyticsProperties;
+import app.js.entity.HourlyRollup;
+import app.js.entity.RollupCheckpoint;
+import app.js.entity.WikimediaEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+@ExtendWith(MockitoExtension.class)
+class HourlyRollupServiceTest {
+
+  private static final Instant NOW = Instant.parse("2025-06-01T12:30:00Z");
+
+  @Mock private MongoTemplate mongoTemplate;
+
+  @Mock private BulkOperations bulkOperations;
+
+  private HourlyRollupService service;
+
+  @BeforeEach
+  void setUp() {
+    AnalyticsProperties.HourlyRollup properties = new AnalyticsProperties().getHourlyRollup();
+    properties.setMaxHoursPerRun(2);
+    // passes are triggered by the tests
+    properties.setInterval(Duration.ZERO);
+    service =
+        new HourlyRollupService(
+            mongoTemplate, properties, new SimpleMeterRegistry(), Clock.fixed(NOW, UTC));
+  }
+
+  @Test
+  void shouldFoldSettledHoursAfterTheCheckpoint() {
+    givenCheckpoint(Instant.parse("2025-06-01T10:00:00Z"));
+    Instant hour = Instant.parse("2025-06-01T10:00:00Z");
+    List<Aggregation> aggregations = new ArrayList<>();
+    when(mongoTemplate.aggregateStream(
+            any(Aggregation.class), eq("wikimedia_events"), eq(Document.class)))
+        .thenAnswer(
+            invocation -> {
+              Aggregation aggregation = invocation.getArgument(0);
+              aggregations.add(aggregation);
+              Object groupId =
+                  aggregation
+                      .toPipeline(Aggregation.DEFAULT_CONTEXT)
+                      .get(2)
+                      .get("$group", Document.class)
+                      .get("_id");
+              Document row =
+                  groupId instanceof Document
+                      ? new Document(
+                              "_id", new Document("hour", Date.from(hour)).append("key", "enwiki"))
+                          .append("count", 7)
+                      : new Document("_id", Date.from(hour)).append("count", 9);
+              return Stream.of(row);
+            });
+    when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, HourlyRollup.class))
+        .thenReturn(bulkOperations);
+
+    int hours = service.rollUp();
+
+    // 12:00 is still open, so only 10:00 and 11:00 are folded
+    assertThat(hours).isEqualTo(2);
+    assertThat(aggregations).hasSize(HourlyRollupService.DIMENSIONS.size() + 1);
+    Document match =
+        aggregations
+            .get(0)
+            .toPipeline(Aggregation.DEFAULT_CONTEXT)
+            .get(0)
+            .get("$match", Document.class);
+    assertThat(match.get("receivedAt", Document.class))
+        .containsEntry("$gte", Instant.parse("2025-06-01T10:00:00Z"))
+        .containsEntry("$lt", Instant.parse("2025-06-01T12:00:00Z"));
+
+    // events without a bot flag or namespace are counted as human edits in the main namespace
+    Document botKey =
+        aggregations
+            .get(HourlyRollupService.DIMENSIONS.indexOf("bot"))
+            .toPipeline(Aggregation.DEFAULT_CONTEXT)
+            .get(1)
+            .get("$project", Document.class);
+    assertThat(botKey.get("key", Document.class).getList("$ifNull", Object.class))
+        .containsExactly("$bot", false);
+
+    ArgumentCaptor<Query> rows = ArgumentCaptor.forClass(Query.class);
+    verify(bulkOperations, times(5)).upsert(rows.capture(), any(Update.class));
+    assertThat(rows.getAllValues())
+        .extracting(query -> query.getQueryObject().getString("_id"))
+        .contains(hour.toEpochMilli() + "|wiki|enwiki", hour.toEpochMilli() + "|total|all");
+    verify(bulkOperations).execute();
+
+    ArgumentCaptor<Update> checkpoint = ArgumentCaptor.forClass(Update.class);
+    verify(mongoTemplate)
+        .upsert(any(Query.class), checkpoint.capture(), eq(RollupCheckpoint.class));
+    assertThat(checkpoint.getValue().getUpdateObject().get("$max", Document.class))
+        .containsEntry("lastReceivedAt", Instant.parse("2025-06-01T12:00:00Z"));
+  }
+
+  @Test
+  void shouldBoundHoursPerPassWhenCatchingUp() {
+    givenCheckpoint(Instant.parse("2025-06-01T00:00:00Z"));
+    when(mongoTemplate.aggregateStream(
+            any(Aggregation.class), eq("wikimedia_events"), eq(Document.class)))
+        .thenAnswer(invocation -> Stream.empty());
+
+    assertThat(service.rollUp()).isEqualTo(2);
+
+    ArgumentCaptor<Update> checkpoint = ArgumentCaptor.forClass(Update.class);
+    verify(mongoTemplate)
+        .upsert(any(Query.class), checkpoint.capture(), eq(RollupCheckpoint.class));
+    assertThat(checkpoint.getValue().getUpdateObject().get("$max", Document.class))
+        .containsEntry("lastReceivedAt", Instant.parse("2025-06-01T02:00:00Z"));
+    verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), any(Class.class));
+  }
+
+  @Test
+  void shouldServeTheCheckpointFromMemory() {
+    givenCheckpoint(Instant.parse("2025-06-01T10:00:00Z"));
+    when(mongoTemplate.aggregateStream(
+            any(Aggregation.class), eq("wikimedia_events"), eq(Document.class)))
+        .thenAnswer(invocation -> Stream.empty());
+    assertThat(service.checkpoint()).isNull();
+
+    service.rollUp();
+
+    // moved to the end of the pass without reading MongoDB again
+    assertThat(service.checkpoint()).isEqualTo(Instant.parse("2025-06-01T12:00:00Z"));
+    assertThat(service.checkpoint()).isEqualTo(Instant.parse("2025-06-01T12:00:00Z"));
+    verify(mongoTemplate, times(1)).findById("hourly", RollupCheckpoint.class);
+  }
+
+  @Test
+  void shouldStartAtTheHourOfTheOldestEvent() {
+    WikimediaEvent oldest = new WikimediaEvent("{}");
+    oldest.setReceivedAt(Instant.parse("2025-06-01T11:45:00Z"));
+    when(mongoTemplate.findOne(any(Query.class), eq(WikimediaEvent.class))).thenReturn(oldest);
+    when(mongoTemplate.aggregateStream(
+            any(Aggregation.class), eq("wikimedia_events"), eq(Document.class)))
+        .thenAnswer(invocation -> Stream.empty());
+
+    assertThat(service.rollUp()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldDoNothingWhenCaughtUp() {
+    givenCheckpoint(Instant.parse("2025-06-01T12:00:00Z"));
+
+    assertThat(service.rollUp()).isZero();
+
+    verify(mongoTemplate, never())
+        .aggregateStream(any(Aggregation.class), any(String.class), any());
+    verify(mongoTemplate, never()).upsert(any(Query.class), any(Update.class), any(Class.class));
+  }
+
+  @Test
+  void shouldMoveTheCheckpointBackToRefoldChangedHours() {
+    givenCheckpoint(Instant.parse("2025-06-01T12:00:00Z"));
+    service.refold(Instant.parse("2025-06-01T10:15:00Z"));
+    service.refold(Instant.parse("2025-06-01T09:40:00Z"));
+
+    service.rollUp();
+
+    ArgumentCaptor<Update> rewind = ArgumentCaptor.forClass(Update.class);
+    verify(mongoTemplate)
+        .updateFirst(any(Query.class), rewind.capture(), eq(RollupCheckpoint.class));
+    assertThat(rewind.getValue().getUpdateObject().get("$min", Document.class))
+        .containsEntry("lastReceivedAt", Instant.parse("2025-06-01T09:00:00Z"));
+
+    // applied once
+    service.rollUp();
+    verify(mongoTemplate)
+        .updateFirst(any(Query.class), any(Update.class), eq(RollupCheckpoint.class));
+  }
+
+  @Test
+  void shouldRemoveTheKeysARefoldedHourNoLongerHas() {
+    // 10:00 had human edits before the backfill; after it, the hour only has bot edits
+    Instant hour = Instant.parse("2025-06-01T10:00:00Z");
+    givenCheckpoint(hour);
+    when(mongoTemplate.aggregateStream(
+            any(Aggregation.class), eq("wikimedia_events"), eq(Document.class)))
+        .thenAnswer(
+            invocation -> {
+              Document project =
+                  invocation
+                      .<Aggregation>getArgument(0)
+                      .toPipeline(Aggregation.DEFAULT_CONTEXT)
+                      .get(1)
+                      .get("$project", Document.class);
+              boolean bot =
+                  new Document("$ifNull", List.of("$bot", false)).equals(project.get("key"));
+              return bot
+                  ? Stream.of(
+                      new Document("_id", new Document("hour", Date.from(hour)).append("key", true))
+                          .append("count", 3))
+                  : Stream.empty();
+            });
+    when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, HourlyRollup.class))
+        .thenReturn(bulkOperations);
+
+    service.rollUp();
+
+    ArgumentCaptor<Update> written = ArgumentCaptor.forClass(Update.class);
+    verify(bulkOperations).upsert(any(Query.class), written.capture());
+    assertThat(written.getValue().getUpdateObject().get("$set", Document.class))
+        .containsEntry("key", "true")
+        .containsEntry("foldedAt", NOW);
+
+    // the stale bot=false row of 10:00 was not written by this pass, so it is removed after it
+    InOrder inOrder = inOrder(bulkOperations, mongoTemplate);
+    inOrder.verify(bulkOperations).execute();
+    ArgumentCaptor<Query> removed = ArgumentCaptor.forClass(Query.class);
+    inOrder.verify(mongoTemplate).remove(removed.capture(), eq(HourlyRollup.class));
+    Document stale = removed.getValue().getQueryObject();
+    assertThat(stale.get("dimension", Document.class).getList("$in", String.class))
+        .containsExactly("wiki", "type", "bot", "namespace", "total");
+    assertThat(stale.get("hour", Document.class))
+        .containsEntry("$gte", hour)
+        .containsEntry("$lt", Instant.parse("2025-06-01T12:00:00Z"));
+    assertThat(stale.get("foldedAt", Document.class)).containsEntry("$ne", NOW);
+  }
+
+  @Test
+  void shouldRefoldTheHourOfEventsWrittenAfterItSettled() {
+    givenCheckpoint(Instant.parse("2025-06-01T12:00:00Z"));
+
+    // 12:10 has not settled yet; 10:59 settled at 11:02, an hour and a half before the write
+    service.onPersisted(List.of(persisted("2025-06-01T12:10:00Z")));
+    service.rollUp();
+    verify(mongoTemplate, never())
+        .updateFirst(any(Query.class), any(Update.class), eq(RollupCheckpoint.class));
+
+    service.onPersisted(
+        List.of(persisted("2025-06-01T12:10:00Z"), persisted("2025-06-01T10:59:00Z")));
+    service.rollUp();
+
+    ArgumentCaptor<Update> rewind = ArgumentCaptor.forClass(Update.class);
+    verify(mongoTemplate)
+        .updateFirst(any(Query.class), rewind.capture(), eq(RollupCheckpoint.class));
+    assertThat(rewind.getValue().getUpdateObject().get("$min", Document.class))
+        .containsEntry("lastReceivedAt", Instant.parse("2025-06-01T10:00:00Z"));
+  }
+
+  @Test
+  void shouldMoveTheCheckpointBackRightAwayWhenTheJobRunsElsewhere() {
+    AnalyticsProperties.HourlyRollup properties = new AnalyticsProperties().getHourlyRollup();
+    properties.setEnabled(false);
+    HourlyRollupService disabled =
+        new HourlyRollupService(
+            mongoTemplate, properties, new SimpleMeterRegistry(), Clock.fixed(NOW, UTC));
+
+    disabled.refold(Instant.parse("2025-06-01T09:40:00Z"));
+
+    ArgumentCaptor<Update> rewind = ArgumentCaptor.forClass(Update.class);
+    verify(mongoTemplate)
+        .updateFirst(any(Query.class), rewind.capture(), eq(RollupCheckpoint.class));
+    assertThat(rewind.getValue().getUpdateObject().get("$min", Document.class))
+        .containsEntry("lastReceivedAt", Instant.parse("2025-06-01T09:00:00Z"));
+  }
+
+  private static WikimediaEvent persisted(String receivedAt) {
+    WikimediaEvent event = new WikimediaEvent("{}");
+    event.setReceivedAt(Instant.parse(receivedAt));
+    return event;
+  }
+
+  private void givenCheckpoint(Instant lastReceivedAt) {
+    RollupCheckpoint checkpoint = new RollupCheckpoint();
+    checkpoint.setId("hourly");
+    checkpoint.setLastReceivedAt(lastReceivedAt);
+    when(mongoTemplate.findById("hourly", RollupCheckpoint.class)).thenReturn(checkpoint);
+  }
+}
@@ -0,0 +1,68 @@
+package app.js.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+import org.junit.jupiter.api.Test;
+
+class HyperLogLogTest {
+
+  @Test
+  void shouldEstimateWithinTheStandardError() {
+    for (int distinct : new int[] {1_000, 100_000, 1_000_000}) {
+      HyperLogLog sketch = new HyperLogLog(12);
+      for (int i = 0; i < distinct; i++) {
+        sketch.add("user-" + i);
+        // repeats do not change the estimate
+        sketch.add("user-" + (i / 2));
+      }
+
+      // three standard errors
+      assertThat((double) sketch.estimate())
+          .isCloseTo(distinct, within(3 * sketch.relativeError() * distinct));
+    }
+  }
+
+  @Test
+  void shouldCountSmallSetsAlmostExactly() {
+    HyperLogLog sketch = new HyperLogLog(12);
+    assertThat(sketch.estimate()).isZero();
+
+    for (int i = 0; i < 20; i++) {
+      sketch.add("wiki-" + i);
+    }
+    assertThat(sketch.estimate()).isEqualTo(20);
+  }
+
+  @Test
+  void shouldMergeIntoTheUnion() {
+    HyperLogLog first = new HyperLogLog(12);
+    HyperLogLog second = new HyperLogLog(12);
+    for (int i = 0; i < 60_000; i++) {
+      first.add("page-" + i);
+      second.add("page-" + (i + 30_000));
+    }
+
+    first.merge(second);
+
+    assertThat((double) first.estimate()).isCloseTo(90_000, within(3 * 0.01625 * 90_000));
+  }
+
+  @Test
+  void shouldRoundTripThroughBytes() {
+    HyperLogLog sketch = new HyperLogLog(10);
+    for (int i = 0; i < 5_000; i++) {
+      sketch.add("user-" + i);
+    }
+
+    byte[] bytes = sketch.toBytes();
+    HyperLogLog restored = HyperLogLog.fromBytes(bytes);
+
+    assertThat(bytes).hasSize(1024);
+    assertThat(restored.precision()).isEqualTo(10);
+    assertThat(restored.estimate()).isEqualTo(sketch.estimate());
+    assertThatThrownBy(() -> restored.merge(new HyperLogLog(12)))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+}
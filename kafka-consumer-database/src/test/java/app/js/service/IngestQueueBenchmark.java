@@ -0,0 +1,118 @@
+package app.js.service;
+
+import app.js.config.PersistenceProperties.QueueType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Control;
+
+/**
+ * Compares the linked blocking queue with the MPSC ring buffer as the stripe ingest queue: N
+ * producer threads offer events while one consumer drains them in batches, as the persistence
+ * worker does. The producer score is accepted events per second.
+ *
+ * <p>Run with {@code mvn -pl kafka-consumer-database test-compile exec:exec -Dexec.executable=java
+ * -Dexec.classpathScope=test -Dexec.args="-cp %classpath org.openjdk.jmh.Main
+ * IngestQueueBenchmark"}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class IngestQueueBenchmark {
+
+  private static final IngestEvent EVENT = IngestEvent.of("{\"type\":\"edit\"}");
+
+  @Param({"LINKED", "RING"})
+  public QueueType queueType;
+
+  @Param({"10000"})
+  public int capacity;
+
+  private IngestQueue<IngestEvent> queue;
+
+  @Setup(Level.Iteration)
+  public void setUp() {
+    queue = IngestQueue.create(queueType, capacity);
+  }
+
+  @State(Scope.Thread)
+  public static class ConsumerBatch {
+    final List<IngestEvent> batch = new ArrayList<>(100);
+  }
+
+  private boolean produce(Control control) {
+    while (!queue.offer(EVENT)) {
+      if (control.stopMeasurement) {
+        return false;
+      }
+      Thread.onSpinWait();
+    }
+    return true;
+  }
+
+  private int consume(ConsumerBatch consumer) {
+    List<IngestEvent> batch = consumer.batch;
+    int drained = queue.drainTo(batch, 100);
+    batch.clear();
+    return drained;
+  }
+
+  @Benchmark
+  @Group("producers1")
+  @GroupThreads(1)
+  public boolean offer1(Control control) {
+    return produce(control);
+  }
+
+  @Benchmark
+  @Group("producers1")
+  @GroupThreads(1)
+  public int drain1(ConsumerBatch consumer) {
+    return consume(consumer);
+  }
+
+  @Benchmark
+  @Group("producers4")
+  @GroupThreads(4)
+  public boolean offer4(Control control) {
+    return produce(control);
+  }
+
+  @Benchmark
+  @Group("producers4")
+  @GroupThreads(1)
+  public int drain4(ConsumerBatch consumer) {
+    return consume(consumer);
+  }
+
+  @Benchmark
+  @Group("producers16")
+  @GroupThreads(16)
+  public boolean offer16(Control control) {
+    return produce(control);
+  }
+
+  @Benchmark
+  @Group("producers16")
+  @GroupThreads(1)
+  public int drain16(ConsumerBatch consumer) {
+    return consume(consumer);
+  }
+}
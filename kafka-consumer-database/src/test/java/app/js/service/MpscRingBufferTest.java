@@ -0,0 +1,96 @@
+package app.js.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class MpscRingBufferTest {
+
+  @Test
+  void shouldRoundCapacityUpToPowerOfTwo() {
+    assertThat(new MpscRingBuffer<String>(1000).capacity()).isEqualTo(1024);
+    assertThat(new MpscRingBuffer<String>(1024).capacity()).isEqualTo(1024);
+  }
+
+  @Test
+  void shouldRejectWhenFull() {
+    MpscRingBuffer<Integer> ring = new MpscRingBuffer<>(4);
+
+    for (int i = 0; i < 4; i++) {
+      assertThat(ring.offer(i)).isTrue();
+    }
+
+    assertThat(ring.offer(4)).isFalse();
+    assertThat(ring.size()).isEqualTo(4);
+  }
+
+  @Test
+  void shouldDrainInFifoOrderAcrossWrapAround() throws InterruptedException {
+    MpscRingBuffer<Integer> ring = new MpscRingBuffer<>(4);
+    List<Integer> drained = new ArrayList<>();
+
+    for (int i = 0; i < 10; i++) {
+      assertThat(ring.offer(i)).isTrue();
+      if (i % 3 == 2) {
+        ring.drainTo(drained, 3);
+      }
+    }
+    while (!ring.isEmpty()) {
+      drained.add(ring.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    assertThat(drained).containsExactly(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+  }
+
+  @Test
+  void pollShouldTimeOutWhenEmpty() throws InterruptedException {
+    MpscRingBuffer<String> ring = new MpscRingBuffer<>(8);
+
+    assertThat(ring.poll(20, TimeUnit.MILLISECONDS)).isNull();
+  }
+
+  @Test
+  void shouldNotLoseElementsWithConcurrentProducers() throws Exception {
+    MpscRingBuffer<Integer> ring = new MpscRingBuffer<>(64);
+    int producers = 4;
+    int perProducer = 10_000;
+    CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(producers);
+
+    for (int p = 0; p < producers; p++) {
+      int base = p * perProducer;
+      executor.submit(
+          () -> {
+            start.await();
+            for (int i = 0; i < perProducer; i++) {
+              ring.offer(base + i, 5, TimeUnit.SECONDS);
+            }
+            return null;
+          });
+    }
+    start.countDown();
+
+    Set<Integer> received = new HashSet<>();
+    List<Integer> batch = new ArrayList<>();
+    while (received.size() < producers * perProducer) {
+      Integer first = ring.poll(5, TimeUnit.SECONDS);
+      assertThat(first).isNotNull();
+      batch.add(first);
+      ring.drainTo(batch, 100);
+      received.addAll(batch);
+      batch.clear();
+    }
+    executor.shutdown();
+
+    assertThat(received).hasSize(producers * perProducer);
+    assertThat(ring.isEmpty()).isTrue();
+  }
+}
@@ -0,0 +1,145 @@
+package app.js.service;
+
+import static java.time.ZoneOffset.UTC;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import app.js.MutableClock;
+import app.js.config.AnalyticsProperties;
+import app.js.entity.WikimediaEvent;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class RollupEngineTest {
+
+  private static final Instant START = Instant.parse("2025-06-01T10:00:30Z");
+
+  @Test
+  void shouldOnlyCoverFullMinutesSinceStartWithinRetention() {
+    RollupEngine engine = engine(Duration.ofHours(1), START);
+
+    assertThat(engine.covers(START)).isFalse();
+    assertThat(engine.covers(Instant.parse("2025-06-01T10:01:00Z"))).isTrue();
+
+    MutableClock clock = new MutableClock(START);
+    AnalyticsProperties.Rollup properties = new AnalyticsProperties().getRollup();
+    properties.setRetention(Duration.ofHours(1));
+    RollupEngine running = new RollupEngine(properties, clock);
+    clock.set(START.plus(Duration.ofHours(3)));
+    assertThat(running.covers(START.plus(Duration.ofHours(2)))).isTrue();
+    assertThat(running.covers(START.plus(Duration.ofMinutes(100)))).isFalse();
+  }
+
+  @Test
+  void shouldSumMinuteBucketsWithinTheWindow() {
+    RollupEngine engine = engine(Duration.ofHours(1), START);
+    engine.onPersisted(
+        List.of(
+            event("10:05:10", "enwiki", "edit", true, 0),
+            event("10:05:50", "dewiki", "edit", false, 0),
+            event("10:06:00", "enwiki", "log", false, 1),
+            event("10:40:00", "enwiki", "", null, null)));
+
+    Instant since = Instant.parse("2025-06-01T10:06:00Z");
+    assertThat(engine.countsByWiki(since)).containsExactly(Map.entry("enwiki", 2L));
+    assertThat(engine.countsByType(since)).containsExactly(Map.entry("log", 1L));
+
+    RollupEngine.Breakdown breakdown = engine.breakdown(Instant.parse("2025-06-01T10:00:00Z"));
+    // the event without a bot flag or namespace is a human edit in the main namespace
+    assertThat(breakdown.total()).isEqualTo(4);
+    assertThat(breakdown.bot()).isEqualTo(1);
+    assertThat(breakdown.human()).isEqualTo(3);
+    assertThat(breakdown.byNamespace()).containsEntry(0, 3L).containsEntry(1, 1L);
+  }
+
+  @Test
+  void shouldOrderCountsByFrequencyThenName() {
+    RollupEngine engine = engine(Duration.ofHours(1), START);
+    engine.onPersisted(
+        List.of(
+            event("10:05:00", "frwiki", "edit", false, 0),
+            event("10:05:00", "dewiki", "edit", false, 0),
+            event("10:05:00", "enwiki", "edit", false, 0),
+            event("10:06:00", "enwiki", "edit", false, 0)));
+
+    assertThat(engine.countsByWiki(START).keySet()).containsExactly("enwiki", "dewiki", "frwiki");
+  }
+
+  @Test
+  void shouldRollMinutesUpIntoHours() {
+    RollupEngine engine = engine(Duration.ofHours(3), START);
+    engine.onPersisted(
+        List.of(
+            event("10:05:00", "enwiki", "edit", false, 0),
+            event("10:59:59", "enwiki", "edit", false, 0),
+            event("11:00:00", "enwiki", "edit", false, 0)));
+
+    assertThat(engine.countsByHour(START))
+        .containsExactly(
+            Map.entry(Instant.parse("2025-06-01T10:00:00Z"), 2L),
+            Map.entry(Instant.parse("2025-06-01T11:00:00Z"), 1L));
+  }
+
+  @Test
+  void shouldReuseBucketsOnceTheRingWrapsAround() {
+    RollupEngine engine = engine(Duration.ofMinutes(10), START);
+    engine.onPersisted(List.of(event("10:05:00", "enwiki", "edit", false, 0)));
+    // eleven buckets, so 10:16 lands in the bucket of 10:05
+    engine.onPersisted(List.of(event("10:16:00", "dewiki", "edit", false, 0)));
+    engine.onPersisted(List.of(event("10:05:30", "frwiki", "edit", false, 0)));
+
+    assertThat(engine.countsByWiki(START)).containsExactly(Map.entry("dewiki", 1L));
+  }
+
+  @Test
+  void shouldEstimateTopUsersAndTitlesFromSketchBuckets() {
+    RollupEngine engine = engine(Duration.ofHours(1), START);
+    engine.onPersisted(
+        List.of(
+            edit("10:12:00", "Alice", "Main Page"),
+            edit("10:15:00", "Alice", "Main Page"),
+            edit("10:25:00", "Alice", "Other"),
+            edit("10:25:00", "Bob", "Main Page"),
+            edit("10:25:00", "", null)));
+
+    assertThat(engine.coversTopK(Instant.parse("2025-06-01T10:05:00Z"))).isFalse();
+    assertThat(engine.coversTopK(Instant.parse("2025-06-01T10:15:00Z"))).isTrue();
+
+    // rounded down to the 10:10 bucket
+    Instant since = Instant.parse("2025-06-01T10:15:00Z");
+    assertThat(engine.topUsers(since, 1)).containsExactly(new SpaceSaving.Estimate("Alice", 3, 0));
+    assertThat(engine.topTitles(since, 10))
+        .containsExactly(
+            new SpaceSaving.Estimate("Main Page", 3, 0), new SpaceSaving.Estimate("Other", 1, 0));
+    assertThat(engine.topUsers(Instant.parse("2025-06-01T10:20:00Z"), 10))
+        .extracting(SpaceSaving.Estimate::item)
+        .containsExactly("Alice", "Bob");
+  }
+
+  private static WikimediaEvent edit(String time, String user, String title) {
+    WikimediaEvent event = event(time, "enwiki", "edit", false, 0);
+    event.setUser(user);
+    event.setTitle(title);
+    return event;
+  }
+
+  private static RollupEngine engine(Duration retention, Instant now) {
+    AnalyticsProperties.Rollup properties = new AnalyticsProperties().getRollup();
+    properties.setRetention(retention);
+    return new RollupEngine(properties, Clock.fixed(now, UTC));
+  }
+
+  private static WikimediaEvent event(
+      String time, String wiki, String type, Boolean bot, Integer namespace) {
+    WikimediaEvent event = new WikimediaEvent("{}");
+    event.setReceivedAt(Instant.parse("2025-06-01T" + time + "Z"));
+    event.setWiki(wiki);
+    event.setType(type);
+    event.setBot(bot);
+    event.setNamespace(namespace);
+    return event;
+  }
+}
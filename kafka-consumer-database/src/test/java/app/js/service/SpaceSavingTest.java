@@ -0,0 +1,85 @@
+package app.js.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class SpaceSavingTest {
+
+  @Test
+  void shouldCountExactlyWhileBelowCapacity() {
+    SpaceSaving sketch = new SpaceSaving(10);
+    List.of("a", "b", "a", "c", "a", "b").forEach(sketch::offer);
+
+    assertThat(top(List.of(sketch), 3))
+        .containsExactly(
+            new SpaceSaving.Estimate("a", 3, 0),
+            new SpaceSaving.Estimate("b", 2, 0),
+            new SpaceSaving.Estimate("c", 1, 0));
+    assertThat(sketch.minCount()).isZero();
+  }
+
+  @Test
+  void shouldBoundCountsOfSkewedStream() {
+    Random random = new Random(42);
+    SpaceSaving sketch = new SpaceSaving(50);
+    Map<String, Long> exact = new HashMap<>();
+    int total = 20_000;
+    for (int i = 0; i < total; i++) {
+      // a few heavy hitters in a long tail of rare items
+      String item =
+          random.nextInt(4) == 0 ? "hot-" + random.nextInt(5) : "tail-" + random.nextInt(5000);
+      sketch.offer(item);
+      exact.merge(item, 1L, Long::sum);
+    }
+
+    List<SpaceSaving.Estimate> top = top(List.of(sketch), 5);
+    assertThat(top)
+        .extracting(SpaceSaving.Estimate::item)
+        .allMatch(item -> item.startsWith("hot-"));
+    for (SpaceSaving.Estimate estimate : top) {
+      long actual = exact.get(estimate.item());
+      assertThat(estimate.count()).isGreaterThanOrEqualTo(actual);
+      assertThat(estimate.count() - estimate.error()).isLessThanOrEqualTo(actual);
+    }
+    assertThat(sketch.minCount()).isLessThanOrEqualTo(total / 50);
+  }
+
+  @Test
+  void shouldMergeSketchesOfConsecutiveBuckets() {
+    SpaceSaving first = new SpaceSaving(2);
+    List.of("a", "a", "a", "b", "b", "c").forEach(first::offer);
+    SpaceSaving second = new SpaceSaving(2);
+    List.of("a", "d", "d").forEach(second::offer);
+
+    List<SpaceSaving.Estimate> top = top(List.of(first, second), 10);
+
+    // "d" is missing from the first sketch, so it may hide up to that sketch's minimum there
+    SpaceSaving.Estimate a = top.stream().filter(e -> e.item().equals("a")).findFirst().get();
+    SpaceSaving.Estimate d = top.stream().filter(e -> e.item().equals("d")).findFirst().get();
+    assertThat(a.count()).isGreaterThanOrEqualTo(4);
+    assertThat(a.count() - a.error()).isLessThanOrEqualTo(4);
+    assertThat(d.count()).isEqualTo(2 + first.minCount());
+    assertThat(d.count() - d.error()).isLessThanOrEqualTo(2);
+  }
+
+  @Test
+  void shouldForgetEverythingOnClear() {
+    SpaceSaving sketch = new SpaceSaving(2);
+    List.of("a", "b", "c").forEach(sketch::offer);
+    sketch.clear();
+    sketch.offer("d");
+
+    assertThat(top(List.of(sketch), 10)).containsExactly(new SpaceSaving.Estimate("d", 1, 0));
+  }
+
+  private static List<SpaceSaving.Estimate> top(List<SpaceSaving> sketches, int limit) {
+    SpaceSaving.Merger merger = new SpaceSaving.Merger();
+    sketches.forEach(merger::add);
+    return merger.top(limit);
+  }
+}
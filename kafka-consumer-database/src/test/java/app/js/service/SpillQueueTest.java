@@ -0,0 +1,89 @@
+package app.js.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SpillQueueTest {
+
+  @TempDir Path directory;
+
+  @Test
+  void shouldDrainInFifoOrderAcrossSegments() {
+    SpillQueue spill = new SpillQueue(directory, 64, 1024, 0, new SimpleMeterRegistry());
+
+    for (int i = 0; i < 10; i++) {
+      assertThat(spill.append(new IngestEvent(i % 3, "event-" + i))).isTrue();
+    }
+    assertThat(spill.segmentCount()).isGreaterThan(1);
+
+    List<IngestEvent> drained = new ArrayList<>();
+    assertThat(spill.drainTo(drained, 4)).isEqualTo(4);
+    assertThat(spill.drainTo(drained, 100)).isEqualTo(6);
+
+    assertThat(drained)
+        .extracting(IngestEvent::payload)
+        .containsExactly(
+            "event-0", "event-1", "event-2", "event-3", "event-4", "event-5", "event-6", "event-7",
+            "event-8", "event-9");
+    assertThat(drained.get(4).partition()).isEqualTo(1);
+    assertThat(spill.isEmpty()).isTrue();
+    assertThat(spill.pendingBytes()).isZero();
+    assertThat(spill.segmentCount()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldOnlyAppendWhileSpilling() {
+    SpillQueue spill = new SpillQueue(directory, 1024, 4096, 0, new SimpleMeterRegistry());
+
+    assertThat(spill.appendIfSpilling(IngestEvent.of("a"))).isFalse();
+    assertThat(spill.append(IngestEvent.of("b"))).isTrue();
+    assertThat(spill.appendIfSpilling(IngestEvent.of("c"))).isTrue();
+
+    spill.drainTo(new ArrayList<>(), 10);
+    assertThat(spill.appendIfSpilling(IngestEvent.of("d"))).isFalse();
+  }
+
+  @Test
+  void shouldRejectEventsBeyondDiskBudget() {
+    SpillQueue spill = new SpillQueue(directory, 64, 128, 0, new SimpleMeterRegistry());
+
+    int accepted = 0;
+    while (spill.append(IngestEvent.of("event-" + accepted))) {
+      accepted++;
+    }
+
+    assertThat(accepted).isPositive();
+    assertThat(spill.segmentCount()).isEqualTo(2);
+    assertThat(spill.append(IngestEvent.of("x".repeat(100)))).isFalse();
+  }
+
+  @Test
+  void shouldRecoverUndrainedEventsAfterRestart() throws Exception {
+    SpillQueue spill = new SpillQueue(directory, 64, 1024, 0, new SimpleMeterRegistry());
+    for (int i = 0; i < 6; i++) {
+      spill.append(new IngestEvent(7, "event-" + i));
+    }
+    spill.drainTo(new ArrayList<>(), 2);
+    spill.close();
+
+    SpillQueue reopened = new SpillQueue(directory, 64, 1024, 0, new SimpleMeterRegistry());
+    List<IngestEvent> drained = new ArrayList<>();
+    reopened.drainTo(drained, 100);
+
+    assertThat(drained)
+        .extracting(IngestEvent::payload)
+        .containsExactly("event-2", "event-3", "event-4", "event-5");
+    assertThat(drained).allMatch(event -> event.partition() == 7);
+    try (Stream<Path> files = Files.list(directory)) {
+      assertThat(files.count()).isEqualTo(1);
+    }
+  }
+}
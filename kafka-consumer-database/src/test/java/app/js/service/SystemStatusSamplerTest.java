@@ -0,0 +1,120 @@
+package app.js.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import app.js.MutableClock;
+import app.js.config.SystemStatusProperties;
+import app.js.entity.FailedEvent;
+import app.js.repository.FailedEventRepository;
+import app.js.repository.FailedEventRepository.ErrorTypeCount;
+import app.js.repository.WikimediaEventRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Pageable;
+
+@ExtendWith(MockitoExtension.class)
+class SystemStatusSamplerTest {
+
+  @Mock private WikimediaEventRepository eventRepository;
+
+  @Mock private FailedEventRepository failedEventRepository;
+
+  @Mock private EventPersistenceService persistenceService;
+
+  private final MutableClock clock = new MutableClock(Instant.parse("2025-06-01T12:00:00Z"));
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final SystemStatusProperties properties = new SystemStatusProperties();
+
+  private SystemStatusSampler sampler;
+
+  @BeforeEach
+  void setUp() {
+    FailedEvent failure = new FailedEvent("payload", "Connection refused", "MongoTimeoutException");
+    failure.setId("failed-1");
+    when(failedEventRepository.countPerErrorType(anyInt()))
+        .thenReturn(
+            List.of(
+                new ErrorTypeCount("MongoTimeoutException", 7),
+                new ErrorTypeCount("ValidationException", 2)));
+    when(failedEventRepository.findRecentWithoutPayload(any(Pageable.class)))
+        .thenReturn(List.of(failure));
+  }
+
+  @AfterEach
+  void tearDown() {
+    sampler.shutdown();
+  }
+
+  @Test
+  void shouldServeTheSameSnapshotUntilTheNextSample() {
+    properties.setInterval(Duration.ofHours(1));
+    sampler = sampler();
+    when(eventRepository.count()).thenReturn(42L);
+
+    SystemStatusSnapshot first = sampler.current();
+    clock.advance(Duration.ofSeconds(3));
+    SystemStatusSnapshot second = sampler.current();
+
+    assertThat(second).isSameAs(first);
+    assertThat(first.totalEvents()).isEqualTo(42);
+    assertThat(first.failuresByErrorType())
+        .containsExactly(entry("MongoTimeoutException", 7L), entry("ValidationException", 2L));
+    assertThat(first.recentFailures())
+        .extracting(SystemStatusSnapshot.Failure::id)
+        .containsExactly("failed-1");
+    assertThat(sampler.age(second)).isEqualTo(Duration.ofSeconds(3));
+    verify(eventRepository, times(1)).count();
+    assertThat(meterRegistry.get("wikimedia.system.status.sample").timer().count()).isEqualTo(1);
+    assertThat(meterRegistry.get("wikimedia.system.status.age").gauge().value()).isEqualTo(3.0);
+  }
+
+  @Test
+  void shouldKeepThePreviousSnapshotWhenSamplingFails() {
+    properties.setInterval(Duration.ofHours(1));
+    sampler = sampler();
+    when(eventRepository.count()).thenReturn(42L).thenThrow(new IllegalStateException("down"));
+
+    SystemStatusSnapshot first = sampler.current();
+    clock.advance(Duration.ofMinutes(1));
+    sampler.refresh();
+
+    assertThat(sampler.current()).isSameAs(first);
+    assertThat(sampler.age(first)).isEqualTo(Duration.ofMinutes(1));
+  }
+
+  @Test
+  void shouldSampleOnEveryRequestWithoutAnInterval() {
+    properties.setInterval(Duration.ZERO);
+    sampler = sampler();
+    when(eventRepository.count()).thenReturn(1L, 2L);
+
+    assertThat(sampler.current().totalEvents()).isEqualTo(1);
+    assertThat(sampler.current().totalEvents()).isEqualTo(2);
+  }
+
+  private SystemStatusSampler sampler() {
+    return new SystemStatusSampler(
+        eventRepository,
+        failedEventRepository,
+        persistenceService,
+        new EventRateCounter(clock),
+        new EventLatencyRecorder(meterRegistry),
+        properties,
+        meterRegistry,
+        clock);
+  }
+}
@@ -0,0 +1,167 @@
+package app.js.service;
+
+import static java.time.ZoneOffset.UTC;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import app.js.config.AnalyticsProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class TimeSliceExecutorTest {
+
+  private static final Instant NOW = Instant.parse("2025-06-01T12:30:00Z");
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private TimeSliceExecutor executor;
+
+  @AfterEach
+  void tearDown() {
+    executor.shutdown();
+  }
+
+  @Test
+  void shouldSplitRangesAtSliceBoundaries() {
+    executor = executor(4, 4);
+
+    assertThat(
+            executor.bounds(
+                Instant.parse("2025-06-01T01:30:00Z"), Instant.parse("2025-06-01T13:00:00Z")))
+        .containsExactly(
+            Instant.parse("2025-06-01T01:30:00Z"),
+            Instant.parse("2025-06-01T06:00:00Z"),
+            Instant.parse("2025-06-01T12:00:00Z"),
+            Instant.parse("2025-06-01T13:00:00Z"));
+    // an open range is split up to now and keeps its open end
+    assertThat(executor.bounds(Instant.parse("2025-06-01T05:00:00Z"), null))
+        .containsExactly(
+            Instant.parse("2025-06-01T05:00:00Z"),
+            Instant.parse("2025-06-01T06:00:00Z"),
+            Instant.parse("2025-06-01T12:00:00Z"),
+            null);
+  }
+
+  @Test
+  void shouldScanSlicesConcurrentlyAndReturnThemInOrder() throws Exception {
+    executor = executor(3, 4);
+    CountDownLatch allStarted = new CountDownLatch(3);
+    Set<String> threads = ConcurrentHashMap.newKeySet();
+
+    List<Instant> starts =
+        executor.scan(
+            NOW.minus(Duration.ofHours(24)),
+            null,
+            (from, to) -> {
+              threads.add(Thread.currentThread().getName());
+              allStarted.countDown();
+              await(allStarted);
+              return from;
+            });
+
+    assertThat(starts).hasSize(5).isSorted();
+    // the request thread and two helpers, as limited per query
+    assertThat(threads).hasSize(3).contains(Thread.currentThread().getName());
+    assertThat(allStarted.await(0, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test
+  void shouldFallBackToTheRequestThreadWhenTheBudgetIsExhausted() {
+    executor = executor(4, 0);
+    Set<String> threads = ConcurrentHashMap.newKeySet();
+
+    List<Instant> starts =
+        executor.scan(
+            NOW.minus(Duration.ofHours(24)),
+            null,
+            (from, to) -> {
+              threads.add(Thread.currentThread().getName());
+              return from;
+            });
+
+    assertThat(starts).hasSize(5);
+    assertThat(threads).containsExactly(Thread.currentThread().getName());
+  }
+
+  @Test
+  void shouldShareTheBudgetAcrossQueries() throws Exception {
+    executor = executor(4, 2);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch heavyStarted = new CountDownLatch(3);
+
+    Thread heavy =
+        new Thread(
+            () ->
+                executor.scan(
+                    NOW.minus(Duration.ofHours(48)),
+                    null,
+                    (from, to) -> {
+                      heavyStarted.countDown();
+                      await(release);
+                      return from;
+                    }));
+    heavy.start();
+    assertThat(heavyStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+    // the heavy query holds both pool threads, so this one runs on its own thread alone
+    Set<String> threads = ConcurrentHashMap.newKeySet();
+    executor.scan(
+        NOW.minus(Duration.ofHours(24)),
+        null,
+        (from, to) -> {
+          threads.add(Thread.currentThread().getName());
+          return from;
+        });
+    release.countDown();
+    heavy.join(5000);
+
+    assertThat(threads).containsExactly(Thread.currentThread().getName());
+    assertThat(meterRegistry.get("wikimedia.analytics.slices.throttled").counter().count())
+        .isEqualTo(2);
+  }
+
+  @Test
+  void shouldRethrowTheFailureOfASlice() {
+    executor = executor(4, 4);
+    AtomicInteger scanned = new AtomicInteger();
+
+    assertThatThrownBy(
+            () ->
+                executor.scan(
+                    NOW.minus(Duration.ofHours(24)),
+                    null,
+                    (from, to) -> {
+                      if (scanned.incrementAndGet() == 2) {
+                        throw new IllegalStateException("mongo down");
+                      }
+                      return from;
+                    }))
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessage("mongo down");
+  }
+
+  private TimeSliceExecutor executor(int maxSlicesPerQuery, int maxConcurrentSlices) {
+    AnalyticsProperties.Parallel properties = new AnalyticsProperties().getParallel();
+    properties.setMaxSlicesPerQuery(maxSlicesPerQuery);
+    properties.setMaxConcurrentSlices(maxConcurrentSlices);
+    return new TimeSliceExecutor(properties, meterRegistry, Clock.fixed(NOW, UTC));
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package app.js.service;
+
+import static java.time.ZoneOffset.UTC;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import app.js.config.AnalyticsProperties;
+import app.js.entity.RollupCheckpoint;
+import app.js.entity.WikimediaEvent;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.List;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+@ExtendWith(MockitoExtension.class)
+class TypedFieldBackfillTest {
+
+  private static final Instant NOW = Instant.parse("2025-06-01T12:30:00Z");
+
+  @Mock private MongoTemplate mongoTemplate;
+
+  @Mock private BulkOperations bulkOperations;
+
+  @Mock private HourlyRollupService hourlyRollups;
+
+  private TypedFieldBackfill backfill;
+
+  @BeforeEach
+  void setUp() {
+    AnalyticsProperties.Backfill properties = new AnalyticsProperties().getBackfill();
+    properties.setBatchSize(2);
+    // run by the tests
+    properties.setEnabled(false);
+    backfill =
+        new TypedFieldBackfill(mongoTemplate, hourlyRollups, properties, Clock.fixed(NOW, UTC));
+  }
+
+  @Test
+  void shouldCopyTheTypedFieldsIntoUntypedEvents() {
+    when(mongoTemplate.find(any(Query.class), eq(WikimediaEvent.class)))
+        .thenReturn(
+            List.of(
+                stored(
+                    "1",
+                    "{\"wiki\": \"enwiki\", \"type\": \"edit\", \"bot\": true, \"namespace\": 4}",
+                    "2025-06-01T10:05:00Z"),
+                stored("2", "{\"wiki\": \"dewiki\", \"bot", "2025-06-01T10:20:00Z")))
+        .thenReturn(List.of(stored("3", null, "2025-06-01T11:00:00Z")));
+    when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, WikimediaEvent.class))
+        .thenReturn(bulkOperations);
+
+    assertThat(backfill.backfill()).isEqualTo(3);
+
+    ArgumentCaptor<Update> updates = ArgumentCaptor.forClass(Update.class);
+    verify(bulkOperations, times(3)).updateOne(any(Query.class), updates.capture());
+    assertThat(set(updates.getAllValues().get(0)))
+        .containsEntry("wiki", "enwiki")
+        .containsEntry("type", "edit")
+        .containsEntry("bot", true)
+        .containsEntry("namespace", 4)
+        .containsKey("payloadSize");
+    // malformed or missing event data only gets a payload size, so it is not looked at again
+    assertThat(set(updates.getAllValues().get(1))).containsOnlyKeys("payloadSize");
+    assertThat(set(updates.getAllValues().get(2))).containsEntry("payloadSize", 0);
+    verify(bulkOperations, times(2)).execute();
+
+    verify(hourlyRollups).refold(Instant.parse("2025-06-01T10:05:00Z"));
+    verify(hourlyRollups).refold(Instant.parse("2025-06-01T11:00:00Z"));
+
+    ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate, times(2)).find(queries.capture(), eq(WikimediaEvent.class));
+    assertThat(receivedAt(queries.getAllValues().get(0))).containsOnlyKeys("$lt");
+    assertThat(receivedAt(queries.getAllValues().get(1)))
+        .containsEntry("$gte", Instant.parse("2025-06-01T10:20:00Z"))
+        .containsEntry("$lt", NOW);
+
+    ArgumentCaptor<Update> checkpoints = ArgumentCaptor.forClass(Update.class);
+    verify(mongoTemplate, times(3))
+        .upsert(any(Query.class), checkpoints.capture(), eq(RollupCheckpoint.class));
+    assertThat(checkpoints.getValue().getUpdateObject().get("$max", Document.class))
+        .containsEntry("lastReceivedAt", NOW);
+  }
+
+  @Test
+  void shouldOnlyLookAtEventsReceivedSinceTheCheckpoint() {
+    RollupCheckpoint checkpoint = new RollupCheckpoint();
+    checkpoint.setId("typed-fields");
+    checkpoint.setLastReceivedAt(Instant.parse("2025-06-01T11:00:00Z"));
+    when(mongoTemplate.findById("typed-fields", RollupCheckpoint.class)).thenReturn(checkpoint);
+    when(mongoTemplate.find(any(Query.class), eq(WikimediaEvent.class))).thenReturn(List.of());
+
+    assertThat(backfill.backfill()).isZero();
+
+    ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).find(query.capture(), eq(WikimediaEvent.class));
+    assertThat(receivedAt(query.getValue()))
+        .containsEntry("$gte", Instant.parse("2025-06-01T11:00:00Z"));
+    assertThat(query.getValue().getQueryObject().get("payloadSize", Document.class))
+        .containsEntry("$exists", false);
+    verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), any(Class.class));
+    verifyNoInteractions(hourlyRollups);
+  }
+
+  private static WikimediaEvent stored(String id, String eventData, String receivedAt) {
+    WikimediaEvent event = new WikimediaEvent(eventData);
+    event.setId(id);
+    event.setReceivedAt(Instant.parse(receivedAt));
+    return event;
+  }
+
+  private static Document set(Update update) {
+    return update.getUpdateObject().get("$set", Document.class);
+  }
+
+  private static Document receivedAt(Query query) {
+    return query.getQueryObject().get("receivedAt", Document.class);
+  }
+}
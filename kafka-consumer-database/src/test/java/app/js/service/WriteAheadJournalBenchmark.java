@@ -0,0 +1,90 @@
+package app.js.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Durable journal appends per second for one and for sixteen submitting threads, each append
+ * waiting for its group commit as the Kafka listeners do. Events are released right away so the
+ * segments are truncated as in steady state. Wikimedia's recent-change stream peaks at a few
+ * thousand events per second, with payloads of roughly 1-2 KB.
+ *
+ * <p>Run with {@code mvn -pl kafka-consumer-database test-compile exec:exec -Dexec.executable=java
+ * -Dexec.classpathScope=test -Dexec.args="-cp %classpath org.openjdk.jmh.Main
+ * WriteAheadJournalBenchmark"}. Set {@code -Djournal.dir} to benchmark a specific disk.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WriteAheadJournalBenchmark {
+
+  @Param({"1500"})
+  public int payloadBytes;
+
+  /** Events per {@code appendAll} call; 1 is record listener mode, more is batch mode. */
+  @Param({"1", "50"})
+  public int eventsPerCall;
+
+  private Path directory;
+  private WriteAheadJournal journal;
+  private List<IngestEvent> events;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    Path parent = Path.of(System.getProperty("journal.dir", System.getProperty("java.io.tmpdir")));
+    directory = Files.createTempDirectory(parent, "journal-benchmark");
+    journal = new WriteAheadJournal(directory, 64L << 20, new SimpleMeterRegistry());
+    IngestEvent event = new IngestEvent(0, "{\"x\":\"" + "a".repeat(payloadBytes - 8) + "\"}");
+    events = Collections.nCopies(eventsPerCall, event);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    journal.close();
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  private int appendAndRelease() {
+    List<IngestEvent> journaled = journal.appendAll(events);
+    journal.release(journaled);
+    return journaled.size();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public int append1() {
+    return appendAndRelease();
+  }
+
+  @Benchmark
+  @Threads(16)
+  public int append16() {
+    return appendAndRelease();
+  }
+}
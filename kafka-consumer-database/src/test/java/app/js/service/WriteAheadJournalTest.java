@@ -0,0 +1,141 @@
+package app.js.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class WriteAheadJournalTest {
+
+  @TempDir Path directory;
+
+  @Test
+  void shouldAssignIncreasingSequences() {
+    WriteAheadJournal journal = new WriteAheadJournal(directory, 1024, new SimpleMeterRegistry());
+
+    List<IngestEvent> journaled =
+        journal.appendAll(List.of(new IngestEvent(3, "a"), new IngestEvent(4, "b")));
+    IngestEvent single = journal.append(IngestEvent.of("c"));
+
+    assertThat(journaled).extracting(IngestEvent::partition).containsExactly(3, 4);
+    assertThat(journaled.get(1).sequence()).isEqualTo(journaled.get(0).sequence() + 1);
+    assertThat(single.sequence()).isEqualTo(journaled.get(1).sequence() + 1);
+    journal.close();
+  }
+
+  @Test
+  void shouldMakeConcurrentAppendsDurableInGroups() throws Exception {
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    WriteAheadJournal journal = new WriteAheadJournal(directory, 1 << 20, meterRegistry);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    CountDownLatch start = new CountDownLatch(1);
+
+    for (int t = 0; t < 8; t++) {
+      executor.execute(
+          () -> {
+            try {
+              start.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            for (int i = 0; i < 100; i++) {
+              assertThat(journal.append(IngestEvent.of("{\"id\": " + i + "}"))).isNotNull();
+            }
+          });
+    }
+    start.countDown();
+    executor.shutdown();
+    assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+    var groupSize = meterRegistry.get("wikimedia.persistence.journal.group.size").summary();
+    assertThat(groupSize.totalAmount()).isEqualTo(800);
+    assertThat(groupSize.count()).isLessThanOrEqualTo(800);
+    journal.close();
+  }
+
+  @Test
+  void shouldDeleteSegmentsOnceAllEventsAreReleased() throws Exception {
+    WriteAheadJournal journal = new WriteAheadJournal(directory, 32, new SimpleMeterRegistry());
+
+    List<IngestEvent> journaled = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      journaled.add(journal.append(IngestEvent.of("event-" + i)));
+    }
+    int segments = journal.segmentCount();
+    assertThat(segments).isGreaterThan(1);
+
+    journal.release(journaled.subList(0, 5));
+    assertThat(journal.segmentCount()).isLessThan(segments);
+
+    journal.release(journaled.subList(5, 10));
+    journal.close();
+
+    assertThat(journal.segmentCount()).isZero();
+    try (Stream<Path> files = Files.list(directory)) {
+      assertThat(files).isEmpty();
+    }
+  }
+
+  @Test
+  void shouldReplayUnreleasedEventsAfterRestart() throws Exception {
+    WriteAheadJournal journal = new WriteAheadJournal(directory, 64, new SimpleMeterRegistry());
+    List<IngestEvent> journaled = new ArrayList<>();
+    for (int i = 0; i < 7; i++) {
+      journaled.add(journal.append(IngestEvent.of("event-" + i)));
+    }
+    journal.release(journaled.subList(0, 2));
+    journal.close();
+
+    WriteAheadJournal reopened = new WriteAheadJournal(directory, 64, new SimpleMeterRegistry());
+    List<List<String>> batches = new ArrayList<>();
+    int replayed = reopened.replay(3, batches::add);
+
+    // released events share a segment with unreleased ones, so replay is at-least-once
+    List<String> payloads = batches.stream().flatMap(List::stream).toList();
+    assertThat(replayed).isEqualTo(payloads.size());
+    assertThat(payloads)
+        .containsSubsequence(IntStream.range(2, 7).mapToObj(i -> "event-" + i).toList());
+    assertThat(batches).allMatch(batch -> batch.size() <= 3);
+
+    IngestEvent next = reopened.append(IngestEvent.of("after-restart"));
+    assertThat(next.sequence()).isGreaterThan(journaled.getLast().sequence());
+    reopened.release(List.of(next));
+    reopened.close();
+    try (Stream<Path> files = Files.list(directory)) {
+      assertThat(files).isEmpty();
+    }
+  }
+
+  @Test
+  void shouldStopReplayAtTornRecord() throws Exception {
+    WriteAheadJournal journal = new WriteAheadJournal(directory, 1024, new SimpleMeterRegistry());
+    journal.append(IngestEvent.of("complete-1"));
+    journal.append(IngestEvent.of("complete-2"));
+    journal.close();
+
+    try (Stream<Path> files = Files.list(directory)) {
+      Path segment = files.findFirst().orElseThrow();
+      // a length prefix without its payload, as left by a crash in the middle of a write
+      Files.write(segment, new byte[] {0, 0, 0, 50, 1, 2, 3, 4, 'x'}, StandardOpenOption.APPEND);
+    }
+
+    WriteAheadJournal reopened = new WriteAheadJournal(directory, 1024, new SimpleMeterRegistry());
+    List<String> payloads = new ArrayList<>();
+    reopened.replay(10, payloads::addAll);
+    reopened.close();
+
+    assertThat(payloads).containsExactly("complete-1", "complete-2");
+  }
+}
@@ -0,0 +1,24 @@
+package app.js.kafka;
+
+import java.nio.charset.StandardCharsets;
+import org.apache.kafka.clients.producer.ProducerRecord;
+
+/**
+ * Stamps records with the time they were handed to Kafka, as epoch milliseconds in decimal, so that
+ * the consumer can measure latency from the producer on.
+ */
+final class SentAtHeader {
+
+  /** Header name; the consumer reads the same name. */
+  static final String NAME = "wikimedia-sent-at";
+
+  private SentAtHeader() {}
+
+  static ProducerRecord<String, String> stamped(String topic, String value) {
+    ProducerRecord<String, String> record = new ProducerRecord<>(topic, value);
+    record
+        .headers()
+        .add(NAME, Long.toString(System.currentTimeMillis()).getBytes(StandardCharsets.UTF_8));
+    return record;
+  }
+}
@@ -77,7 +77,7 @@ public class WikimediaChangesProducer {
         .subscribe(
             jsonEvent -> {
               log.info("Sending Wikimedia change to Kafka (size: {} chars)", jsonEvent.length());
-              kafkaTemplate.send(topic, jsonEvent);
+              kafkaTemplate.send(SentAtHeader.stamped(topic, jsonEvent));
               eventsProducedCounter.increment();
             },
             error -> log.error("SSE error: {}", error.toString()),
@@ -95,7 +95,7 @@ public class WikimediaChangesProducer {
                           log.info(
                               "[POC #{}/100] Sending Wikimedia event to Kafka",
                               counter.getAndIncrement());
-                          kafkaTemplate.send(topic, data);
+                          kafkaTemplate.send(SentAtHeader.stamped(topic, data));
                         }),
             error -> log.error("Stream error: {}", error.toString()),
             () -> log.info("POC COMPLETE - 100 real Wikimedia events consumed and sent to Kafka"));
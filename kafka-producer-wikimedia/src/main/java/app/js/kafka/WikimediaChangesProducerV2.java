@@ -69,7 +69,7 @@ public class WikimediaChangesProducerV2 {
         .subscribe(
             jsonEvent -> {
               log.info("Sending Wikimedia change to Kafka (size: {} chars)", jsonEvent.length());
-              kafkaTemplate.send(topic, jsonEvent);
+              kafkaTemplate.send(SentAtHeader.stamped(topic, jsonEvent));
               eventsProducedCounter.increment();
             },
             error -> log.error("SSE error: {}", error.toString()),
@@ -87,7 +87,7 @@ public class WikimediaChangesProducerV2 {
                           log.info(
                               "[POC #{}/200] Sending Wikimedia event to Kafka",
                               counter.getAndIncrement());
-                          kafkaTemplate.send(topic, data);
+                          kafkaTemplate.send(SentAtHeader.stamped(topic, data));
                         }),
             error -> log.error("Stream error: {}", error.toString()),
             () -> log.info("POC COMPLETE - 200 real Wikimedia events consumed and sent to Kafka"));